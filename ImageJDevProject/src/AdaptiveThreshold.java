@@ -0,0 +1,240 @@
+/**
+ * Illumination compensation for the threshold segmentation. The local background brightness of every pixel is
+ * estimated with integral images (summed-area tables), so every window query costs O(1) regardless of the window size.
+ * The background sample are the pixels which the global thresholds accept as background. In a first pass the local
+ * mean and variance of their grey values are taken; sample pixels which deviate by more than
+ * {@link #OUTLIER_DEVIATIONS} standard deviations from their local mean (shadows, reflections) are left out of a second
+ * pair of integral images, which gives the local mean of the background alone. The fixed thresholds are then applied to
+ * the pixels scaled by the ratio of the global to the local background brightness, so the same thresholds as in
+ * {@link CoinUtils#getTransformedMask(int[][][], int, int, int, int, int, boolean)} hold under uneven lighting.
+ *
+ * @version 1.0
+ */
+public class AdaptiveThreshold {
+
+  public static final double DEFAULT_WINDOW_RATIO = 0.125;
+  public static final double OUTLIER_DEVIATIONS = 2.0;
+
+  private static final int NO_SAMPLE = -1;
+
+  private final int width;
+  private final int height;
+  private final int windowRadius;
+  private final long[] backgroundSums;
+  private final int[] backgroundCounts;
+  private final double globalBackgroundMean;
+
+  private AdaptiveThreshold(int width, int height, int windowRadius, long[] backgroundSums, int[] backgroundCounts) {
+    this.width = width;
+    this.height = height;
+    this.windowRadius = windowRadius;
+    this.backgroundSums = backgroundSums;
+    this.backgroundCounts = backgroundCounts;
+    int total = backgroundCounts[index(width, height)];
+    this.globalBackgroundMean = total == 0 ? 0.0 : (double) backgroundSums[index(width, height)] / total;
+  }
+
+  /**
+   * Estimates the background brightness with a window of {@link #DEFAULT_WINDOW_RATIO} of the larger image side.
+   * @param inImg The input RGB image.
+   * @param width The image width.
+   * @param height The image height.
+   * @param minThreshold The minimum threshold of the background.
+   * @param maxThreshold The maximum threshold of the background.
+   * @param delta The delta for the RGB values of the background.
+   * @return Returns the background estimation.
+   */
+  public static AdaptiveThreshold compute(int[][][] inImg, int width, int height, int minThreshold, int maxThreshold,
+      int delta) {
+    return compute(inImg, width, height, minThreshold, maxThreshold, delta,
+        Math.max(1, (int) (DEFAULT_WINDOW_RATIO * Math.max(width, height))));
+  }
+
+  /**
+   * Estimates the background brightness.
+   * @param inImg The input RGB image.
+   * @param width The image width.
+   * @param height The image height.
+   * @param minThreshold The minimum threshold of the background.
+   * @param maxThreshold The maximum threshold of the background.
+   * @param delta The delta for the RGB values of the background.
+   * @param windowRadius The radius of the square window around each pixel.
+   * @return Returns the background estimation.
+   */
+  public static AdaptiveThreshold compute(int[][][] inImg, int width, int height, int minThreshold, int maxThreshold,
+      int delta, int windowRadius) {
+    return compute(inImg, width, height, minThreshold, maxThreshold, delta, windowRadius, TaskMonitor.NONE);
+  }
+
+  /**
+   * Estimates the background brightness and reports the progress once per column of each pass.
+   * @param inImg The input RGB image.
+   * @param width The image width.
+   * @param height The image height.
+   * @param minThreshold The minimum threshold of the background.
+   * @param maxThreshold The maximum threshold of the background.
+   * @param delta The delta for the RGB values of the background.
+   * @param windowRadius The radius of the square window around each pixel.
+   * @param monitor The monitor of the estimation.
+   * @return Returns the background estimation.
+   */
+  public static AdaptiveThreshold compute(int[][][] inImg, int width, int height, int minThreshold, int maxThreshold,
+      int delta, int windowRadius, TaskMonitor monitor) {
+    if (windowRadius <= 0) {
+      throw new IllegalArgumentException("Window radius must be positive: " + windowRadius);
+    }
+    int[] grey = new int[width * height];
+    for (int x = 0; x < width; ++x) {
+      monitor.progress(x, 3 * width);
+      for (int y = 0; y < height; ++y) {
+        int r = inImg[x][y][0];
+        int g = inImg[x][y][1];
+        int b = inImg[x][y][2];
+        boolean background = isInRange(minThreshold, maxThreshold, r) && isInRange(minThreshold, maxThreshold, g) &&
+            isInRange(minThreshold, maxThreshold, b) && Math.abs(r - g) <= delta && Math.abs(g - b) <= delta;
+        grey[x * height + y] = background ? (r + g + b) / 3 : NO_SAMPLE;
+      }
+    }
+
+    /* 1. Local mean and variance of the background sample. */
+    int stride = height + 1;
+    long[] sums = new long[(width + 1) * stride];
+    long[] squaredSums = new long[(width + 1) * stride];
+    int[] counts = new int[(width + 1) * stride];
+    for (int x = 0; x < width; ++x) {
+      monitor.progress(width + x, 3 * width);
+      long columnSum = 0;
+      long columnSquaredSum = 0;
+      int columnCount = 0;
+      for (int y = 0; y < height; ++y) {
+        int value = grey[x * height + y];
+        if (value != NO_SAMPLE) {
+          columnSum += value;
+          columnSquaredSum += value * value;
+          ++columnCount;
+        }
+        int index = (x + 1) * stride + y + 1;
+        sums[index] = sums[index - stride] + columnSum;
+        squaredSums[index] = squaredSums[index - stride] + columnSquaredSum;
+        counts[index] = counts[index - stride] + columnCount;
+      }
+    }
+
+    /* 2. Local mean of the sample pixels which are no outliers. */
+    long[] backgroundSums = new long[(width + 1) * stride];
+    int[] backgroundCounts = new int[(width + 1) * stride];
+    for (int x = 0; x < width; ++x) {
+      monitor.progress(2 * width + x, 3 * width);
+      int startX = Math.max(0, x - windowRadius);
+      int endX = Math.min(width, x + windowRadius + 1);
+      long columnSum = 0;
+      int columnCount = 0;
+      for (int y = 0; y < height; ++y) {
+        int value = grey[x * height + y];
+        if (value != NO_SAMPLE) {
+          int startY = Math.max(0, y - windowRadius);
+          int endY = Math.min(height, y + windowRadius + 1);
+          double count = boxSum(counts, stride, startX, startY, endX, endY);
+          double mean = boxSum(sums, stride, startX, startY, endX, endY) / count;
+          double variance = Math.max(0.0, boxSum(squaredSums, stride, startX, startY, endX, endY) / count - mean * mean);
+          double deviation = value - mean;
+          if (deviation * deviation <= OUTLIER_DEVIATIONS * OUTLIER_DEVIATIONS * variance) {
+            columnSum += value;
+            ++columnCount;
+          }
+        }
+        int index = (x + 1) * stride + y + 1;
+        backgroundSums[index] = backgroundSums[index - stride] + columnSum;
+        backgroundCounts[index] = backgroundCounts[index - stride] + columnCount;
+      }
+    }
+    return new AdaptiveThreshold(width, height, windowRadius, backgroundSums, backgroundCounts);
+  }
+
+  /**
+   * Threshold segmentation of the illumination compensated image into a run-length encoded mask.
+   * @param inImg The input image.
+   * @param minThreshold The minimum threshold.
+   * @param maxThreshold The maximum threshold.
+   * @param delta The delta for the RGB values.
+   * @param invert An marker to invert the segmented mask.
+   * @return Returns the segmented mask.
+   */
+  public RunLengthMask getTransformedMask(int[][][] inImg, int minThreshold, int maxThreshold, int delta, boolean invert) {
+    return getTransformedMask(inImg, minThreshold, maxThreshold, delta, invert, TaskMonitor.NONE);
+  }
+
+  /**
+   * Threshold segmentation of the illumination compensated image, which reports its progress once per row.
+   * @param inImg The input image.
+   * @param minThreshold The minimum threshold.
+   * @param maxThreshold The maximum threshold.
+   * @param delta The delta for the RGB values.
+   * @param invert An marker to invert the segmented mask.
+   * @param monitor The monitor of the segmentation.
+   * @return Returns the segmented mask.
+   */
+  public RunLengthMask getTransformedMask(int[][][] inImg, int minThreshold, int maxThreshold, int delta, boolean invert,
+      TaskMonitor monitor) {
+    RunLengthMask.Builder builder = new RunLengthMask.Builder(width, height);
+    for (int y = 0; y < height; ++y) {
+      monitor.progress(y, height);
+      for (int x = 0; x < width; ++x) {
+        double gain = getGain(x, y);
+        double r = inImg[x][y][0] * gain;
+        double g = inImg[x][y][1] * gain;
+        double b = inImg[x][y][2] * gain;
+        boolean inRange = isInRange(minThreshold, maxThreshold, r) && isInRange(minThreshold, maxThreshold, g) &&
+            isInRange(minThreshold, maxThreshold, b) &&
+            Math.abs(r - g) <= delta && Math.abs(g - b) <= delta;
+        if (inRange != invert) {
+          builder.add(x);
+        }
+      }
+      builder.nextRow();
+    }
+    return builder.build();
+  }
+
+  /**
+   * @param x The x position.
+   * @param y The y position.
+   * @return Returns the mean grey value of the background in the window around the pixel.
+   */
+  public double getBackgroundMean(int x, int y) {
+    int startX = Math.max(0, x - windowRadius);
+    int startY = Math.max(0, y - windowRadius);
+    int endX = Math.min(width, x + windowRadius + 1);
+    int endY = Math.min(height, y + windowRadius + 1);
+    int count = boxSum(backgroundCounts, height + 1, startX, startY, endX, endY);
+    return count == 0 ? globalBackgroundMean : boxSum(backgroundSums, height + 1, startX, startY, endX, endY) / count;
+  }
+
+  /**
+   * @param x The x position.
+   * @param y The y position.
+   * @return Returns the factor which scales the local background brightness to the global one.
+   */
+  public double getGain(int x, int y) {
+    double backgroundMean = getBackgroundMean(x, y);
+    return backgroundMean <= 0.0 ? 1.0 : globalBackgroundMean / backgroundMean;
+  }
+
+  private int index(int x, int y) {
+    return x * (height + 1) + y;
+  }
+
+  private static int boxSum(int[] table, int stride, int startX, int startY, int endX, int endY) {
+    return table[endX * stride + endY] - table[startX * stride + endY] - table[endX * stride + startY] +
+        table[startX * stride + startY];
+  }
+
+  private static double boxSum(long[] table, int stride, int startX, int startY, int endX, int endY) {
+    return table[endX * stride + endY] - table[startX * stride + endY] - table[endX * stride + startY] +
+        table[startX * stride + startY];
+  }
+
+  private static boolean isInRange(int minThreshold, int maxThreshold, double value) {
+    return value >= minThreshold && value <= maxThreshold;
+  }
+}
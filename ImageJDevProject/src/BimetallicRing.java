@@ -0,0 +1,234 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recovers the outer ring of bimetallic coins. The silver ring of a 2 Euro coin has the grey level of the tray, so the
+ * threshold segmentation keeps only the gold core and the coin is measured, and classified, as a small gold coin.
+ * Rays are cast from the fitted center of every circular region; on each ray the strongest colour edge in the annulus
+ * where a ring would end is taken as a rim point. If most rays agree on one radius and the rim points fit a circle
+ * around the core, the region is grown to that disc and measured again. Single metal coins have no edge in that
+ * annulus, and neighbouring coins block only a few rays, so their regions stay unchanged. The time is linear in the
+ * sum of the radii, plus the area of the recovered rings.
+ *
+ * @version 1.0
+ */
+public class BimetallicRing {
+
+  public static final int DEFAULT_RAY_COUNT = 72;
+  public static final double DEFAULT_MIN_RING_RATIO = 1.15;
+  public static final double DEFAULT_MAX_RING_RATIO = 1.6;
+  public static final double DEFAULT_MIN_EDGE_CONTRAST = 30.0;
+  public static final double DEFAULT_MIN_AGREEMENT = 0.75;
+
+  private static final int EDGE_SAMPLE_OFFSET = 2;
+  private static final double RADIUS_TOLERANCE = 0.04;
+  private static final double MAX_CENTER_OFFSET = 0.1;
+  private static final double RIM_CONTRAST_RATIO = 0.5;
+
+  private BimetallicRing() {
+  }
+
+  /**
+   * Recovers the outer ring of all circular regions with the default parameters.
+   * @param regionLabels The labelled regions, grown in place.
+   * @param measurements The circle measurement of each region, replaced for the grown regions.
+   * @param rgbImage The original RGB image.
+   * @return Returns the amount of recovered rings.
+   */
+  public static int recoverRings(Map<Integer, List<Point>> regionLabels, Map<Integer, CircleMeasurement> measurements,
+      int[][][] rgbImage) {
+    return recoverRings(regionLabels, measurements, rgbImage, DEFAULT_RAY_COUNT, DEFAULT_MIN_RING_RATIO,
+        DEFAULT_MAX_RING_RATIO, DEFAULT_MIN_EDGE_CONTRAST, DEFAULT_MIN_AGREEMENT);
+  }
+
+  /**
+   * Recovers the outer ring of all circular regions.
+   * @param regionLabels The labelled regions, grown in place.
+   * @param measurements The circle measurement of each region, replaced for the grown regions.
+   * @param rgbImage The original RGB image.
+   * @param rayCount The amount of rays per region.
+   * @param minRingRatio The smallest outer radius relative to the core radius.
+   * @param maxRingRatio The largest outer radius relative to the core radius.
+   * @param minEdgeContrast The minimum RGB distance across the rim.
+   * @param minAgreement The minimum fraction of rays which agree on the outer radius.
+   * @return Returns the amount of recovered rings.
+   */
+  public static int recoverRings(Map<Integer, List<Point>> regionLabels, Map<Integer, CircleMeasurement> measurements,
+      int[][][] rgbImage, int rayCount, double minRingRatio, double maxRingRatio, double minEdgeContrast,
+      double minAgreement) {
+    if (rayCount < 3 || minRingRatio <= 1.0 || maxRingRatio <= minRingRatio) {
+      throw new IllegalArgumentException(String.format("Invalid ring search: %d rays, ratio %f to %f", rayCount,
+          minRingRatio, maxRingRatio));
+    }
+    int width = rgbImage.length;
+    int height = rgbImage[0].length;
+    int[] labels = null;
+    int recovered = 0;
+    for (Map.Entry<Integer, List<Point>> region : regionLabels.entrySet()) {
+      CircleMeasurement core = measurements.get(region.getKey());
+      if (core == null || !core.isCircular()) {
+        continue;
+      }
+      if (labels == null) {
+        labels = LabelHueStatistics.labelPlane(regionLabels, width, height);
+      }
+      double[] rimX = new double[rayCount];
+      double[] rimY = new double[rayCount];
+      int rimCount = findRim(core, region.getKey(), labels, rgbImage, rayCount, minRingRatio, maxRingRatio,
+          minEdgeContrast, minAgreement, rimX, rimY);
+      if (rimCount == 0) {
+        continue;
+      }
+      CircleMeasurement ring = CircleMeasurement.fit(0, rimX, rimY, rimCount,
+          CircleMeasurement.DEFAULT_REFINEMENT_ITERATIONS);
+      double r0 = core.getRadius();
+      double offset = Math.hypot(ring.getCenterX() - core.getCenterX(), ring.getCenterY() - core.getCenterY());
+      if (!(ring.getRelativeResidual() <= CircleMeasurement.DEFAULT_MAX_RELATIVE_RESIDUAL)
+          || offset > MAX_CENTER_OFFSET * r0 || ring.getRadius() < minRingRatio * r0
+          || ring.getRadius() > maxRingRatio * r0) {
+        continue;
+      }
+      List<Point> points = grow(region.getValue(), region.getKey(), labels, width, height, ring);
+      region.setValue(points);
+      measurements.put(region.getKey(), CircleMeasurement.fit(points.size(), rimX, rimY, rimCount,
+          CircleMeasurement.DEFAULT_REFINEMENT_ITERATIONS, -0.5, -0.5, width - 0.5, height - 0.5));
+      ++recovered;
+    }
+    return recovered;
+  }
+
+  /**
+   * Casts the rays of one region and keeps the rim points of the rays which agree on the outer radius.
+   * @return Returns the amount of rim points, 0 if the rays do not agree.
+   */
+  private static int findRim(CircleMeasurement core, int id, int[] labels, int[][][] rgbImage, int rayCount,
+      double minRingRatio, double maxRingRatio, double minEdgeContrast, double minAgreement, double[] rimX,
+      double[] rimY) {
+    int width = rgbImage.length;
+    int height = rgbImage[0].length;
+    double centerX = core.getCenterX();
+    double centerY = core.getCenterY();
+    double r0 = core.getRadius();
+    int start = (int) Math.ceil(minRingRatio * r0);
+    int end = (int) Math.floor(maxRingRatio * r0);
+    double[] radii = new double[rayCount];
+    double[] contrasts = new double[Math.max(0, end - start + 1)];
+    int validCount = 0;
+    for (int ray = 0; ray < rayCount; ++ray) {
+      double angle = 2.0 * Math.PI * ray / rayCount;
+      double cos = Math.cos(angle);
+      double sin = Math.sin(angle);
+      int last = start - 1;
+      double maxContrast = minEdgeContrast;
+      for (int t = start; t <= end; ++t) {
+        double contrast = edgeContrast(rgbImage, labels, id, width, height, centerX, centerY, cos, sin, t);
+        if (Double.isNaN(contrast)) {
+          //the ray leaves the image or crosses another region, the rim cannot lie further out
+          break;
+        }
+        contrasts[t - start] = contrast;
+        maxContrast = Math.max(maxContrast, contrast);
+        last = t;
+      }
+      //a raised rim gives two edges, the outer one is the edge of the coin
+      double bestRadius = Double.NaN;
+      for (int t = last; t >= start && Double.isNaN(bestRadius); --t) {
+        double contrast = contrasts[t - start];
+        if (contrast >= RIM_CONTRAST_RATIO * maxContrast && contrast >= minEdgeContrast
+            && (t == last || contrast >= contrasts[t + 1 - start])
+            && (t == start || contrast >= contrasts[t - 1 - start])) {
+          bestRadius = t;
+        }
+      }
+      if (!Double.isNaN(bestRadius)) {
+        radii[validCount] = bestRadius;
+        rimX[validCount] = centerX + bestRadius * cos;
+        rimY[validCount] = centerY + bestRadius * sin;
+        ++validCount;
+      }
+    }
+    if (validCount < minAgreement * rayCount) {
+      return 0;
+    }
+    double[] sortedRadii = Arrays.copyOf(radii, validCount);
+    Arrays.sort(sortedRadii);
+    double median = sortedRadii[validCount / 2];
+    int rimCount = 0;
+    for (int i = 0; i < validCount; ++i) {
+      if (Math.abs(radii[i] - median) <= RADIUS_TOLERANCE * median) {
+        rimX[rimCount] = rimX[i];
+        rimY[rimCount] = rimY[i];
+        ++rimCount;
+      }
+    }
+    return rimCount < minAgreement * rayCount ? 0 : rimCount;
+  }
+
+  /**
+   * Calculates the RGB distance between the mean colours on both sides of a position on a ray.
+   * @return Returns the contrast, NaN if a sample lies outside the image or in another region.
+   */
+  private static double edgeContrast(int[][][] rgbImage, int[] labels, int id, int width, int height, double centerX,
+      double centerY, double cos, double sin, int t) {
+    double[] inner = new double[3];
+    double[] outer = new double[3];
+    for (int offset = 1; offset <= EDGE_SAMPLE_OFFSET; ++offset) {
+      if (!addSample(rgbImage, labels, id, width, height, centerX + (t - offset) * cos, centerY + (t - offset) * sin,
+          inner) || !addSample(rgbImage, labels, id, width, height, centerX + (t + offset) * cos,
+          centerY + (t + offset) * sin, outer)) {
+        return Double.NaN;
+      }
+    }
+    double dr = inner[0] - outer[0];
+    double dg = inner[1] - outer[1];
+    double db = inner[2] - outer[2];
+    return Math.sqrt(dr * dr + dg * dg + db * db) / EDGE_SAMPLE_OFFSET;
+  }
+
+  private static boolean addSample(int[][][] rgbImage, int[] labels, int id, int width, int height, double x,
+      double y, double[] sum) {
+    int px = (int) Math.round(x);
+    int py = (int) Math.round(y);
+    if (px < 0 || py < 0 || px >= width || py >= height) {
+      return false;
+    }
+    int label = labels[px * height + py];
+    if (label != LabelHueStatistics.BACKGROUND_LABEL && label != id) {
+      return false;
+    }
+    int[] rgb = rgbImage[px][py];
+    sum[0] += rgb[0];
+    sum[1] += rgb[1];
+    sum[2] += rgb[2];
+    return true;
+  }
+
+  /**
+   * Grows a region to the disc of its ring, without the pixels of other regions.
+   * @return Returns the pixels of the grown region.
+   */
+  private static List<Point> grow(List<Point> points, int id, int[] labels, int width, int height,
+      CircleMeasurement ring) {
+    double centerX = ring.getCenterX();
+    double centerY = ring.getCenterY();
+    double radius = ring.getRadius();
+    int minX = Math.max(0, (int) Math.floor(centerX - radius));
+    int maxX = Math.min(width - 1, (int) Math.ceil(centerX + radius));
+    int minY = Math.max(0, (int) Math.floor(centerY - radius));
+    int maxY = Math.min(height - 1, (int) Math.ceil(centerY + radius));
+    List<Point> grown = new ArrayList<>(points);
+    for (int x = minX; x <= maxX; ++x) {
+      for (int y = minY; y <= maxY; ++y) {
+        double dx = x - centerX;
+        double dy = y - centerY;
+        if (dx * dx + dy * dy <= radius * radius && labels[x * height + y] == LabelHueStatistics.BACKGROUND_LABEL) {
+          labels[x * height + y] = id;
+          grown.add(new Point(x, y));
+        }
+      }
+    }
+    return grown;
+  }
+}
@@ -0,0 +1,285 @@
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Calibration of a fixed camera rig across several images. The reference marker is segmented and measured only for
+ * the first image (and optionally again after a number of images). Every further image is validated cheaply: a few
+ * pixels are sampled inside the expected marker disc, which have to match the marker thresholds, and in a ring around
+ * it, which must not. As long as the validation holds, the marker mask and the scaling factor of the calibration are
+ * reused, otherwise the rig has moved and the marker is measured again.
+ *
+ * @version 1.0
+ */
+public class CalibrationSession {
+
+  public static final int DEFAULT_SAMPLES = 64;
+  public static final double DEFAULT_MIN_MATCH_RATIO = 0.9;
+
+  private static final double INNER_RADIUS_RATIO = 0.8;
+  private static final double RING_START_RATIO = 1.15;
+  private static final double RING_END_RATIO = 1.35;
+  private static final double GOLDEN_ANGLE = Math.PI * (3.0 - Math.sqrt(5.0));
+
+  private final ThresholdParameters thresholds;
+  private final int recalibrationInterval;
+  private final int samples;
+  private final double minMatchRatio;
+  private Calibration calibration;
+  private int imagesSinceCalibration;
+
+  /**
+   * Creates a session which only recalibrates if the validation fails.
+   * @param thresholds The threshold parameters of the reference marker.
+   */
+  public CalibrationSession(ThresholdParameters thresholds) {
+    this(thresholds, 0, DEFAULT_SAMPLES, DEFAULT_MIN_MATCH_RATIO);
+  }
+
+  /**
+   * Creates a session.
+   * @param thresholds The threshold parameters of the reference marker.
+   * @param recalibrationInterval The amount of images after which the marker is measured again, 0 for never.
+   * @param samples The amount of sampled pixels inside and around the marker each.
+   * @param minMatchRatio The ratio of the sampled pixels which have to match for a valid calibration.
+   */
+  public CalibrationSession(ThresholdParameters thresholds, int recalibrationInterval, int samples, double minMatchRatio) {
+    if (recalibrationInterval < 0 || samples <= 0) {
+      throw new IllegalArgumentException(String.format("Invalid recalibration interval %d or samples %d",
+          recalibrationInterval, samples));
+    }
+    this.thresholds = thresholds;
+    this.recalibrationInterval = recalibrationInterval;
+    this.samples = samples;
+    this.minMatchRatio = minMatchRatio;
+  }
+
+  /**
+   * Returns the calibration of an image, which is either the reused calibration of a previous image or a new one.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param adaptiveThreshold The background estimation of the image, or null for the global thresholds.
+   * @return Returns the calibration of the image.
+   */
+  public Calibration calibrate(int width, int height, int[][][] inDataArrInt, AdaptiveThreshold adaptiveThreshold) {
+    return calibrate(width, height, inDataArrInt, adaptiveThreshold, null);
+  }
+
+  /**
+   * Returns the calibration of the region of interest of an image. The reference marker has to lie inside the region.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param adaptiveThreshold The background estimation of the image, or null for the global thresholds.
+   * @param roiMask The mask of the region of interest, or null for the whole image.
+   * @return Returns the calibration of the image.
+   */
+  public Calibration calibrate(int width, int height, int[][][] inDataArrInt, AdaptiveThreshold adaptiveThreshold,
+      RunLengthMask roiMask) {
+    return calibrate(width, height, inDataArrInt, adaptiveThreshold, roiMask, TaskMonitor.NONE);
+  }
+
+  /**
+   * Returns the calibration of the region of interest of an image, the measurement of a new marker can be cancelled.
+   * A cancelled calibration leaves the session unchanged.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param adaptiveThreshold The background estimation of the image, or null for the global thresholds.
+   * @param roiMask The mask of the region of interest, or null for the whole image.
+   * @param monitor The monitor of the calibration.
+   * @return Returns the calibration of the image.
+   */
+  public Calibration calibrate(int width, int height, int[][][] inDataArrInt, AdaptiveThreshold adaptiveThreshold,
+      RunLengthMask roiMask, TaskMonitor monitor) {
+    return calibrate(width, height, inDataArrInt, adaptiveThreshold, roiMask, CoinUtils.NORMALIZE_COUNT, monitor);
+  }
+
+  /**
+   * Returns the calibration of the region of interest of an image, a new marker is normalized with the given amount of
+   * morphology iterations. The measurement of a new marker can be cancelled, which leaves the session unchanged.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param adaptiveThreshold The background estimation of the image, or null for the global thresholds.
+   * @param roiMask The mask of the region of interest, or null for the whole image.
+   * @param normalizeCount The amount of morphology iterations for the reference marker.
+   * @param monitor The monitor of the calibration.
+   * @return Returns the calibration of the image.
+   */
+  public synchronized Calibration calibrate(int width, int height, int[][][] inDataArrInt,
+      AdaptiveThreshold adaptiveThreshold, RunLengthMask roiMask, int normalizeCount, TaskMonitor monitor) {
+    monitor.checkCancelled();
+    if (isReusable(width, height, (x, y) -> inDataArrInt[x][y][0] << 16 | inDataArrInt[x][y][1] << 8 |
+        inDataArrInt[x][y][2], adaptiveThreshold, roiMask)) {
+      return reuse();
+    }
+    return measure(width, height, CoinController.segmentReferenceMarker(width, height, inDataArrInt,
+        adaptiveThreshold, thresholds, roiMask, normalizeCount, monitor));
+  }
+
+  /**
+   * Returns the calibration of an image with packed RGB pixels and the global thresholds, e.g. a frame of a video,
+   * so the image does not have to be split into channels.
+   * @param width Image width.
+   * @param height Image height.
+   * @param pixels The packed RGB pixels, row by row.
+   * @param normalizeCount The base amount of morphology iterations for the reference marker, which is scaled with the
+   *     image resolution.
+   * @param monitor The monitor of the calibration.
+   * @return Returns the calibration of the image.
+   */
+  public synchronized Calibration calibrate(int width, int height, int[] pixels, int normalizeCount,
+      TaskMonitor monitor) {
+    monitor.checkCancelled();
+    if (isReusable(width, height, (x, y) -> pixels[y * width + x], null, null)) {
+      return reuse();
+    }
+    RunLengthMask transformedMask = ThresholdKernel.threshold(pixels, width, height,
+        thresholds.getMarkerMinThreshold(), thresholds.getMarkerMaxThreshold(), thresholds.getMarkerDelta(), false,
+        monitor.subTask(0.0, 0.3));
+    return measure(width, height, CoinUtils.normalizeReferenceMarker(transformedMask, normalizeCount,
+        monitor.subTask(0.3, 1.0)));
+  }
+
+  /**
+   * @return Returns true, if the current calibration is neither due nor invalid for the image.
+   */
+  private boolean isReusable(int width, int height, IntBinaryOperator pixels, AdaptiveThreshold adaptiveThreshold,
+      RunLengthMask roiMask) {
+    boolean due = recalibrationInterval > 0 && imagesSinceCalibration + 1 > recalibrationInterval;
+    return calibration != null && !due && calibration.width == width && calibration.height == height &&
+        isValid(calibration, pixels, adaptiveThreshold, roiMask);
+  }
+
+  private Calibration reuse() {
+    ++imagesSinceCalibration;
+    calibration = calibration.reused();
+    return calibration;
+  }
+
+  /**
+   * Measures a newly segmented reference marker and starts the calibration with it.
+   */
+  private Calibration measure(int width, int height, RunLengthMask referenceMarkerMask) {
+    ReferenceMarkerMeasurement measurement = CoinController.measureReferenceMarker(referenceMarkerMask);
+    double scalingFactor = MathUtils.calculateScalingFactor(CoinController.REFERENCE_MARKER_DIAMETER,
+        measurement.getDiameter());
+    calibration = new Calibration(width, height, referenceMarkerMask, measurement, scalingFactor, false);
+    imagesSinceCalibration = 0;
+    return calibration;
+  }
+
+  /**
+   * @return Returns the threshold parameters of the reference marker.
+   */
+  public ThresholdParameters getThresholds() {
+    return thresholds;
+  }
+
+  /**
+   * Forgets the calibration, the next image is measured again.
+   */
+  public synchronized void reset() {
+    calibration = null;
+  }
+
+  /**
+   * Samples the pixels on a sunflower spiral inside the marker disc and on a second spiral in the ring around it.
+   * @param calibration The calibration to validate.
+   * @param pixels The packed RGB value of a pixel by x and y.
+   * @param adaptiveThreshold The background estimation of the image, or null for the global thresholds.
+   * @param roiMask The mask of the region of interest, or null for the whole image.
+   * @return Returns true, if enough pixels inside match the marker and enough pixels around do not.
+   */
+  private boolean isValid(Calibration calibration, IntBinaryOperator pixels, AdaptiveThreshold adaptiveThreshold,
+      RunLengthMask roiMask) {
+    ReferenceMarkerMeasurement measurement = calibration.measurement;
+    double radius = measurement.getFittedDiameter() / 2.0;
+    if (Double.isNaN(radius)) {
+      return false;
+    }
+    int inside = 0;
+    int outside = 0;
+    for (int sample = 0; sample < samples; ++sample) {
+      double angle = sample * GOLDEN_ANGLE;
+      double fraction = (sample + 0.5) / samples;
+      double innerRadius = radius * INNER_RADIUS_RATIO * Math.sqrt(fraction);
+      double ringRadius = radius * (RING_START_RATIO + (RING_END_RATIO - RING_START_RATIO) * fraction);
+      if (isMarkerPixel(pixels, calibration, adaptiveThreshold, roiMask, measurement.getCenterX() + innerRadius * Math.cos(angle),
+          measurement.getCenterY() + innerRadius * Math.sin(angle))) {
+        ++inside;
+      }
+      if (!isMarkerPixel(pixels, calibration, adaptiveThreshold, roiMask, measurement.getCenterX() + ringRadius * Math.cos(angle),
+          measurement.getCenterY() + ringRadius * Math.sin(angle))) {
+        ++outside;
+      }
+    }
+    return inside >= minMatchRatio * samples && outside >= minMatchRatio * samples;
+  }
+
+  private boolean isMarkerPixel(IntBinaryOperator pixels, Calibration calibration, AdaptiveThreshold adaptiveThreshold,
+      RunLengthMask roiMask, double x, double y) {
+    int pixelX = (int) Math.round(x);
+    int pixelY = (int) Math.round(y);
+    if (pixelX < 0 || pixelY < 0 || pixelX >= calibration.width || pixelY >= calibration.height ||
+        (roiMask != null && !roiMask.contains(pixelX, pixelY))) {
+      return false;
+    }
+    double gain = adaptiveThreshold == null ? 1.0 : adaptiveThreshold.getGain(pixelX, pixelY);
+    int rgb = pixels.applyAsInt(pixelX, pixelY);
+    double r = ((rgb >> 16) & 0xff) * gain;
+    double g = ((rgb >> 8) & 0xff) * gain;
+    double b = (rgb & 0xff) * gain;
+    int min = thresholds.getMarkerMinThreshold();
+    int max = thresholds.getMarkerMaxThreshold();
+    int delta = thresholds.getMarkerDelta();
+    return r >= min && r <= max && g >= min && g <= max && b >= min && b <= max &&
+        Math.abs(r - g) <= delta && Math.abs(g - b) <= delta;
+  }
+
+  /**
+   * The reference marker and the scaling factor of a rig.
+   */
+  public static final class Calibration {
+
+    private final int width;
+    private final int height;
+    private final RunLengthMask referenceMarkerMask;
+    private final ReferenceMarkerMeasurement measurement;
+    private final double scalingFactor;
+    private final boolean reused;
+
+    Calibration(int width, int height, RunLengthMask referenceMarkerMask, ReferenceMarkerMeasurement measurement,
+        double scalingFactor, boolean reused) {
+      this.width = width;
+      this.height = height;
+      this.referenceMarkerMask = referenceMarkerMask;
+      this.measurement = measurement;
+      this.scalingFactor = scalingFactor;
+      this.reused = reused;
+    }
+
+    private Calibration reused() {
+      return reused ? this : new Calibration(width, height, referenceMarkerMask, measurement, scalingFactor, true);
+    }
+
+    public RunLengthMask getReferenceMarkerMask() {
+      return referenceMarkerMask;
+    }
+
+    public ReferenceMarkerMeasurement getMeasurement() {
+      return measurement;
+    }
+
+    public double getScalingFactor() {
+      return scalingFactor;
+    }
+
+    /**
+     * @return Returns true, if the calibration was taken over from a previous image.
+     */
+    public boolean isReused() {
+      return reused;
+    }
+  }
+}
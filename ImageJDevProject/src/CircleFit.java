@@ -0,0 +1,152 @@
+/**
+ * Algebraic least squares circle fit (Kasa fit). The points are only accumulated as sums, so a fit can be built point
+ * by point in a single pass and fits of different parts of a region can be merged.
+ * All points are stored relative to an origin to keep the sums numerically stable; only fits with the same origin can be merged.
+ *
+ * @version 1.0
+ */
+public class CircleFit {
+
+  private final double originX;
+  private final double originY;
+  private int count;
+  private double sumX;
+  private double sumY;
+  private double sumXX;
+  private double sumYY;
+  private double sumXY;
+  private double sumXZ;
+  private double sumYZ;
+  private double sumZ;
+  private boolean solved;
+  private double centerX;
+  private double centerY;
+  private double radius;
+
+  /**
+   * Creates an empty fit.
+   * @param originX The x position of the origin, should be near the points.
+   * @param originY The y position of the origin, should be near the points.
+   */
+  public CircleFit(double originX, double originY) {
+    this.originX = originX;
+    this.originY = originY;
+  }
+
+  /**
+   * Adds a point of the circle boundary.
+   * @param x The x position.
+   * @param y The y position.
+   */
+  public void addPoint(double x, double y) {
+    double u = x - originX;
+    double v = y - originY;
+    double z = u * u + v * v;
+    ++count;
+    sumX += u;
+    sumY += v;
+    sumXX += u * u;
+    sumYY += v * v;
+    sumXY += u * v;
+    sumXZ += u * z;
+    sumYZ += v * z;
+    sumZ += z;
+    solved = false;
+  }
+
+  /**
+   * Adds all points of another fit with the same origin.
+   * @param other The other fit.
+   */
+  public void merge(CircleFit other) {
+    if (Double.compare(originX, other.originX) != 0 || Double.compare(originY, other.originY) != 0) {
+      throw new IllegalArgumentException("Circle fits with different origins cannot be merged");
+    }
+    count += other.count;
+    sumX += other.sumX;
+    sumY += other.sumY;
+    sumXX += other.sumXX;
+    sumYY += other.sumYY;
+    sumXY += other.sumXY;
+    sumXZ += other.sumXZ;
+    sumYZ += other.sumYZ;
+    sumZ += other.sumZ;
+    solved = false;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * @return Returns the x position of the fitted center or NaN, if the points do not define a circle.
+   */
+  public double getCenterX() {
+    solve();
+    return centerX;
+  }
+
+  /**
+   * @return Returns the y position of the fitted center or NaN, if the points do not define a circle.
+   */
+  public double getCenterY() {
+    solve();
+    return centerY;
+  }
+
+  /**
+   * @return Returns the fitted radius or NaN, if the points do not define a circle.
+   */
+  public double getRadius() {
+    solve();
+    return radius;
+  }
+
+  /**
+   * @return Returns the fitted diameter or NaN, if the points do not define a circle.
+   */
+  public double getDiameter() {
+    return 2.0 * getRadius();
+  }
+
+  /**
+   * Solves the normal equations of x^2 + y^2 + D*x + E*y + F = 0 with Cramer's rule.
+   */
+  private void solve() {
+    if (solved) {
+      return;
+    }
+    solved = true;
+    centerX = Double.NaN;
+    centerY = Double.NaN;
+    radius = Double.NaN;
+    if (count < 3) {
+      return;
+    }
+    double n = count;
+    double determinant = determinant(sumXX, sumXY, sumX, sumXY, sumYY, sumY, sumX, sumY, n);
+    if (Math.abs(determinant) < 1e-12) {
+      return;
+    }
+    double d = determinant(-sumXZ, sumXY, sumX, -sumYZ, sumYY, sumY, -sumZ, sumY, n) / determinant;
+    double e = determinant(sumXX, -sumXZ, sumX, sumXY, -sumYZ, sumY, sumX, -sumZ, n) / determinant;
+    double f = determinant(sumXX, sumXY, -sumXZ, sumXY, sumYY, -sumYZ, sumX, sumY, -sumZ) / determinant;
+    double u = -d / 2.0;
+    double v = -e / 2.0;
+    double squaredRadius = u * u + v * v - f;
+    if (squaredRadius <= 0) {
+      return;
+    }
+    centerX = originX + u;
+    centerY = originY + v;
+    radius = Math.sqrt(squaredRadius);
+  }
+
+  /**
+   * @return Returns the determinant of the 3x3 matrix given row by row.
+   */
+  static double determinant(double a, double b, double c, double d, double e, double f, double g, double h,
+      double i) {
+    return a * (e * i - f * h) - b * (d * i - f * g) + c * (d * h - e * g);
+  }
+}
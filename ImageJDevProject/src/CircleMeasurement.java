@@ -0,0 +1,227 @@
+/**
+ * Circle measurement of a single region from its boundary. The boundary is given as edge points between the region
+ * and the background, a circle is fitted algebraically ({@link CircleFit}) and optionally refined with a few
+ * Gauss-Newton steps of the geometric fit. Besides the diameter, the measurement reports how well the region matches
+ * the circle: the residual is the root mean square distance of the boundary to the circle and the roundness is the
+ * ratio of the region area to the area of the circle. Both are cheap to check, so regions which are no coins can be
+ * rejected before the classification. For a region cut by the image border, the roundness compares the area with the
+ * visible part of the circle only. The time is linear in the boundary length.
+ *
+ * @version 1.0
+ */
+public class CircleMeasurement {
+
+  public static final int DEFAULT_REFINEMENT_ITERATIONS = 3;
+  public static final double DEFAULT_MAX_RELATIVE_RESIDUAL = 0.05;
+  public static final double DEFAULT_MIN_ROUNDNESS = 0.9;
+  public static final double DEFAULT_MAX_ROUNDNESS = 1.1;
+
+  private static final double CONVERGENCE = 1e-3;
+
+  private final int area;
+  private final int boundaryCount;
+  private final double centerX;
+  private final double centerY;
+  private final double radius;
+  private final double residual;
+  private final double circleArea;
+
+  private CircleMeasurement(int area, int boundaryCount, double centerX, double centerY, double radius, double residual,
+      double circleArea) {
+    this.area = area;
+    this.boundaryCount = boundaryCount;
+    this.centerX = centerX;
+    this.centerY = centerY;
+    this.radius = radius;
+    this.residual = residual;
+    this.circleArea = circleArea;
+  }
+
+  /**
+   * Fits a circle to the boundary of a region.
+   * @param area The area of the region in pixels.
+   * @param boundaryX The x positions of the boundary points.
+   * @param boundaryY The y positions of the boundary points.
+   * @param count The amount of boundary points.
+   * @param refinementIterations The maximum amount of geometric refinement steps, 0 keeps the algebraic fit.
+   * @return Returns the measurement, the diameter is NaN if the boundary does not define a circle.
+   */
+  public static CircleMeasurement fit(int area, double[] boundaryX, double[] boundaryY, int count, int refinementIterations) {
+    return fit(area, boundaryX, boundaryY, count, refinementIterations, Double.NEGATIVE_INFINITY,
+        Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Fits a circle to the visible boundary of a region which may be cut by the image border. The pixels are centered on
+   * integer positions, so an image of width w spans -0.5 to w - 0.5.
+   * @param area The area of the region in pixels.
+   * @param boundaryX The x positions of the boundary points.
+   * @param boundaryY The y positions of the boundary points.
+   * @param count The amount of boundary points.
+   * @param refinementIterations The maximum amount of geometric refinement steps, 0 keeps the algebraic fit.
+   * @param minX The left edge of the visible image.
+   * @param minY The top edge of the visible image.
+   * @param maxX The right edge of the visible image.
+   * @param maxY The bottom edge of the visible image.
+   * @return Returns the measurement, the diameter is NaN if the boundary does not define a circle.
+   */
+  public static CircleMeasurement fit(int area, double[] boundaryX, double[] boundaryY, int count,
+      int refinementIterations, double minX, double minY, double maxX, double maxY) {
+    if (count == 0) {
+      return new CircleMeasurement(area, 0, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+    }
+    CircleFit circleFit = new CircleFit(boundaryX[0], boundaryY[0]);
+    for (int i = 0; i < count; ++i) {
+      circleFit.addPoint(boundaryX[i], boundaryY[i]);
+    }
+    double a = circleFit.getCenterX();
+    double b = circleFit.getCenterY();
+    double r = circleFit.getRadius();
+    if (Double.isNaN(r)) {
+      return new CircleMeasurement(area, count, a, b, r, Double.NaN, Double.NaN);
+    }
+
+    for (int iteration = 0; iteration < refinementIterations; ++iteration) {
+      //normal equations of the residuals |p - c| - r with the Jacobian (-(x - a) / d, -(y - b) / d, -1)
+      double jaa = 0.0, jab = 0.0, jar = 0.0, jbb = 0.0, jbr = 0.0, jrr = count;
+      double ga = 0.0, gb = 0.0, gr = 0.0;
+      for (int i = 0; i < count; ++i) {
+        double dx = boundaryX[i] - a;
+        double dy = boundaryY[i] - b;
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance == 0.0) {
+          continue;
+        }
+        double ua = -dx / distance;
+        double ub = -dy / distance;
+        double error = distance - r;
+        jaa += ua * ua;
+        jab += ua * ub;
+        jar -= ua;
+        jbb += ub * ub;
+        jbr -= ub;
+        ga -= ua * error;
+        gb -= ub * error;
+        gr += error;
+      }
+      double determinant = CircleFit.determinant(jaa, jab, jar, jab, jbb, jbr, jar, jbr, jrr);
+      if (Math.abs(determinant) < 1e-12) {
+        break;
+      }
+      double stepA = CircleFit.determinant(ga, jab, jar, gb, jbb, jbr, gr, jbr, jrr) / determinant;
+      double stepB = CircleFit.determinant(jaa, ga, jar, jab, gb, jbr, jar, gr, jrr) / determinant;
+      double stepR = CircleFit.determinant(jaa, jab, ga, jab, jbb, gb, jar, jbr, gr) / determinant;
+      a += stepA;
+      b += stepB;
+      r += stepR;
+      if (Math.abs(stepA) + Math.abs(stepB) + Math.abs(stepR) < CONVERGENCE) {
+        break;
+      }
+    }
+
+    double squaredErrors = 0.0;
+    for (int i = 0; i < count; ++i) {
+      double dx = boundaryX[i] - a;
+      double dy = boundaryY[i] - b;
+      double error = Math.sqrt(dx * dx + dy * dy) - r;
+      squaredErrors += error * error;
+    }
+    return new CircleMeasurement(area, count, a, b, r, Math.sqrt(squaredErrors / count),
+        visibleArea(a, b, r, minX, minY, maxX, maxY));
+  }
+
+  /**
+   * Integrates the area of a circle inside a rectangle over strips of half a pixel.
+   * @return Returns the visible area of the circle.
+   */
+  private static double visibleArea(double centerX, double centerY, double radius, double minX, double minY,
+      double maxX, double maxY) {
+    double startX = Math.max(centerX - radius, minX);
+    double endX = Math.min(centerX + radius, maxX);
+    if (startX <= centerX - radius && endX >= centerX + radius && centerY - radius >= minY
+        && centerY + radius <= maxY) {
+      return Math.PI * radius * radius;
+    }
+    if (endX <= startX) {
+      return 0.0;
+    }
+    int strips = Math.max(1, (int) Math.ceil(2.0 * (endX - startX)));
+    double stripWidth = (endX - startX) / strips;
+    double visibleArea = 0.0;
+    for (int i = 0; i < strips; ++i) {
+      double dx = startX + (i + 0.5) * stripWidth - centerX;
+      double halfChord = Math.sqrt(Math.max(0.0, radius * radius - dx * dx));
+      double chord = Math.min(centerY + halfChord, maxY) - Math.max(centerY - halfChord, minY);
+      visibleArea += Math.max(0.0, chord) * stripWidth;
+    }
+    return visibleArea;
+  }
+
+  /**
+   * Checks with the default limits if the region is a circle.
+   * @return Returns true, if the region can be a coin.
+   */
+  public boolean isCircular() {
+    return isCircular(DEFAULT_MAX_RELATIVE_RESIDUAL, DEFAULT_MIN_ROUNDNESS, DEFAULT_MAX_ROUNDNESS);
+  }
+
+  /**
+   * Checks if the region is a circle.
+   * @param maxRelativeResidual The maximum residual relative to the radius.
+   * @param minRoundness The minimum roundness.
+   * @param maxRoundness The maximum roundness.
+   * @return Returns true, if the region can be a coin.
+   */
+  public boolean isCircular(double maxRelativeResidual, double minRoundness, double maxRoundness) {
+    double roundness = getRoundness();
+    return getRelativeResidual() <= maxRelativeResidual && roundness >= minRoundness && roundness <= maxRoundness;
+  }
+
+  public int getArea() {
+    return area;
+  }
+
+  public int getBoundaryCount() {
+    return boundaryCount;
+  }
+
+  public double getCenterX() {
+    return centerX;
+  }
+
+  public double getCenterY() {
+    return centerY;
+  }
+
+  public double getRadius() {
+    return radius;
+  }
+
+  /**
+   * @return Returns the fitted diameter in pixels or NaN, if the boundary does not define a circle.
+   */
+  public double getDiameter() {
+    return 2.0 * radius;
+  }
+
+  /**
+   * @return Returns the root mean square distance of the boundary points to the circle in pixels.
+   */
+  public double getResidual() {
+    return residual;
+  }
+
+  /**
+   * @return Returns the residual relative to the radius.
+   */
+  public double getRelativeResidual() {
+    return residual / radius;
+  }
+
+  /**
+   * @return Returns the area of the region relative to the visible area of the fitted circle, 1 for a perfect disc.
+   */
+  public double getRoundness() {
+    return area / circleArea;
+  }
+}
@@ -0,0 +1,77 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The classification result of all coins in an image. Besides the total sum, it holds the result of every coin, so
+ * images with uncertain coins can be told apart from the clear ones without classifying them again.
+ *
+ * @version 1.0
+ */
+public class ClassificationResult {
+
+  public static final double DEFAULT_MIN_CONFIDENCE = 0.25;
+
+  private final List<CoinResult> coins;
+  private final double sum;
+
+  /**
+   * Creates the result of an image.
+   * @param coins The results of all coins.
+   */
+  public ClassificationResult(List<CoinResult> coins) {
+    this.coins = Collections.unmodifiableList(new ArrayList<>(coins));
+    double coinSum = 0.0;
+    for (CoinResult coin : coins) {
+      coinSum += coin.getCoin().getValue();
+    }
+    this.sum = coinSum;
+  }
+
+  /**
+   * @return Returns the results of all coins.
+   */
+  public List<CoinResult> getCoins() {
+    return coins;
+  }
+
+  /**
+   * @return Returns the total sum of all coins.
+   */
+  public double getSum() {
+    return sum;
+  }
+
+  /**
+   * @return Returns the lowest confidence of all coins, 1 if there are no coins.
+   */
+  public double getMinConfidence() {
+    double minConfidence = 1.0;
+    for (CoinResult coin : coins) {
+      minConfidence = Math.min(minConfidence, coin.getConfidence());
+    }
+    return minConfidence;
+  }
+
+  /**
+   * @param minConfidence The minimum confidence of a single coin.
+   * @return Returns true, if all coins are classified with at least the minimum confidence.
+   */
+  public boolean isConfident(double minConfidence) {
+    return getMinConfidence() >= minConfidence;
+  }
+
+  /**
+   * Moves the centroids of all coins, e.g. from the coordinates of a region of interest into the ones of the image.
+   * @param offsetX The offset in x direction in pixels.
+   * @param offsetY The offset in y direction in pixels.
+   * @return Returns the result with all centroids moved by the offset.
+   */
+  public ClassificationResult translate(double offsetX, double offsetY) {
+    List<CoinResult> translatedCoins = new ArrayList<>(coins.size());
+    for (CoinResult coin : coins) {
+      translatedCoins.add(coin.translate(offsetX, offsetY));
+    }
+    return new ClassificationResult(translatedCoins);
+  }
+}
@@ -1,7 +1,8 @@
 import java.util.Objects;
 
 /**
- * Represents a pixel in an image.
+ * Represents a coin of a currency. A coin is immutable, so the currency catalogue can hand out its coins without
+ * exposing its diameter index.
  *
  * @author  Michael Eder
  * @version 1.0
@@ -9,42 +10,50 @@ import java.util.Objects;
  */
 public class Coin {
 
-  private double value;
-  private double diameter;
-  private boolean isGold;
+  private final String currency;
+  private final double value;
+  private final double diameter;
+  private final double thickness;
+  private final CoinFamily family;
 
  public Coin(double value, double diameter) {
    this(value, diameter, false);
  }
 
   public Coin(double value, double diameter, boolean isGold) {
+    this(CurrencyCatalogue.DEFAULT_CURRENCY, value, diameter, 0.0, isGold ? CoinFamily.GOLD : CoinFamily.COPPER);
+  }
+
+  public Coin(String currency, double value, double diameter, double thickness, CoinFamily family) {
+    this.currency = currency;
     this.value = value;
     this.diameter = diameter;
-    this.isGold = isGold;
+    this.thickness = thickness;
+    this.family = family;
   }
 
-  public double getValue() {
-    return value;
+  public String getCurrency() {
+    return currency;
   }
 
-  public void setValue(double value) {
-    this.value = value;
+  public double getValue() {
+    return value;
   }
 
   public double getDiameter() {
     return diameter;
   }
 
-  public void setDiameter(double diameter) {
-    this.diameter = diameter;
+  public double getThickness() {
+    return thickness;
   }
 
-  public boolean isGold() {
-    return isGold;
+  public CoinFamily getFamily() {
+    return family;
   }
 
-  public void setGold(boolean gold) {
-    isGold = gold;
+  public boolean isGold() {
+    return family == CoinFamily.GOLD;
   }
 
   @Override
@@ -58,11 +67,13 @@ public class Coin {
     Coin coin = (Coin) o;
     return Double.compare(coin.value, value) == 0 &&
         Double.compare(coin.diameter, diameter) == 0 &&
-        isGold == coin.isGold;
+        Double.compare(coin.thickness, thickness) == 0 &&
+        Objects.equals(currency, coin.currency) &&
+        family == coin.family;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(value, diameter, isGold);
+    return Objects.hash(currency, value, diameter, thickness, family);
   }
 }
@@ -1,3 +1,4 @@
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -10,16 +11,111 @@ import java.util.Map;
  */
 public class CoinController {
 
+  public static final double REFERENCE_MARKER_DIAMETER = 30.0;
+
+  private static final int MARKER_MIN_THRESHOLD = 0;
+  private static final int MARKER_MAX_THRESHOLD = 74;
+  private static final int MARKER_DELTA = 6;
+  private static final int COIN_MIN_THRESHOLD = 74;
+  private static final int COIN_MAX_THRESHOLD = 202;
+  private static final int COIN_DELTA = 22;
+  public static final ThresholdParameters DEFAULT_THRESHOLDS = new ThresholdParameters(MARKER_MIN_THRESHOLD,
+      MARKER_MAX_THRESHOLD, MARKER_DELTA, COIN_MIN_THRESHOLD, COIN_MAX_THRESHOLD, COIN_DELTA);
+  private static final SampledHueClassifier HUE_CLASSIFIER = new SampledHueClassifier();
+
   /**
    * Segments the reference marker from an image.
    * @param width Image width.
    * @param height Image height.
    * @param inDataArrInt Input RGB image.
-   * @return Returns the segmented reference marker image.
+   * @return Returns the segmented reference marker mask.
    */
-  public static int[][] segmentReferenceMarker(int width, int height, int[][][] inDataArrInt) {
-    int[][] transformedImage =  CoinUtils.getTransformedImage(inDataArrInt, width, height, 0, 74, 6);
-    return CoinUtils.normalizeReferenceMarker(transformedImage, width, height);
+  public static RunLengthMask segmentReferenceMarker(int width, int height, int[][][] inDataArrInt) {
+    return segmentReferenceMarker(width, height, inDataArrInt, null);
+  }
+
+  /**
+   * Segments the reference marker from an image, optionally with illumination compensated thresholds.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param adaptiveThreshold The background estimation of the image, or null for the global thresholds.
+   * @return Returns the segmented reference marker mask.
+   */
+  public static RunLengthMask segmentReferenceMarker(int width, int height, int[][][] inDataArrInt,
+      AdaptiveThreshold adaptiveThreshold) {
+    return segmentReferenceMarker(width, height, inDataArrInt, adaptiveThreshold, DEFAULT_THRESHOLDS);
+  }
+
+  /**
+   * Segments the reference marker from an image with the given threshold parameters.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param adaptiveThreshold The background estimation of the image, or null for the global thresholds.
+   * @param thresholds The threshold parameters.
+   * @return Returns the segmented reference marker mask.
+   */
+  public static RunLengthMask segmentReferenceMarker(int width, int height, int[][][] inDataArrInt,
+      AdaptiveThreshold adaptiveThreshold, ThresholdParameters thresholds) {
+    return segmentReferenceMarker(width, height, inDataArrInt, adaptiveThreshold, thresholds, null);
+  }
+
+  /**
+   * Segments the reference marker from the pixels of an image inside a region of interest.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param adaptiveThreshold The background estimation of the image, or null for the global thresholds.
+   * @param thresholds The threshold parameters.
+   * @param roiMask The mask of the region of interest, or null for the whole image.
+   * @return Returns the segmented reference marker mask.
+   */
+  public static RunLengthMask segmentReferenceMarker(int width, int height, int[][][] inDataArrInt,
+      AdaptiveThreshold adaptiveThreshold, ThresholdParameters thresholds, RunLengthMask roiMask) {
+    return segmentReferenceMarker(width, height, inDataArrInt, adaptiveThreshold, thresholds, roiMask, TaskMonitor.NONE);
+  }
+
+  /**
+   * Segments the reference marker from the pixels of an image inside a region of interest, which can be cancelled.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param adaptiveThreshold The background estimation of the image, or null for the global thresholds.
+   * @param thresholds The threshold parameters.
+   * @param roiMask The mask of the region of interest, or null for the whole image.
+   * @param monitor The monitor of the segmentation.
+   * @return Returns the segmented reference marker mask.
+   */
+  public static RunLengthMask segmentReferenceMarker(int width, int height, int[][][] inDataArrInt,
+      AdaptiveThreshold adaptiveThreshold, ThresholdParameters thresholds, RunLengthMask roiMask, TaskMonitor monitor) {
+    return segmentReferenceMarker(width, height, inDataArrInt, adaptiveThreshold, thresholds, roiMask,
+        CoinUtils.NORMALIZE_COUNT, monitor);
+  }
+
+  /**
+   * Segments the reference marker from the pixels of an image inside a region of interest with the given amount of
+   * morphology iterations, which can be cancelled.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param adaptiveThreshold The background estimation of the image, or null for the global thresholds.
+   * @param thresholds The threshold parameters.
+   * @param roiMask The mask of the region of interest, or null for the whole image.
+   * @param normalizeCount The amount of morphology iterations for the reference marker.
+   * @param monitor The monitor of the segmentation.
+   * @return Returns the segmented reference marker mask.
+   */
+  public static RunLengthMask segmentReferenceMarker(int width, int height, int[][][] inDataArrInt,
+      AdaptiveThreshold adaptiveThreshold, ThresholdParameters thresholds, RunLengthMask roiMask, int normalizeCount,
+      TaskMonitor monitor) {
+    RunLengthMask transformedMask = getTransformedMask(width, height, inDataArrInt, adaptiveThreshold,
+        thresholds.getMarkerMinThreshold(), thresholds.getMarkerMaxThreshold(), thresholds.getMarkerDelta(), false,
+        monitor.subTask(0.0, 0.3));
+    if (roiMask != null) {
+      transformedMask = transformedMask.and(roiMask);
+    }
+    return CoinUtils.normalizeReferenceMarker(transformedMask, normalizeCount, monitor.subTask(0.3, 1.0));
   }
 
   /**
@@ -27,22 +123,195 @@ public class CoinController {
    * @param width Image width.
    * @param height Image height.
    * @param inDataArrInt Input RGB image.
-   * @param referenceMarkerPoints All points (pixels) where the reference marker is located.
+   * @param referenceMarkerMask The mask of the segmented reference marker.
+   * @return Returns the segmented coin image.
+   */
+  public static int[][] segmentCoins(int width, int height, int[][][] inDataArrInt, RunLengthMask referenceMarkerMask) {
+    return segmentCoins(width, height, inDataArrInt, referenceMarkerMask, false);
+  }
+
+  /**
+   *  Segments the coins excluding the reference marker and optionally separates touching coins with a watershed.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param referenceMarkerMask The mask of the segmented reference marker.
+   * @param separateTouchingCoins True, if touching coins should be separated before the region labelling.
+   * @return Returns the segmented coin image.
+   */
+  public static int[][] segmentCoins(int width, int height, int[][][] inDataArrInt, RunLengthMask referenceMarkerMask,
+      boolean separateTouchingCoins) {
+    return segmentCoins(width, height, inDataArrInt, referenceMarkerMask, separateTouchingCoins, null);
+  }
+
+  /**
+   *  Segments the coins excluding the reference marker, optionally with illumination compensated thresholds.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param referenceMarkerMask The mask of the segmented reference marker.
+   * @param separateTouchingCoins True, if touching coins should be separated before the region labelling.
+   * @param adaptiveThreshold The background estimation of the image, or null for the global thresholds.
    * @return Returns the segmented coin image.
    */
-  public static int[][] segmentCoins(int width, int height, int[][][] inDataArrInt, List<Point> referenceMarkerPoints) {
-    int[][] transformedImage =  CoinUtils.getTransformedImage(inDataArrInt, width, height, 74, 202, 22, true);
-    CoinUtils.applyReferencePoints(transformedImage, referenceMarkerPoints);
-    return CoinUtils.normalizeCoins(transformedImage, width, height);
+  public static int[][] segmentCoins(int width, int height, int[][][] inDataArrInt, RunLengthMask referenceMarkerMask,
+      boolean separateTouchingCoins, AdaptiveThreshold adaptiveThreshold) {
+    return segmentCoins(width, height, inDataArrInt, referenceMarkerMask, separateTouchingCoins, adaptiveThreshold,
+        DEFAULT_THRESHOLDS);
+  }
+
+  /**
+   *  Segments the coins excluding the reference marker with the given threshold parameters.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param referenceMarkerMask The mask of the segmented reference marker.
+   * @param separateTouchingCoins True, if touching coins should be separated before the region labelling.
+   * @param adaptiveThreshold The background estimation of the image, or null for the global thresholds.
+   * @param thresholds The threshold parameters.
+   * @return Returns the segmented coin image.
+   */
+  public static int[][] segmentCoins(int width, int height, int[][][] inDataArrInt, RunLengthMask referenceMarkerMask,
+      boolean separateTouchingCoins, AdaptiveThreshold adaptiveThreshold, ThresholdParameters thresholds) {
+    return segmentCoins(width, height, inDataArrInt, referenceMarkerMask, separateTouchingCoins, adaptiveThreshold,
+        thresholds, null);
+  }
+
+  /**
+   *  Segments the coins inside a region of interest excluding the reference marker. Pixels outside the region count as
+   *  background, so coins cut by its border remain partial regions.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param referenceMarkerMask The mask of the segmented reference marker.
+   * @param separateTouchingCoins True, if touching coins should be separated before the region labelling.
+   * @param adaptiveThreshold The background estimation of the image, or null for the global thresholds.
+   * @param thresholds The threshold parameters.
+   * @param roiMask The mask of the region of interest, or null for the whole image.
+   * @return Returns the segmented coin image.
+   */
+  public static int[][] segmentCoins(int width, int height, int[][][] inDataArrInt, RunLengthMask referenceMarkerMask,
+      boolean separateTouchingCoins, AdaptiveThreshold adaptiveThreshold, ThresholdParameters thresholds,
+      RunLengthMask roiMask) {
+    return segmentCoins(width, height, inDataArrInt, referenceMarkerMask, separateTouchingCoins, adaptiveThreshold,
+        thresholds, roiMask, TaskMonitor.NONE);
+  }
+
+  /**
+   *  Segments the coins inside a region of interest excluding the reference marker, which can be cancelled.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param referenceMarkerMask The mask of the segmented reference marker.
+   * @param separateTouchingCoins True, if touching coins should be separated before the region labelling.
+   * @param adaptiveThreshold The background estimation of the image, or null for the global thresholds.
+   * @param thresholds The threshold parameters.
+   * @param roiMask The mask of the region of interest, or null for the whole image.
+   * @param monitor The monitor of the segmentation.
+   * @return Returns the segmented coin image.
+   */
+  public static int[][] segmentCoins(int width, int height, int[][][] inDataArrInt, RunLengthMask referenceMarkerMask,
+      boolean separateTouchingCoins, AdaptiveThreshold adaptiveThreshold, ThresholdParameters thresholds,
+      RunLengthMask roiMask, TaskMonitor monitor) {
+    RunLengthMask transformedMask = getTransformedMask(width, height, inDataArrInt, adaptiveThreshold,
+        thresholds.getCoinMinThreshold(), thresholds.getCoinMaxThreshold(), thresholds.getCoinDelta(), true,
+        monitor.subTask(0.0, 0.2));
+    transformedMask = CoinUtils.applyReferenceMask(transformedMask, referenceMarkerMask);
+    if (roiMask != null) {
+      transformedMask = transformedMask.and(roiMask);
+    }
+    int[][] coinImage = CoinUtils.normalizeCoins(transformedMask, CoinUtils.NORMALIZE_COUNT, monitor.subTask(0.2, 0.6))
+        .fillHoles().toImage();
+    if (separateTouchingCoins) {
+      CoinSeparation.separateTouchingCoins(coinImage, width, height, MathUtils.calculateDiameter(CoinUtils.MIN_THRESHOLD) / 2.0,
+          CoinSeparation.DEFAULT_DYNAMIC_RATIO, monitor.subTask(0.6, 1.0));
+    }
+    return coinImage;
+  }
+
+  /**
+   * Estimates the background brightness of an image for the adaptive threshold segmentation. The pixels which the
+   * global coin thresholds accept as background are the sample of the estimation.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @return Returns the background estimation.
+   */
+  public static AdaptiveThreshold computeAdaptiveThreshold(int width, int height, int[][][] inDataArrInt) {
+    return computeAdaptiveThreshold(width, height, inDataArrInt, DEFAULT_THRESHOLDS);
+  }
+
+  /**
+   * Estimates the background brightness of an image for the adaptive threshold segmentation with the background
+   * sample of the given threshold parameters.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param thresholds The threshold parameters.
+   * @return Returns the background estimation.
+   */
+  public static AdaptiveThreshold computeAdaptiveThreshold(int width, int height, int[][][] inDataArrInt,
+      ThresholdParameters thresholds) {
+    return computeAdaptiveThreshold(width, height, inDataArrInt, thresholds, TaskMonitor.NONE);
+  }
+
+  /**
+   * Estimates the background brightness of an image for the adaptive threshold segmentation, which can be cancelled.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param thresholds The threshold parameters.
+   * @param monitor The monitor of the estimation.
+   * @return Returns the background estimation.
+   */
+  public static AdaptiveThreshold computeAdaptiveThreshold(int width, int height, int[][][] inDataArrInt,
+      ThresholdParameters thresholds, TaskMonitor monitor) {
+    return AdaptiveThreshold.compute(inDataArrInt, width, height, thresholds.getCoinMinThreshold(),
+        thresholds.getCoinMaxThreshold(), thresholds.getCoinDelta(),
+        Math.max(1, (int) (AdaptiveThreshold.DEFAULT_WINDOW_RATIO * Math.max(width, height))), monitor);
   }
 
   /**
-   *  Calculates the diameter of the reference marker.
-   * @param points All pixels of the reference marker.
-   * @return The calculated diameter of the reference marker.
+   * Selects the threshold parameters of an image automatically from its histograms.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @return Returns the threshold parameters of the image.
    */
-  public static double measureReferenceMarker(List<Point> points) {
-    return MathUtils.calculateDiameter(points.size());
+  public static ThresholdParameters selectThresholds(int width, int height, int[][][] inDataArrInt) {
+    return ThresholdParameters.select(inDataArrInt, width, height);
+  }
+
+  /**
+   * Threshold segmentation with the global thresholds or, if given, the illumination compensated ones.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param adaptiveThreshold The background estimation of the image, or null for the global thresholds.
+   * @param minThreshold The minimum threshold.
+   * @param maxThreshold The maximum threshold.
+   * @param delta The delta for the RGB values.
+   * @param invert An marker to invert the segmented mask.
+   * @param monitor The monitor of the segmentation.
+   * @return Returns the segmented mask.
+   */
+  static RunLengthMask getTransformedMask(int width, int height, int[][][] inDataArrInt,
+      AdaptiveThreshold adaptiveThreshold, int minThreshold, int maxThreshold, int delta, boolean invert,
+      TaskMonitor monitor) {
+    if (adaptiveThreshold == null) {
+      return CoinUtils.getTransformedMask(inDataArrInt, width, height, minThreshold, maxThreshold, delta, invert,
+          monitor);
+    }
+    return adaptiveThreshold.getTransformedMask(inDataArrInt, minThreshold, maxThreshold, delta, invert, monitor);
+  }
+
+  /**
+   *  Measures the area and the diameter of the reference marker, which is the largest component of the mask.
+   * @param referenceMarkerMask The mask of the segmented reference marker.
+   * @return The measurement of the reference marker.
+   */
+  public static ReferenceMarkerMeasurement measureReferenceMarker(RunLengthMask referenceMarkerMask) {
+    return ReferenceMarkerMeasurement.measure(referenceMarkerMask);
   }
 
   /**
@@ -55,16 +324,236 @@ public class CoinController {
     return CoinUtils.rgbRegionGrowing(coinImage, segmentationResult);
   }
 
+  /**
+   * Region labelling for all coins in the image. The image is split into tiles which are labelled in parallel.
+   * @param coinImage The image of the segmented coins.
+   * @param segmentationResult The image where all labelled regions are painted into.
+   * @return A map of IDs for each region and the a list of all points, describing the region in the image
+   */
+  public static Map<Integer, List<Point>> labelRegionsTiled(int[][] coinImage, int[][][] segmentationResult) {
+    Map<Integer, List<Point>> regionLabels = TiledRegionLabeller.labelRegions(coinImage);
+    CoinUtils.paintRegions(regionLabels, segmentationResult);
+    return regionLabels;
+  }
+
+  /**
+   * Region labelling for all coins in the image, which also fits a circle to the boundary of every region.
+   * @param coinImage The image of the segmented coins.
+   * @param segmentationResult The image where all labelled regions are painted into.
+   * @param measurements The map which receives the circle measurement of each region ID.
+   * @return A map of IDs for each region and the a list of all points, describing the region in the image
+   */
+  public static Map<Integer, List<Point>> labelRegionsTiled(int[][] coinImage, int[][][] segmentationResult,
+      Map<Integer, CircleMeasurement> measurements) {
+    Map<Integer, List<Point>> regionLabels = TiledRegionLabeller.labelRegions(coinImage, TiledRegionLabeller.DEFAULT_TILE_SIZE,
+        measurements);
+    CoinUtils.paintRegions(regionLabels, segmentationResult);
+    return regionLabels;
+  }
+
+  /**
+   * Detects the coins in the image with the given engine and labels them.
+   * @param engine The detection engine.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param referenceMarkerMask The mask of the segmented reference marker.
+   * @param scalingFactor Scaling factor from pixels to mm, which limits the radius range of the Hough engine.
+   * @param segmentationResult The image where all labelled regions are painted into.
+   * @return A map of IDs for each region and the a list of all points, describing the region in the image
+   */
+  public static Map<Integer, List<Point>> detectCoins(DetectionEngine engine, int width, int height, int[][][] inDataArrInt,
+      RunLengthMask referenceMarkerMask, double scalingFactor, int[][][] segmentationResult) {
+    return detectCoins(engine, width, height, inDataArrInt, referenceMarkerMask, scalingFactor, segmentationResult,
+        TaskMonitor.NONE);
+  }
+
+  /**
+   * Detects the coins in the image with the given engine and labels them, which can be cancelled.
+   * @param engine The detection engine.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param referenceMarkerMask The mask of the segmented reference marker.
+   * @param scalingFactor Scaling factor from pixels to mm, which limits the radius range of the Hough engine.
+   * @param segmentationResult The image where all labelled regions are painted into.
+   * @param monitor The monitor of the detection.
+   * @return A map of IDs for each region and the a list of all points, describing the region in the image
+   */
+  public static Map<Integer, List<Point>> detectCoins(DetectionEngine engine, int width, int height, int[][][] inDataArrInt,
+      RunLengthMask referenceMarkerMask, double scalingFactor, int[][][] segmentationResult, TaskMonitor monitor) {
+    return detectCoins(engine, width, height, inDataArrInt, referenceMarkerMask, scalingFactor, segmentationResult,
+        false, null, DEFAULT_THRESHOLDS, monitor);
+  }
+
+  /**
+   * Detects the coins in the image with the given engine and labels them, which can be cancelled. The threshold
+   * engine segments the coins with the given threshold parameters, the Hough engine ignores them.
+   * @param engine The detection engine.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param referenceMarkerMask The mask of the segmented reference marker.
+   * @param scalingFactor Scaling factor from pixels to mm, which limits the radius range of the Hough engine.
+   * @param segmentationResult The image where all labelled regions are painted into.
+   * @param separateTouchingCoins True, if touching coins should be separated before the region labelling.
+   * @param adaptiveThreshold The background estimation of the image, or null for the global thresholds.
+   * @param thresholds The threshold parameters.
+   * @param monitor The monitor of the detection.
+   * @return A map of IDs for each region and the a list of all points, describing the region in the image
+   */
+  public static Map<Integer, List<Point>> detectCoins(DetectionEngine engine, int width, int height, int[][][] inDataArrInt,
+      RunLengthMask referenceMarkerMask, double scalingFactor, int[][][] segmentationResult,
+      boolean separateTouchingCoins, AdaptiveThreshold adaptiveThreshold, ThresholdParameters thresholds,
+      TaskMonitor monitor) {
+    switch (engine) {
+      case HOUGH:
+        return detectCoinsHough(width, height, inDataArrInt, referenceMarkerMask, scalingFactor, segmentationResult,
+            monitor);
+      case THRESHOLD:
+      default:
+        int[][] coinImage = segmentCoins(width, height, inDataArrInt, referenceMarkerMask, separateTouchingCoins,
+            adaptiveThreshold, thresholds, null, monitor.subTask(0.0, 0.7));
+        Map<Integer, List<Point>> regionLabels = TiledRegionLabeller.labelRegions(coinImage,
+            TiledRegionLabeller.DEFAULT_TILE_SIZE, null, CoinUtils.MIN_THRESHOLD, monitor.subTask(0.7, 1.0));
+        CoinUtils.paintRegions(regionLabels, segmentationResult);
+        return regionLabels;
+    }
+  }
+
+  /**
+   * Detects the coins as circles with the Hough transform. The radius range is derived from the coins of the current
+   * currency catalogue, circles centered on the reference marker are dropped.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param referenceMarkerMask The mask of the segmented reference marker.
+   * @param scalingFactor Scaling factor from pixels to mm.
+   * @param segmentationResult The image where all detected coins are painted into.
+   * @return A map of IDs for each coin and the a list of all points of its disc.
+   */
+  public static Map<Integer, List<Point>> detectCoinsHough(int width, int height, int[][][] inDataArrInt,
+      RunLengthMask referenceMarkerMask, double scalingFactor, int[][][] segmentationResult) {
+    return detectCoinsHough(width, height, inDataArrInt, referenceMarkerMask, scalingFactor, segmentationResult,
+        TaskMonitor.NONE);
+  }
+
+  /**
+   * Detects the coins as circles with the Hough transform, which can be cancelled.
+   * @param width Image width.
+   * @param height Image height.
+   * @param inDataArrInt Input RGB image.
+   * @param referenceMarkerMask The mask of the segmented reference marker.
+   * @param scalingFactor Scaling factor from pixels to mm.
+   * @param segmentationResult The image where all detected coins are painted into.
+   * @param monitor The monitor of the detection.
+   * @return A map of IDs for each coin and the a list of all points of its disc.
+   */
+  public static Map<Integer, List<Point>> detectCoinsHough(int width, int height, int[][][] inDataArrInt,
+      RunLengthMask referenceMarkerMask, double scalingFactor, int[][][] segmentationResult, TaskMonitor monitor) {
+    HoughCircleDetector detector = HoughCircleDetector.forCatalogue(CurrencyCatalogue.getCurrent(), scalingFactor);
+    Map<Integer, List<Point>> regionLabels = new HashMap<>();
+    int id = 0;
+    for (HoughCircleDetector.Circle circle : detector.detect(inDataArrInt, width, height, monitor)) {
+      if (!referenceMarkerMask.contains((int) Math.round(circle.getCenterX()), (int) Math.round(circle.getCenterY()))) {
+        regionLabels.put(++id, circle.toPoints(width, height));
+      }
+    }
+    CoinUtils.paintRegions(regionLabels, segmentationResult);
+    return regionLabels;
+  }
+
   /**
    * Classifies the coins in the image and calculates the coin total sum.
+   * The colour of each coin is decided on a sample of its pixels instead of a full HSB image.
    * @param regionLabels The labelled regions in the image.
    * @param inDataArrInt The input RGB image.
    * @param scalingFactor Scaling factor for all coin diameters.
    * @return Returns the calculate coin sum in the image.
    */
   public static double classifyCoins(Map<Integer, List<Point>> regionLabels, int[][][] inDataArrInt, double scalingFactor) {
-      float[][][] hsbImage = CoinUtils.convertRGBToHSB(inDataArrInt);
-      return CoinUtils.calcSumFromRegions(regionLabels, hsbImage, scalingFactor);
+      return CoinUtils.calcSumFromRegions(regionLabels, inDataArrInt, scalingFactor, HUE_CLASSIFIER);
+  }
+
+  /**
+   * Classifies the coins in the image by their fitted diameters and calculates the coin total sum. Regions which are
+   * no circles are not counted.
+   * @param regionLabels The labelled regions in the image.
+   * @param measurements The circle measurement of each region.
+   * @param inDataArrInt The input RGB image.
+   * @param scalingFactor Scaling factor for all coin diameters.
+   * @return Returns the calculate coin sum in the image.
+   */
+  public static double classifyCoins(Map<Integer, List<Point>> regionLabels, Map<Integer, CircleMeasurement> measurements,
+      int[][][] inDataArrInt, double scalingFactor) {
+    return CoinUtils.calcSumFromRegions(regionLabels, measurements, inDataArrInt, scalingFactor, HUE_CLASSIFIER);
+  }
+
+  /**
+   * Classifies the coins in the image and returns the result of every coin besides the coin total sum.
+   * @param regionLabels The labelled regions in the image.
+   * @param inDataArrInt The input RGB image.
+   * @param scalingFactor Scaling factor for all coin diameters.
+   * @return Returns the result of every coin and the coin total sum.
+   */
+  public static ClassificationResult classifyCoinsDetailed(Map<Integer, List<Point>> regionLabels, int[][][] inDataArrInt,
+      double scalingFactor) {
+    return CoinUtils.classifyRegions(regionLabels, null, inDataArrInt, scalingFactor, HUE_CLASSIFIER);
+  }
+
+  /**
+   * Classifies the coins in the image by their fitted diameters and returns the result of every coin besides the coin
+   * total sum. Regions which are no circles are not counted.
+   * @param regionLabels The labelled regions in the image.
+   * @param measurements The circle measurement of each region.
+   * @param inDataArrInt The input RGB image.
+   * @param scalingFactor Scaling factor for all coin diameters.
+   * @return Returns the result of every coin and the coin total sum.
+   */
+  public static ClassificationResult classifyCoinsDetailed(Map<Integer, List<Point>> regionLabels,
+      Map<Integer, CircleMeasurement> measurements, int[][][] inDataArrInt, double scalingFactor) {
+    return CoinUtils.classifyRegions(regionLabels, measurements, inDataArrInt, scalingFactor, HUE_CLASSIFIER);
+  }
+
+  /**
+   * Runs the whole coin pipeline in streaming mode. The rows of the image flow through all stages, so only a small
+   * window of rows is held in memory instead of full frames.
+   * @param source The row source of the RGB image.
+   * @return Returns the reference marker, the coin regions, the scaling factor and the coin total sum.
+   */
+  public static StreamingCoinPipeline.Result processStreaming(RowSource source) {
+    return processStreaming(source, DEFAULT_THRESHOLDS, CoinUtils.NORMALIZE_COUNT, null);
+  }
+
+  /**
+   * Runs the whole coin pipeline in streaming mode with the given parameters.
+   * @param source The row source of the RGB image.
+   * @param thresholds The thresholds of the reference marker and the coins.
+   * @param normalizeCount The amount of dilation and erosion iterations of the normalization.
+   * @param roiMask The ROI mask with the size of the image (non-zero inside), or null.
+   * @return Returns the reference marker, the coin regions, the scaling factor and the coin total sum.
+   */
+  public static StreamingCoinPipeline.Result processStreaming(RowSource source, ThresholdParameters thresholds,
+      int normalizeCount, byte[] roiMask) {
+    return processStreaming(source, thresholds, normalizeCount, roiMask, TaskMonitor.NONE);
+  }
+
+  /**
+   * Runs the whole coin pipeline in streaming mode with the given parameters, which can be cancelled between two rows.
+   * @param source The row source of the RGB image.
+   * @param thresholds The thresholds of the reference marker and the coins.
+   * @param normalizeCount The amount of dilation and erosion iterations of the normalization.
+   * @param roiMask The ROI mask with the size of the image (non-zero inside), or null.
+   * @param monitor The monitor of the pipeline.
+   * @return Returns the reference marker, the coin regions, the scaling factor and the coin total sum.
+   */
+  public static StreamingCoinPipeline.Result processStreaming(RowSource source, ThresholdParameters thresholds,
+      int normalizeCount, byte[] roiMask, TaskMonitor monitor) {
+    StreamingCoinPipeline pipeline = new StreamingCoinPipeline(thresholds.getMarkerMinThreshold(),
+        thresholds.getMarkerMaxThreshold(), thresholds.getMarkerDelta(), thresholds.getCoinMinThreshold(),
+        thresholds.getCoinMaxThreshold(), thresholds.getCoinDelta());
+    pipeline.setNormalizeCount(normalizeCount);
+    return pipeline.process(source, REFERENCE_MARKER_DIAMETER, roiMask, monitor);
   }
 
 }
@@ -0,0 +1,10 @@
+/**
+ * The colour family of a coin, which is determined before the diameter is compared.
+ *
+ * @version 1.0
+ */
+public enum CoinFamily {
+  COPPER,
+  GOLD,
+  BIMETALLIC
+}
@@ -1,64 +1,541 @@
 import ij.IJ;
 import ij.ImagePlus;
-import ij.plugin.filter.PlugInFilter;
+import ij.Macro;
+import ij.gui.DialogListener;
+import ij.gui.GenericDialog;
+import ij.gui.OvalRoi;
+import ij.gui.Overlay;
+import ij.gui.Roi;
+import ij.gui.TextRoi;
+import ij.plugin.RoiScaler;
+import ij.plugin.filter.ExtendedPlugInFilter;
+import ij.plugin.filter.PlugInFilterRunner;
 import ij.process.ImageProcessor;
+import java.awt.AWTEvent;
+import java.awt.Color;
+import java.awt.EventQueue;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-public class CoinFilter_ implements PlugInFilter {
+public class CoinFilter_ implements ExtendedPlugInFilter, DialogListener {
+
+  private static final int FLAGS = DOES_RGB + DOES_STACKS + SUPPORTS_MASKING;
+  private static final int PREVIEW_SIZE = 640;
+  private static final String PARAMETER_DIGEST = "SHA-256";
+  private static final String CACHED_LABEL_NAME = "cached coin";
+  private static final ResultCache RESULT_CACHE = ResultCache.fromSystemProperties();
+  private static CalibrationSession calibrationSession = new CalibrationSession(CoinController.DEFAULT_THRESHOLDS);
+
+  /* The settings of the last run are the defaults of the next dialog.*/
+  private static Settings staticSettings = Settings.DEFAULT;
+  private Settings settings = staticSettings;
+  private boolean isMacro;
+
+  private ImagePlus imp;
+  private Overlay originalOverlay;
+  private ExecutorService previewExecutor;
+  private CoinPipeline previewPipeline;
+  private double previewScale;
+  private Future<?> previewTask;
+  private TaskMonitor previewMonitor;
+  private CalibrationSession previewCalibrationSession;
+  private volatile int previewGeneration;
 
   public int setup(String arg, ImagePlus imp) {
     if (arg.equals("about")) {
       showAbout();
       return DONE;
     }
-    return DOES_RGB + DOES_STACKS + SUPPORTS_MASKING;
+    isMacro = Macro.getOptions() != null;
+    return FLAGS;
   } //setup
 
+  public int showDialog(ImagePlus imp, String command, PlugInFilterRunner pfr) {
+    this.imp = imp;
+    this.originalOverlay = imp.getOverlay();
+    ThresholdParameters thresholds = settings.thresholds;
+    GenericDialog gd = new GenericDialog("Coin Filter");
+    String[] engines = Arrays.stream(DetectionEngine.values()).map(Enum::name).toArray(String[]::new);
+    gd.addChoice("Detection engine:", engines, settings.detectionEngine.name());
+    gd.addCheckbox("Separate touching coins", settings.separateTouchingCoins);
+    gd.addCheckbox("Adaptive threshold", settings.adaptiveThreshold);
+    gd.addCheckbox("Automatic thresholds", settings.automaticThresholds);
+    gd.addCheckbox("Fixed rig (reuse calibration)", settings.fixedRig);
+    gd.addCheckbox("Stream rows (large images, threshold only)", settings.streaming);
+    if (imp.getStackSize() > 1) {
+      String[] stackModes = Arrays.stream(StackMode.values()).map(Enum::name).toArray(String[]::new);
+      gd.addChoice("Stack mode:", stackModes, settings.stackMode.name());
+    }
+    gd.addNumericField("Normalize count:", settings.normalizeCount, 0);
+    gd.addNumericField("Marker min threshold:", thresholds.getMarkerMinThreshold(), 0);
+    gd.addNumericField("Marker max threshold:", thresholds.getMarkerMaxThreshold(), 0);
+    gd.addNumericField("Marker delta:", thresholds.getMarkerDelta(), 0);
+    gd.addNumericField("Coin min threshold:", thresholds.getCoinMinThreshold(), 0);
+    gd.addNumericField("Coin max threshold:", thresholds.getCoinMaxThreshold(), 0);
+    gd.addNumericField("Coin delta:", thresholds.getCoinDelta(), 0);
+    gd.addCheckbox("Preview", false);
+    gd.addDialogListener(this);
+    gd.showDialog();
+    stopPreview();
+    if (gd.wasCanceled()) {
+      return DONE;
+    }
+    if (!isMacro) {
+      staticSettings = settings;
+    }
+    /* A mosaic or a conveyor stream is counted from all slices in a single run.*/
+    if (getStackMode() != StackMode.SLICES) {
+      return FLAGS & ~DOES_STACKS;
+    }
+    return IJ.setupDialog(imp, FLAGS);
+  } //showDialog
+
+  public boolean dialogItemChanged(GenericDialog gd, AWTEvent e) {
+    DetectionEngine detectionEngine = DetectionEngine.values()[gd.getNextChoiceIndex()];
+    boolean separateTouchingCoins = gd.getNextBoolean();
+    boolean adaptiveThreshold = gd.getNextBoolean();
+    boolean automaticThresholds = gd.getNextBoolean();
+    boolean fixedRig = gd.getNextBoolean();
+    boolean streaming = gd.getNextBoolean();
+    StackMode stackMode = imp.getStackSize() > 1 ? StackMode.values()[gd.getNextChoiceIndex()] : StackMode.SLICES;
+    int normalizeCount = (int) gd.getNextNumber();
+    int[] thresholds = new int[6];
+    for (int i = 0; i < thresholds.length; ++i) {
+      thresholds[i] = (int) gd.getNextNumber();
+    }
+    boolean preview = gd.getNextBoolean();
+    if (gd.invalidNumber() || normalizeCount < 0 || Arrays.stream(thresholds).anyMatch(t -> t < 0 || t > 255) ||
+        thresholds[0] > thresholds[1] || thresholds[3] > thresholds[4]) {
+      return false;
+    }
+    settings = new Settings(detectionEngine, separateTouchingCoins, adaptiveThreshold, automaticThresholds, fixedRig,
+        streaming, stackMode, normalizeCount, new ThresholdParameters(thresholds[0], thresholds[1], thresholds[2],
+        thresholds[3], thresholds[4], thresholds[5]));
+    if (preview && !isMacro) {
+      startPreview();
+    } else {
+      stopPreview();
+    }
+    return true;
+  } //dialogItemChanged
+
+  public void setNPasses(int nPasses) {
+  } //setNPasses
+
   public void run(ImageProcessor ip) {
-    int width = ip.getWidth();
-    int height = ip.getHeight();
-    int[][][] inDataArrInt = ImageJUtility.getChannelImageFromIP(ip, width, height, 3);
+    try {
+      if (CurrencyCatalogue.reloadIfModified()) {
+        IJ.log("Currency catalogue reloaded");
+      }
+    } catch (IOException e) {
+      IJ.log("Currency catalogue could not be reloaded: " + e.getMessage());
+    }
+    if (getStackMode() == StackMode.MOSAIC) {
+      stitchMosaic();
+      return;
+    }
+    if (getStackMode() == StackMode.CONVEYOR) {
+      countConveyor();
+      return;
+    }
+    /* Only the bounding box of the ROI is processed, pixels outside a non-rectangular ROI count as background.*/
+    Rectangle roi = ip.getRoi();
+    ImageProcessor roiIp = roi.width == ip.getWidth() && roi.height == ip.getHeight() ? ip : ip.crop();
+    int width = roi.width;
+    int height = roi.height;
+    Settings settings = this.settings;
+    if (settings.streaming) {
+      streamImage(roiIp, ip.getMask(), roi, settings);
+      return;
+    }
+    ResultCache.Key cacheKey = ResultCache.key((int[]) roiIp.getPixels(), width, height,
+        describeParameters(settings, ip));
+    ClassificationResult cachedResult = RESULT_CACHE.get(cacheKey);
+    if (cachedResult != null) {
+      /* The intermediate images are not computed again, the coins of the cached result are labelled in the overlay.*/
+      IJ.log("Cached result " + cacheKey + ", the segmentation and labelling images are not shown");
+      ClassificationResult result = cachedResult.translate(roi.x, roi.y);
+      showCachedResult(result, ip.getSliceNumber());
+      logResult(result);
+      return;
+    }
+    CoinPipeline pipeline = new CoinPipeline(ip);
+    settings.configure(pipeline);
+    pipeline.setCalibrationSession(settings.fixedRig ? getCalibrationSession(settings.thresholds) : null);
+    /* The progress is shown in the status bar, the escape key cancels the analysis between two rows or tiles.*/
+    pipeline.setTaskMonitor(new TaskMonitor(IJ::showProgress, IJ::escapePressed));
+    try {
+      analyse(pipeline, width, height, cacheKey, roi);
+    } catch (CancellationException e) {
+      IJ.log("Coin analysis cancelled");
+    } finally {
+      //the escape flag is left set, so the runner stops the remaining slices of a stack as well
+      IJ.showProgress(1.0);
+    }
+  } //run
+
+  private StackMode getStackMode() {
+    return imp != null && imp.getStackSize() > 1 ? settings.stackMode : StackMode.SLICES;
+  }
+
+  /**
+   * Counts the coins of all slices as overlapping frames of one mosaic, every coin in an overlap is counted once. The
+   * frames are analysed without the calibration of the fixed rig, as every frame shows another part of the tray.
+   */
+  private void stitchMosaic() {
+    Settings settings = this.settings;
+    try {
+      MosaicStitcher.Result mosaic = MosaicStitcher.stitch(imp.getStack(), settings::configure,
+          new TaskMonitor(IJ::showProgress, IJ::escapePressed));
+      for (int i = 0; i < mosaic.getOffsets().size(); ++i) {
+        IJ.log(String.format("Frame %d at (%.1f, %.1f), response = %.3f", i + 1, mosaic.getOffsets().get(i).getX(),
+            mosaic.getOffsets().get(i).getY(), mosaic.getResponse(i)));
+      }
+      logResult(mosaic.getClassification());
+    } catch (CancellationException e) {
+      IJ.log("Coin analysis cancelled");
+    } catch (IllegalArgumentException e) {
+      IJ.error("Coin Filter", "Mosaic could not be stitched: " + e.getMessage());
+    } finally {
+      IJ.showProgress(1.0);
+      IJ.resetEscape();
+    }
+  }
+
+  /**
+   * Counts the coins which pass through the slices as consecutive frames of a conveyor camera, every coin once.
+   */
+  private void countConveyor() {
+    Settings settings = this.settings;
+    CalibrationSession session = settings.fixedRig ? getCalibrationSession(settings.thresholds) :
+        new CalibrationSession(settings.thresholds);
+    ConveyorCounter counter = new ConveyorCounter(imp.getWidth(), imp.getHeight(), session);
+    counter.setNormalizeCount(settings.normalizeCount);
+    try {
+      ClassificationResult result = counter.process(imp.getStack(), new TaskMonitor(IJ::showProgress,
+          IJ::escapePressed));
+      IJ.log(String.format("Coins counted in %d slices: %d", imp.getStackSize(), result.getCoins().size()));
+      logResult(result);
+    } catch (CancellationException e) {
+      IJ.log("Coin analysis cancelled");
+    } finally {
+      IJ.showProgress(1.0);
+      IJ.resetEscape();
+    }
+  }
+
+  /**
+   * Counts the coins of the ROI in streaming mode. The rows flow through the stages one by one, so neither the channel
+   * arrays nor the intermediate images of the ROI are allocated. Only the threshold engine is used, touching coins are
+   * not separated and the diameter of a coin is derived from its area.
+   * @param roiIp The image processor of the ROI bounding box.
+   * @param mask The mask of a non-rectangular ROI, or null.
+   * @param roi The ROI bounding box.
+   * @param settings The settings of the run.
+   */
+  private void streamImage(ImageProcessor roiIp, ImageProcessor mask, Rectangle roi, Settings settings) {
+    StreamingCoinPipeline.Result result;
+    try {
+      /* The escape key cancels the streaming between two rows, like the analysis of the frame based pipeline.*/
+      result = CoinController.processStreaming(RowSource.fromImageProcessor(roiIp), settings.thresholds,
+          settings.normalizeCount, mask == null ? null : (byte[]) mask.getPixels(),
+          new TaskMonitor(IJ::showProgress, IJ::escapePressed));
+    } catch (CancellationException e) {
+      IJ.log("Coin analysis cancelled");
+      return;
+    } finally {
+      IJ.showProgress(1.0);
+    }
+    IJ.log(String.format("Streamed %d rows, s=%f", roi.height, result.getScalingFactor()));
+    logResult(result.getClassification().translate(roi.x, roi.y));
+  }
+
+  /**
+   * Runs the stages of the pipeline and shows their results.
+   * @param pipeline The configured pipeline of the image.
+   * @param width The width of the ROI bounding box.
+   * @param height The height of the ROI bounding box.
+   * @param cacheKey The key of the result in the result cache.
+   * @param roi The ROI bounding box.
+   */
+  private void analyse(CoinPipeline pipeline, int width, int height, ResultCache.Key cacheKey, Rectangle roi) {
     /* TASK 1 - 1*/
     /* Segments the reference marker from the image and shows it.*/
-    int[][] referenceMarkerImage = CoinController.segmentReferenceMarker(width, height, inDataArrInt);
-    ImageJUtility.showNewImage(referenceMarkerImage, width, height,"Segementierte Referenzmarkierung");
+    IJ.log("Thresholds: " + pipeline.getThresholds());
+    CalibrationSession.Calibration calibration = pipeline.getCalibration();
+    ImageJUtility.showNewImage(calibration.getReferenceMarkerMask().toImage(), width, height,"Segementierte Referenzmarkierung");
 
     /* TASK 1 - 2*/
     /* Segments the coins without the reference marker and shows them.*/
-    int[][][] segmentationResult = new int[width][height][3];
-    Map<Integer,  List<Point>> referenceMarkerLabel = CoinController.labelRegions(referenceMarkerImage, segmentationResult);
-    List<Point>  referenceMarkerPoints = referenceMarkerLabel.get(1);
-    int[][] coinsImage = CoinController.segmentCoins(width, height, inDataArrInt, referenceMarkerPoints);
-    ImageJUtility.showNewImage(coinsImage, width, height,"Segementierte Münzen ohne Referenzmarkierung");
+    ImageJUtility.showNewImage(pipeline.getCoinImage(), width, height,"Segementierte Münzen ohne Referenzmarkierung");
 
     /* TASK 1 - 3*/
     /* Calculating the diameter of the reference marker + the scaling factor and log them.*/
-    double referenceDiameter = CoinController.measureReferenceMarker(referenceMarkerPoints);
-    double scalingFactor = MathUtils.calculateScalingFactor(30.0 , referenceDiameter);
-    IJ.log(String.format("size black = %d diameter= %f s=%f", referenceMarkerPoints.size(), referenceDiameter, scalingFactor));
+    /* On a fixed rig the calibration of a previous image is reused as long as the marker is still in place.*/
+    ReferenceMarkerMeasurement referenceMeasurement = calibration.getMeasurement();
+    double scalingFactor = calibration.getScalingFactor();
+    IJ.log(String.format("size black = %d diameter= %f fitted diameter= %f s=%f%s", referenceMeasurement.getArea(),
+        referenceMeasurement.getDiameter(), referenceMeasurement.getFittedDiameter(), scalingFactor,
+        calibration.isReused() ? " (reused calibration)" : ""));
 
     /* TASK 2 - 1*/
     /* Region labelling for all coins - result are the labelled regions with IDs [1;254]. */
-    segmentationResult = new int[width][height][3];
-    Map<Integer,  List<Point>> regionLabels = CoinController.labelRegions(coinsImage, segmentationResult);
+    CoinPipeline.Labelling labelling = pipeline.getLabelling();
+    int[][][] segmentationResult = labelling.getSegmentationResult();
 
     /* TASK 2 - 2*/
     /* Showing the labbeled coin image and print total coins + for each coin diameter + pixels.  */
     ImageJUtility.showNewImageRGB(segmentationResult, segmentationResult.length, segmentationResult[0].length, "Labelled image");
-    logRegionLabels(regionLabels, scalingFactor);
+    logRegionLabels(labelling.getRegionLabels(), labelling.getMeasurements(), scalingFactor);
 
     /* TASK 3 - 1*/
     /* Classify each coin and count the total coin sum in the image. Finally, logging the coin sum.*/
-    double coinSum = CoinController.classifyCoins(regionLabels, inDataArrInt, scalingFactor);
-    IJ.log(String.format("Coin value: %.2f \u20ac", coinSum));
-  } //run
+    ClassificationResult result = pipeline.getResult();
+    RESULT_CACHE.put(cacheKey, result);
+    logResult(result.translate(roi.x, roi.y));
+  }
+
+  /**
+   * Describes the parameters for the result cache. The currency catalogue and the ROI mask enter as SHA-256 digests of
+   * their content, so a changed catalogue or mask cannot hit a stale result through a hash collision.
+   * @param settings The settings of the run.
+   * @param ip The image processor with the ROI.
+   * @return Returns the description of all parameters which change the result of an image.
+   */
+  private String describeParameters(Settings settings, ImageProcessor ip) {
+    ImageProcessor mask = ip.getMask();
+    MessageDigest catalogueDigest = createDigest();
+    for (Coin coin : CurrencyCatalogue.getCurrent().getCoins()) {
+      catalogueDigest.update(String.format(Locale.ROOT, "%s %f %f %f %s%n", coin.getCurrency(), coin.getValue(),
+          coin.getDiameter(), coin.getThickness(), coin.getFamily()).getBytes(StandardCharsets.UTF_8));
+    }
+    MessageDigest maskDigest = createDigest();
+    if (mask != null) {
+      maskDigest.update((byte[]) mask.getPixels());
+    }
+    return String.format("engine=%s separate=%b adaptive=%b fixedRig=%b thresholds=%s normalize=%d reference=%f "
+        + "catalogue=%s mask=%s", settings.detectionEngine, settings.separateTouchingCoins, settings.adaptiveThreshold,
+        settings.fixedRig, settings.automaticThresholds ? "auto" : settings.thresholds, settings.normalizeCount,
+        CoinController.REFERENCE_MARKER_DIAMETER, toHex(catalogueDigest.digest()),
+        mask == null ? "none" : toHex(maskDigest.digest()));
+  }
+
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance(PARAMETER_DIGEST);
+    } catch (NoSuchAlgorithmException e) {
+      //every Java platform has to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
 
-  private void logRegionLabels(Map<Integer, List<Point>> regionLabels, double scalingFactor) {
+  private static String toHex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(2 * bytes.length);
+    for (byte value : bytes) {
+      hex.append(String.format("%02x", value));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * @param thresholds The threshold parameters of the run.
+   * @return Returns the calibration session of the fixed rig, which is started again if the thresholds changed.
+   */
+  private static synchronized CalibrationSession getCalibrationSession(ThresholdParameters thresholds) {
+    if (!calibrationSession.getThresholds().equals(thresholds)) {
+      calibrationSession = new CalibrationSession(thresholds);
+    }
+    return calibrationSession;
+  }
+
+  /**
+   * Computes the preview on a downsampled proxy of the image in the background. A preview which is still running is
+   * cancelled through its monitor, its stages which are already complete are reused by the next one.
+   */
+  private void startPreview() {
+    if (previewExecutor == null) {
+      previewExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Coin preview");
+        thread.setDaemon(true);
+        return thread;
+      });
+      previewPipeline = createPreviewPipeline();
+    }
+    if (previewTask != null) {
+      previewMonitor.cancel();
+      previewTask.cancel(false);
+    }
+    Settings previewSettings = settings;
+    /* The proxy has another size than the image, so it must not share the calibration session of the full run.*/
+    if (previewCalibrationSession == null || !previewCalibrationSession.getThresholds().equals(settings.thresholds)) {
+      previewCalibrationSession = new CalibrationSession(settings.thresholds);
+    }
+    CalibrationSession session = previewSettings.fixedRig ? previewCalibrationSession : null;
+    int generation = ++previewGeneration;
+    TaskMonitor monitor = new TaskMonitor(null, null);
+    previewMonitor = monitor;
+    CoinPipeline pipeline = previewPipeline;
+    previewTask = previewExecutor.submit(() -> {
+      CoinPipeline.Frame frame;
+      CalibrationSession.Calibration calibration;
+      ClassificationResult result;
+      try {
+        previewSettings.configure(pipeline);
+        pipeline.setCalibrationSession(session);
+        pipeline.setTaskMonitor(monitor);
+        frame = pipeline.getFrame();
+        calibration = pipeline.getCalibration();
+        result = pipeline.getResult();
+      } catch (CancellationException e) {
+        return;
+      } catch (RuntimeException e) {
+        //the future of the preview is never read, so a failure would be lost without the log
+        IJ.log("Preview failed: " + e);
+        return;
+      }
+      Overlay overlay = createPreviewOverlay(frame, calibration, result);
+      EventQueue.invokeLater(() -> {
+        if (generation == previewGeneration) {
+          imp.setOverlay(overlay);
+          IJ.showStatus(String.format("Preview: %d coins, %.2f \u20ac", result.getCoins().size(), result.getSum()));
+        }
+      });
+    });
+  }
+
+  /**
+   * Cancels a running preview through its monitor without waiting for it, since this runs on the event dispatch thread.
+   * The preview stops at its next cancellation check, and the new generation keeps its overlay from being shown.
+   */
+  private void stopPreview() {
+    if (previewExecutor == null) {
+      return;
+    }
+    ++previewGeneration;
+    previewMonitor.cancel();
+    previewTask.cancel(false);
+    previewExecutor.shutdown();
+    previewExecutor = null;
+    previewPipeline = null;
+    previewTask = null;
+    previewMonitor = null;
+    previewCalibrationSession = null;
+    imp.setOverlay(originalOverlay);
+  }
+
+  /**
+   * @return Returns a pipeline on a copy of the image, whose longer side is downsampled to {@link #PREVIEW_SIZE}.
+   */
+  private CoinPipeline createPreviewPipeline() {
+    /* The whole image is resized, the ROI of the processor which the filter runs on stays as it is.*/
+    ImageProcessor ip = imp.getProcessor().duplicate();
+    ip.resetRoi();
+    previewScale = Math.min(1.0, (double) PREVIEW_SIZE / Math.max(ip.getWidth(), ip.getHeight()));
+    ImageProcessor proxy = ip.resize((int) Math.round(ip.getWidth() * previewScale),
+        (int) Math.round(ip.getHeight() * previewScale), true);
+    Roi roi = imp.getRoi();
+    if (roi != null && roi.isArea()) {
+      proxy.setRoi(RoiScaler.scale(roi, previewScale, previewScale, false));
+    }
+    CoinPipeline pipeline = new CoinPipeline(proxy);
+    pipeline.setPixelScale(previewScale);
+    return pipeline;
+  }
+
+  /**
+   * @return Returns the overlay with the circles of the reference marker and of all classified coins.
+   */
+  private Overlay createPreviewOverlay(CoinPipeline.Frame frame, CalibrationSession.Calibration calibration,
+      ClassificationResult result) {
+    Overlay overlay = originalOverlay == null ? new Overlay() : originalOverlay.duplicate();
+    Rectangle roi = frame.getRoi();
+    ReferenceMarkerMeasurement marker = calibration.getMeasurement();
+    if (!Double.isNaN(marker.getFittedDiameter())) {
+      overlay.add(createCircle(roi.x + marker.getCenterX(), roi.y + marker.getCenterY(),
+          marker.getFittedDiameter() / 2.0, Color.BLUE));
+    }
+    for (CoinResult coin : result.getCoins()) {
+      double centerX = roi.x + coin.getCenterX();
+      double centerY = roi.y + coin.getCenterY();
+      Color color = getColor(coin);
+      overlay.add(createCircle(centerX, centerY, coin.getDiameter() / calibration.getScalingFactor() / 2.0, color));
+      TextRoi label = new TextRoi(centerX / previewScale, centerY / previewScale,
+          String.format("%.2f", coin.getCoin().getValue()));
+      label.setStrokeColor(color);
+      overlay.add(label);
+    }
+    return overlay;
+  }
+
+  /**
+   * Labels the coins of a cached result with their values in the overlay of the image. The labels of an earlier run on
+   * the same slice are replaced, so repeated runs do not stack them.
+   * @param result The cached result in image coordinates.
+   * @param slice The stack slice of the result, 0 for a single image.
+   */
+  private void showCachedResult(ClassificationResult result, int slice) {
+    Overlay overlay = imp.getOverlay() == null ? new Overlay() : imp.getOverlay().duplicate();
+    for (int i = overlay.size() - 1; i >= 0; --i) {
+      Roi roi = overlay.get(i);
+      if (CACHED_LABEL_NAME.equals(roi.getName()) && roi.getPosition() == slice) {
+        overlay.remove(i);
+      }
+    }
+    for (CoinResult coin : result.getCoins()) {
+      TextRoi label = new TextRoi(coin.getCenterX(), coin.getCenterY(),
+          String.format("%.2f", coin.getCoin().getValue()));
+      label.setName(CACHED_LABEL_NAME);
+      label.setStrokeColor(getColor(coin));
+      label.setPosition(slice);
+      overlay.add(label);
+    }
+    imp.setOverlay(overlay);
+  }
+
+  private static Color getColor(CoinResult coin) {
+    return coin.getConfidence() < ClassificationResult.DEFAULT_MIN_CONFIDENCE ? Color.RED :
+        coin.getFamily() == CoinFamily.COPPER ? Color.ORANGE : Color.YELLOW;
+  }
+
+  private Roi createCircle(double centerX, double centerY, double radius, Color color) {
+    Roi circle = new OvalRoi((centerX - radius) / previewScale, (centerY - radius) / previewScale,
+        2.0 * radius / previewScale, 2.0 * radius / previewScale);
+    circle.setStrokeColor(color);
+    return circle;
+  }
+
+  private void logResult(ClassificationResult result) {
+    result.getCoins().forEach(coin -> IJ.log(coin.toString()));
+    IJ.log(String.format("Coin value: %.2f \u20ac", result.getSum()));
+    if (!result.isConfident(ClassificationResult.DEFAULT_MIN_CONFIDENCE)) {
+      IJ.log(String.format("Uncertain classification, lowest confidence = %.2f", result.getMinConfidence()));
+    }
+  }
+
+  private void logRegionLabels(Map<Integer, List<Point>> regionLabels, Map<Integer, CircleMeasurement> measurements,
+      double scalingFactor) {
     regionLabels.forEach((id, points) -> {
       int area = points.size();
       double scaledDiameter = MathUtils.scale(MathUtils.calculateDiameter(area), scalingFactor);
-      IJ.log(String.format("ID [%d]: coin with %d pixels, diameter in mm = %f",id,area ,scaledDiameter ));
+      CircleMeasurement measurement = measurements.get(id);
+      if (measurement == null) {
+        IJ.log(String.format("ID [%d]: coin with %d pixels, diameter in mm = %f", id, area, scaledDiameter));
+        return;
+      }
+      IJ.log(String.format("ID [%d]: coin with %d pixels, diameter in mm = %f, fitted diameter in mm = %f, residual = %f, roundness = %f%s",
+          id, area, scaledDiameter, MathUtils.scale(measurement.getDiameter(), scalingFactor), measurement.getResidual(),
+          measurement.getRoundness(), measurement.isCircular() ? "" : " (rejected)"));
     });
     IJ.log(String.format("Total coins in image: %d", regionLabels.size()));
   }
@@ -68,5 +545,47 @@ public class CoinFilter_ implements PlugInFilter {
         "this is a PluginFilter template\n");
   } //showAbout
 
+  /**
+   * The parameters of the filter, which are chosen in the dialog.
+   */
+  private static final class Settings {
+
+    static final Settings DEFAULT = new Settings(DetectionEngine.THRESHOLD, true, false, false, false, false,
+        StackMode.SLICES, CoinUtils.NORMALIZE_COUNT, CoinController.DEFAULT_THRESHOLDS);
+
+    final DetectionEngine detectionEngine;
+    final boolean separateTouchingCoins;
+    final boolean adaptiveThreshold;
+    final boolean automaticThresholds;
+    final boolean fixedRig;
+    final boolean streaming;
+    final StackMode stackMode;
+    final int normalizeCount;
+    final ThresholdParameters thresholds;
+
+    Settings(DetectionEngine detectionEngine, boolean separateTouchingCoins, boolean adaptiveThreshold,
+        boolean automaticThresholds, boolean fixedRig, boolean streaming, StackMode stackMode, int normalizeCount,
+        ThresholdParameters thresholds) {
+      this.detectionEngine = detectionEngine;
+      this.separateTouchingCoins = separateTouchingCoins;
+      this.adaptiveThreshold = adaptiveThreshold;
+      this.automaticThresholds = automaticThresholds;
+      this.fixedRig = fixedRig;
+      this.streaming = streaming;
+      this.stackMode = stackMode;
+      this.normalizeCount = normalizeCount;
+      this.thresholds = thresholds;
+    }
+
+    void configure(CoinPipeline pipeline) {
+      pipeline.setDetectionEngine(detectionEngine);
+      pipeline.setSeparateTouchingCoins(separateTouchingCoins);
+      pipeline.setAdaptiveThreshold(adaptiveThreshold);
+      pipeline.setAutomaticThresholds(automaticThresholds);
+      pipeline.setNormalizeCount(normalizeCount);
+      pipeline.setThresholds(thresholds);
+    }
+  }
+
 } //class FilterTemplate_
 
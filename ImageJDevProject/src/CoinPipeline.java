@@ -0,0 +1,431 @@
+import ij.process.ImageProcessor;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * The coin analysis of one image as a graph of stages with memoized results, for the interactive tuning of the
+ * parameters. Every stage keeps its result together with the inputs it was computed from, which are its parameters and
+ * the results of the stages it depends on. A stage is only computed again if one of these inputs changed, so changing
+ * e.g. the normalize count recomputes the morphology, labelling and classification, but neither the RGB buffer nor the
+ * threshold masks.
+ * <pre>
+ * frame (RGB buffer of the ROI) -- thresholds -- adaptive threshold
+ *   +-- marker threshold mask -- calibration (marker mask, measurement, scaling factor)
+ *   +-- coin threshold mask -- coin mask (morphology) -- coin image (separation) -- labelling -- result
+ * </pre>
+ * The image must not change while the pipeline is in use, call {@link #setImage(ImageProcessor)} again after a change.
+ * For a preview the pipeline can run on a downsampled proxy of the image, all sizes in pixels (morphology iterations,
+ * minimum coin area) are then scaled with {@link #setPixelScale(double)}.
+ * The stages report their progress to the {@link TaskMonitor} of the pipeline. A cancelled stage throws a
+ * {@link java.util.concurrent.CancellationException} and keeps its previous result, the stages which were complete
+ * before are reused by the next run.
+ *
+ * @version 1.0
+ */
+public class CoinPipeline {
+
+  private ImageProcessor ip;
+  private ThresholdParameters thresholds = CoinController.DEFAULT_THRESHOLDS;
+  private boolean automaticThresholds = false;
+  private boolean adaptiveThreshold = false;
+  private boolean separateTouchingCoins = true;
+  private int normalizeCount = CoinUtils.NORMALIZE_COUNT;
+  private DetectionEngine detectionEngine = DetectionEngine.THRESHOLD;
+  private CalibrationSession calibrationSession;
+  private double pixelScale = 1.0;
+  private double fixedScalingFactor = Double.NaN;
+  private TaskMonitor monitor = TaskMonitor.NONE;
+
+  private final Stage<Frame> frameStage = new Stage<>();
+  private final Stage<ThresholdParameters> thresholdStage = new Stage<>();
+  private final Stage<AdaptiveThreshold> adaptiveThresholdStage = new Stage<>();
+  private final Stage<RunLengthMask> markerThresholdMaskStage = new Stage<>();
+  private final Stage<CalibrationSession.Calibration> calibrationStage = new Stage<>();
+  private final Stage<RunLengthMask> coinThresholdMaskStage = new Stage<>();
+  private final Stage<RunLengthMask> coinMaskStage = new Stage<>();
+  private final Stage<int[][]> coinImageStage = new Stage<>();
+  private final Stage<Labelling> labellingStage = new Stage<>();
+  private final Stage<ClassificationResult> resultStage = new Stage<>();
+
+  /**
+   * Creates a pipeline for an image.
+   * @param ip The RGB image, only its ROI is analysed.
+   */
+  public CoinPipeline(ImageProcessor ip) {
+    this.ip = ip;
+  }
+
+  /**
+   * Replaces the image, which discards all results.
+   * @param ip The RGB image, only its ROI is analysed.
+   */
+  public synchronized void setImage(ImageProcessor ip) {
+    this.ip = ip;
+    frameStage.invalidate();
+  }
+
+  public synchronized void setThresholds(ThresholdParameters thresholds) {
+    this.thresholds = thresholds;
+  }
+
+  public synchronized void setAutomaticThresholds(boolean automaticThresholds) {
+    this.automaticThresholds = automaticThresholds;
+  }
+
+  public synchronized void setAdaptiveThreshold(boolean adaptiveThreshold) {
+    this.adaptiveThreshold = adaptiveThreshold;
+  }
+
+  public synchronized void setSeparateTouchingCoins(boolean separateTouchingCoins) {
+    this.separateTouchingCoins = separateTouchingCoins;
+  }
+
+  public synchronized void setNormalizeCount(int normalizeCount) {
+    if (normalizeCount < 0) {
+      throw new IllegalArgumentException("Normalize count must not be negative: " + normalizeCount);
+    }
+    this.normalizeCount = normalizeCount;
+  }
+
+  public synchronized void setDetectionEngine(DetectionEngine detectionEngine) {
+    this.detectionEngine = detectionEngine;
+  }
+
+  /**
+   * @param pixelScale The ratio of the image size to the size of the original image, e.g. 0.25 for a proxy which is
+   *     downsampled by 4.
+   */
+  public synchronized void setPixelScale(double pixelScale) {
+    if (!(pixelScale > 0.0 && pixelScale <= 1.0)) {
+      throw new IllegalArgumentException("Pixel scale must be in (0, 1]: " + pixelScale);
+    }
+    this.pixelScale = pixelScale;
+  }
+
+  /**
+   * @param scalingFactor The scaling factor in mm per pixel which replaces the one of the reference marker, e.g. for a
+   *     frame of a mosaic which does not show the marker, or NaN for the one of the reference marker.
+   */
+  public synchronized void setScalingFactor(double scalingFactor) {
+    if (!Double.isNaN(scalingFactor) && !(scalingFactor > 0.0 && !Double.isInfinite(scalingFactor))) {
+      throw new IllegalArgumentException("Scaling factor must be positive or NaN: " + scalingFactor);
+    }
+    this.fixedScalingFactor = scalingFactor;
+  }
+
+  /**
+   * @param monitor The monitor which receives the progress of the stages and cancels them.
+   */
+  public synchronized void setTaskMonitor(TaskMonitor monitor) {
+    this.monitor = monitor;
+  }
+
+  /**
+   * @param calibrationSession The session which calibrates the reference marker of a fixed rig, or null to measure the
+   *     marker of every image.
+   */
+  public synchronized void setCalibrationSession(CalibrationSession calibrationSession) {
+    this.calibrationSession = calibrationSession;
+  }
+
+  /**
+   * @return Returns the RGB buffer of the ROI bounding box and the ROI mask.
+   */
+  public synchronized Frame getFrame() {
+    return frameStage.get(Arrays.asList(ip, ip.getPixels(), ip.getRoi(), ip.getMask()), () -> {
+      monitor.checkCancelled();
+      Rectangle roi = ip.getRoi();
+      ImageProcessor roiIp = roi.width == ip.getWidth() && roi.height == ip.getHeight() ? ip : ip.crop();
+      return new Frame(ImageJUtility.getChannelImageFromIP(roiIp, roi.width, roi.height, 3), (int[]) roiIp.getPixels(),
+          roi, ImageJUtility.getRoiMask(ip));
+    });
+  }
+
+  /**
+   * @return Returns the fixed or the automatically selected threshold parameters.
+   */
+  public synchronized ThresholdParameters getThresholds() {
+    Frame frame = getFrame();
+    return thresholdStage.get(Arrays.asList(frame, automaticThresholds, thresholds), () -> {
+      monitor.progress(0.05);
+      return automaticThresholds ?
+          CoinController.selectThresholds(frame.getWidth(), frame.getHeight(), frame.getChannels()) : thresholds;
+    });
+  }
+
+  /**
+   * @return Returns the background estimation, or null for the global thresholds.
+   */
+  public synchronized AdaptiveThreshold getAdaptiveThreshold() {
+    Frame frame = getFrame();
+    ThresholdParameters current = getThresholds();
+    return adaptiveThresholdStage.get(Arrays.asList(frame, adaptiveThreshold, current.getCoinMinThreshold(),
+        current.getCoinMaxThreshold(), current.getCoinDelta()), () -> adaptiveThreshold ?
+        CoinController.computeAdaptiveThreshold(frame.getWidth(), frame.getHeight(), frame.getChannels(), current,
+            monitor.subTask(0.1, 0.2)) : null);
+  }
+
+  /**
+   * @return Returns the reference marker mask, its measurement and the scaling factor.
+   */
+  public synchronized CalibrationSession.Calibration getCalibration() {
+    Frame frame = getFrame();
+    AdaptiveThreshold adaptive = getAdaptiveThreshold();
+    int scaledNormalizeCount = getScaledNormalizeCount();
+    if (calibrationSession != null && !automaticThresholds) {
+      return calibrationStage.get(Arrays.asList(frame, adaptive, calibrationSession, scaledNormalizeCount), () ->
+          calibrationSession.calibrate(frame.getWidth(), frame.getHeight(), frame.getChannels(), adaptive,
+              frame.getRoiMask(), scaledNormalizeCount, monitor.subTask(0.2, 0.4)));
+    }
+    ThresholdParameters current = getThresholds();
+    RunLengthMask markerThresholdMask = markerThresholdMaskStage.get(Arrays.asList(frame, adaptive,
+        current.getMarkerMinThreshold(), current.getMarkerMaxThreshold(), current.getMarkerDelta()), () -> {
+          RunLengthMask mask = getTransformedMask(frame, adaptive, current.getMarkerMinThreshold(),
+              current.getMarkerMaxThreshold(), current.getMarkerDelta(), false, monitor.subTask(0.2, 0.3));
+          return frame.getRoiMask() == null ? mask : mask.and(frame.getRoiMask());
+        });
+    return calibrationStage.get(Arrays.asList(markerThresholdMask, scaledNormalizeCount), () -> {
+      RunLengthMask referenceMarkerMask = CoinUtils.normalizeReferenceMarker(markerThresholdMask, scaledNormalizeCount,
+          monitor.subTask(0.3, 0.4));
+      ReferenceMarkerMeasurement measurement = CoinController.measureReferenceMarker(referenceMarkerMask);
+      double scalingFactor = MathUtils.calculateScalingFactor(CoinController.REFERENCE_MARKER_DIAMETER,
+          measurement.getDiameter());
+      return new CalibrationSession.Calibration(frame.getWidth(), frame.getHeight(), referenceMarkerMask, measurement,
+          scalingFactor, false);
+    });
+  }
+
+  /**
+   * @return Returns the normalized coin mask without the reference marker, before touching coins are separated.
+   */
+  public synchronized RunLengthMask getCoinMask() {
+    Frame frame = getFrame();
+    AdaptiveThreshold adaptive = getAdaptiveThreshold();
+    ThresholdParameters current = getThresholds();
+    RunLengthMask referenceMarkerMask = getCalibration().getReferenceMarkerMask();
+    RunLengthMask coinThresholdMask = coinThresholdMaskStage.get(Arrays.asList(frame, adaptive,
+        current.getCoinMinThreshold(), current.getCoinMaxThreshold(), current.getCoinDelta()), () ->
+        getTransformedMask(frame, adaptive, current.getCoinMinThreshold(), current.getCoinMaxThreshold(),
+            current.getCoinDelta(), true, monitor.subTask(0.4, 0.5)));
+    int scaledNormalizeCount = getScaledNormalizeCount();
+    return coinMaskStage.get(Arrays.asList(coinThresholdMask, referenceMarkerMask, scaledNormalizeCount), () -> {
+      RunLengthMask mask = CoinUtils.applyReferenceMask(coinThresholdMask, referenceMarkerMask);
+      if (frame.getRoiMask() != null) {
+        mask = mask.and(frame.getRoiMask());
+      }
+      return CoinUtils.normalizeCoins(mask, scaledNormalizeCount, monitor.subTask(0.5, 0.65)).fillHoles();
+    });
+  }
+
+  /**
+   * @return Returns the binary image of the segmented coins, the returned array must not be modified.
+   */
+  public synchronized int[][] getCoinImage() {
+    Frame frame = getFrame();
+    RunLengthMask coinMask = getCoinMask();
+    int minArea = getScaledMinArea();
+    return coinImageStage.get(Arrays.asList(coinMask, separateTouchingCoins, minArea), () -> {
+      int[][] coinImage = coinMask.toImage();
+      if (separateTouchingCoins) {
+        CoinSeparation.separateTouchingCoins(coinImage, frame.getWidth(), frame.getHeight(),
+            MathUtils.calculateDiameter(minArea) / 2.0, CoinSeparation.DEFAULT_DYNAMIC_RATIO, monitor.subTask(0.65, 0.8));
+      }
+      return coinImage;
+    });
+  }
+
+  /**
+   * @return Returns the labelled regions of the coins with their circle measurements.
+   */
+  public synchronized Labelling getLabelling() {
+    Frame frame = getFrame();
+    if (detectionEngine == DetectionEngine.HOUGH) {
+      CalibrationSession.Calibration calibration = getCalibration();
+      double scalingFactor = getScalingFactor();
+      ThresholdParameters current = getThresholds();
+      AdaptiveThreshold adaptive = getAdaptiveThreshold();
+      return labellingStage.get(Arrays.asList(frame, detectionEngine, calibration, scalingFactor,
+          CurrencyCatalogue.getCurrent(), separateTouchingCoins, adaptive, current), () -> {
+        RunLengthMask excludedMask = frame.getRoiMask() == null ? calibration.getReferenceMarkerMask() :
+            calibration.getReferenceMarkerMask().or(frame.getRoiMask().invert());
+        int[][][] segmentationResult = new int[frame.getWidth()][frame.getHeight()][3];
+        Map<Integer, List<Point>> regionLabels = CoinController.detectCoins(detectionEngine, frame.getWidth(),
+            frame.getHeight(), frame.getChannels(), excludedMask, scalingFactor, segmentationResult,
+            separateTouchingCoins, adaptive, current, monitor.subTask(0.4, 0.95));
+        return new Labelling(regionLabels, new HashMap<>(), segmentationResult);
+      });
+    }
+    int[][] coinImage = getCoinImage();
+    int minArea = getScaledMinArea();
+    return labellingStage.get(Arrays.asList(detectionEngine, coinImage, minArea), () -> {
+      int[][][] segmentationResult = new int[frame.getWidth()][frame.getHeight()][3];
+      Map<Integer, CircleMeasurement> measurements = new HashMap<>();
+      Map<Integer, List<Point>> regionLabels = TiledRegionLabeller.labelRegions(coinImage,
+          TiledRegionLabeller.DEFAULT_TILE_SIZE, measurements, minArea, monitor.subTask(0.8, 0.95));
+      BimetallicRing.recoverRings(regionLabels, measurements, frame.getChannels());
+      CoinUtils.paintRegions(regionLabels, segmentationResult);
+      return new Labelling(regionLabels, measurements, segmentationResult);
+    });
+  }
+
+  /**
+   * @return Returns the classification result in the coordinates of the ROI bounding box.
+   */
+  public synchronized ClassificationResult getResult() {
+    Frame frame = getFrame();
+    Labelling labelling = getLabelling();
+    double scalingFactor = getScalingFactor();
+    ClassificationResult result = resultStage.get(Arrays.asList(labelling, scalingFactor, CurrencyCatalogue.getCurrent()),
+        () -> {
+          monitor.progress(0.95);
+          return labelling.getMeasurements().isEmpty() ?
+              CoinController.classifyCoinsDetailed(labelling.getRegionLabels(), frame.getChannels(), scalingFactor) :
+              CoinController.classifyCoinsDetailed(labelling.getRegionLabels(), labelling.getMeasurements(),
+                  frame.getChannels(), scalingFactor);
+        });
+    monitor.progress(1.0);
+    return result;
+  }
+
+  /**
+   * @return Returns the fixed scaling factor, or the one of the reference marker.
+   */
+  public synchronized double getScalingFactor() {
+    return Double.isNaN(fixedScalingFactor) ? getCalibration().getScalingFactor() : fixedScalingFactor;
+  }
+
+  /**
+   * Threshold segmentation of a frame. The global thresholds run the branch-free kernel on the packed pixels, the
+   * illumination compensated ones need the gain of every pixel.
+   */
+  private static RunLengthMask getTransformedMask(Frame frame, AdaptiveThreshold adaptive, int minThreshold,
+      int maxThreshold, int delta, boolean invert, TaskMonitor monitor) {
+    if (adaptive == null) {
+      return ThresholdKernel.threshold(frame.getPixels(), frame.getWidth(), frame.getHeight(), minThreshold,
+          maxThreshold, delta, invert, monitor);
+    }
+    return CoinController.getTransformedMask(frame.getWidth(), frame.getHeight(), frame.getChannels(), adaptive,
+        minThreshold, maxThreshold, delta, invert, monitor);
+  }
+
+  private int getScaledNormalizeCount() {
+    return normalizeCount == 0 ? 0 : Math.max(1, (int) Math.round(normalizeCount * pixelScale));
+  }
+
+  private int getScaledMinArea() {
+    return Math.max(1, (int) Math.round(CoinUtils.MIN_THRESHOLD * pixelScale * pixelScale));
+  }
+
+  /**
+   * A memoized stage result together with the inputs it was computed from. A computation which throws, e.g. because
+   * it was cancelled, leaves the previous result in place.
+   */
+  private static final class Stage<T> {
+
+    private List<Object> inputs;
+    private T value;
+
+    T get(List<Object> currentInputs, Supplier<T> computation) {
+      if (inputs == null || !inputs.equals(currentInputs)) {
+        value = computation.get();
+        inputs = currentInputs;
+      }
+      return value;
+    }
+
+    void invalidate() {
+      inputs = null;
+      value = null;
+    }
+  }
+
+  /**
+   * The RGB buffer of the ROI bounding box of an image.
+   */
+  public static final class Frame {
+
+    private final int[][][] channels;
+    private final int[] pixels;
+    private final Rectangle roi;
+    private final RunLengthMask roiMask;
+
+    Frame(int[][][] channels, int[] pixels, Rectangle roi, RunLengthMask roiMask) {
+      this.channels = channels;
+      this.pixels = pixels;
+      this.roi = roi;
+      this.roiMask = roiMask;
+    }
+
+    public int[][][] getChannels() {
+      return channels;
+    }
+
+    /**
+     * @return Returns the packed RGB pixels of the ROI bounding box row by row, which must not be modified.
+     */
+    public int[] getPixels() {
+      return pixels;
+    }
+
+    public int getWidth() {
+      return roi.width;
+    }
+
+    public int getHeight() {
+      return roi.height;
+    }
+
+    /**
+     * @return Returns the ROI bounding box in image coordinates.
+     */
+    public Rectangle getRoi() {
+      return new Rectangle(roi);
+    }
+
+    /**
+     * @return Returns the mask of a non-rectangular ROI relative to its bounding box, or null.
+     */
+    public RunLengthMask getRoiMask() {
+      return roiMask;
+    }
+  }
+
+  /**
+   * The labelled coin regions with their circle measurements.
+   */
+  public static final class Labelling {
+
+    private final Map<Integer, List<Point>> regionLabels;
+    private final Map<Integer, CircleMeasurement> measurements;
+    private final int[][][] segmentationResult;
+
+    Labelling(Map<Integer, List<Point>> regionLabels, Map<Integer, CircleMeasurement> measurements,
+        int[][][] segmentationResult) {
+      this.regionLabels = regionLabels;
+      this.measurements = measurements;
+      this.segmentationResult = segmentationResult;
+    }
+
+    public Map<Integer, List<Point>> getRegionLabels() {
+      return regionLabels;
+    }
+
+    /**
+     * @return Returns the circle measurement of each region, empty for the Hough engine.
+     */
+    public Map<Integer, CircleMeasurement> getMeasurements() {
+      return measurements;
+    }
+
+    /**
+     * @return Returns the image where all labelled regions are painted into.
+     */
+    public int[][][] getSegmentationResult() {
+      return segmentationResult;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/**
+ * The classification result of a single coin in an image.
+ *
+ * @version 1.0
+ */
+public class CoinResult {
+
+  private final int id;
+  private final double centerX;
+  private final double centerY;
+  private final double diameter;
+  private final CoinFamily family;
+  private final Coin coin;
+  private final double confidence;
+
+  /**
+   * Creates the result of a coin.
+   * @param id The region ID of the coin.
+   * @param centerX The x position of the centroid in pixels.
+   * @param centerY The y position of the centroid in pixels.
+   * @param diameter The measured diameter in mm.
+   * @param family The colour family of the coin.
+   * @param coin The matching coin of the currency catalogue.
+   * @param confidence The confidence of the diameter match in [0, 1].
+   */
+  public CoinResult(int id, double centerX, double centerY, double diameter, CoinFamily family, Coin coin,
+      double confidence) {
+    this.id = id;
+    this.centerX = centerX;
+    this.centerY = centerY;
+    this.diameter = diameter;
+    this.family = family;
+    this.coin = coin;
+    this.confidence = confidence;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public double getCenterX() {
+    return centerX;
+  }
+
+  public double getCenterY() {
+    return centerY;
+  }
+
+  public double getDiameter() {
+    return diameter;
+  }
+
+  public CoinFamily getFamily() {
+    return family;
+  }
+
+  public Coin getCoin() {
+    return coin;
+  }
+
+  public double getConfidence() {
+    return confidence;
+  }
+
+  /**
+   * @param offsetX The offset in x direction in pixels.
+   * @param offsetY The offset in y direction in pixels.
+   * @return Returns the result with the centroid moved by the offset.
+   */
+  public CoinResult translate(double offsetX, double offsetY) {
+    return new CoinResult(id, centerX + offsetX, centerY + offsetY, diameter, family, coin, confidence);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ID [%d]: %.2f %s at (%.1f, %.1f), diameter in mm = %f, %s, confidence = %.2f", id,
+        coin.getValue(), coin.getCurrency(), centerX, centerY, diameter, family, confidence);
+  }
+}
@@ -0,0 +1,286 @@
+import java.util.Arrays;
+
+/**
+ * Separation of touching coins in a binary coin image. The exact Euclidean distance transform of the foreground is
+ * flooded from the highest to the lowest distance (marker-controlled watershed). Every maximum of the distance
+ * transform starts a basin, but only basins which are deep enough become markers: a basin is significant if its
+ * peak is at least the radius of the smallest accepted coin and the flooding level has dropped by a given ratio of
+ * that peak. Where two significant basins meet, a one pixel watershed line is set to background, so the N8 region
+ * labelling finds two regions. The distance transform is linear and the pixels are ordered with a bucket queue on
+ * quantized distances, so the whole stage is linear in the image size.
+ *
+ * @version 1.0
+ */
+public class CoinSeparation {
+
+  public static final double DEFAULT_DYNAMIC_RATIO = 0.25;
+
+  private static final int LEVELS_PER_PIXEL = 4;
+  private static final int UNASSIGNED = 0;
+  private static final int WATERSHED = -1;
+
+  private CoinSeparation() {
+  }
+
+  /**
+   * Separates touching coins with the default parameters. The smallest accepted coin is a circle with the area
+   * {@link CoinUtils#MIN_THRESHOLD}.
+   * @param image The binary coin image, which is modified.
+   * @param width The image width.
+   * @param height The image height.
+   * @return Returns the image with watershed lines between touching coins.
+   */
+  public static int[][] separateTouchingCoins(int[][] image, int width, int height) {
+    return separateTouchingCoins(image, width, height, MathUtils.calculateDiameter(CoinUtils.MIN_THRESHOLD) / 2.0,
+        DEFAULT_DYNAMIC_RATIO);
+  }
+
+  /**
+   * Separates touching coins.
+   * @param image The binary coin image, which is modified.
+   * @param width The image width.
+   * @param height The image height.
+   * @param minRadius The radius of the smallest coin in pixels, smaller maxima never become markers.
+   * @param dynamicRatio The ratio of its peak by which the level has to drop below the peak of a basin, before it
+   *     is a marker of its own.
+   * @return Returns the image with watershed lines between touching coins.
+   */
+  public static int[][] separateTouchingCoins(int[][] image, int width, int height, double minRadius, double dynamicRatio) {
+    return separateTouchingCoins(image, width, height, minRadius, dynamicRatio, TaskMonitor.NONE);
+  }
+
+  /**
+   * Separates touching coins and checks for cancellation once per image column of work.
+   * @param image The binary coin image, which is modified.
+   * @param width The image width.
+   * @param height The image height.
+   * @param minRadius The radius of the smallest coin in pixels, smaller maxima never become markers.
+   * @param dynamicRatio The ratio of its peak by which the level has to drop below the peak of a basin, before it
+   *     is a marker of its own.
+   * @param monitor The monitor of the separation.
+   * @return Returns the image with watershed lines between touching coins.
+   */
+  public static int[][] separateTouchingCoins(int[][] image, int width, int height, double minRadius,
+      double dynamicRatio, TaskMonitor monitor) {
+    float[] distances = distanceTransform(image, width, height, monitor.subTask(0.0, 0.5));
+
+    /* Order all foreground pixels by decreasing distance with a bucket queue. */
+    float maxDistance = 0.0f;
+    int foregroundCount = 0;
+    for (float distance : distances) {
+      if (distance > 0.0f) {
+        ++foregroundCount;
+        maxDistance = Math.max(maxDistance, distance);
+      }
+    }
+    if (Float.isInfinite(maxDistance)) {
+      return image;
+    }
+    int levelCount = (int) (maxDistance * LEVELS_PER_PIXEL) + 1;
+    int[] bucketStarts = new int[levelCount + 1];
+    for (float distance : distances) {
+      if (distance > 0.0f) {
+        ++bucketStarts[levelCount - 1 - level(distance)];
+      }
+    }
+    int position = 0;
+    for (int bucket = 0; bucket <= levelCount; ++bucket) {
+      int count = bucketStarts[bucket];
+      bucketStarts[bucket] = position;
+      position += count;
+    }
+    int[] order = new int[foregroundCount];
+    for (int index = 0; index < distances.length; ++index) {
+      if (distances[index] > 0.0f) {
+        order[bucketStarts[levelCount - 1 - level(distances[index])]++] = index;
+      }
+    }
+
+    /* Flood the basins from the highest distance downwards. */
+    int[] labels = new int[distances.length];
+    Basins basins = new Basins();
+    TaskMonitor floodMonitor = monitor.subTask(0.5, 1.0);
+    for (int i = 0; i < order.length; ++i) {
+      if (i % height == 0) {
+        floodMonitor.progress(i, order.length);
+      }
+      int index = order[i];
+      float distance = distances[index];
+      int x = index / height;
+      int y = index % height;
+      int basin = UNASSIGNED;
+      boolean watershed = false;
+      for (int xOffset = -1; xOffset <= 1; ++xOffset) {
+        for (int yOffset = -1; yOffset <= 1; ++yOffset) {
+          int neighbourX = x + xOffset;
+          int neighbourY = y + yOffset;
+          if (neighbourX < 0 || neighbourY < 0 || neighbourX >= width || neighbourY >= height) {
+            continue;
+          }
+          int neighbourLabel = labels[neighbourX * height + neighbourY];
+          if (neighbourLabel <= UNASSIGNED) {
+            continue;
+          }
+          int root = basins.find(neighbourLabel);
+          if (basin == UNASSIGNED) {
+            basin = root;
+          } else if (root != basin) {
+            boolean basinSignificant = basins.isSignificant(basin, distance, minRadius, dynamicRatio);
+            boolean rootSignificant = basins.isSignificant(root, distance, minRadius, dynamicRatio);
+            if (basinSignificant && rootSignificant) {
+              watershed = true;
+            } else if (rootSignificant || (!basinSignificant && basins.getPeak(root) > basins.getPeak(basin))) {
+              basins.merge(basin, root);
+              basin = root;
+            } else {
+              basins.merge(root, basin);
+            }
+          }
+        }
+      }
+      if (watershed) {
+        labels[index] = WATERSHED;
+      } else if (basin == UNASSIGNED) {
+        labels[index] = basins.create(distance);
+      } else {
+        labels[index] = basin;
+      }
+    }
+
+    for (int x = 0; x < width; ++x) {
+      for (int y = 0; y < height; ++y) {
+        if (labels[x * height + y] == WATERSHED) {
+          image[x][y] = CoinUtils.BACKGROUND_COLOR;
+        }
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Exact Euclidean distance transform (Felzenszwalb and Huttenlocher), first along the columns, then along the rows.
+   * Pixels outside the image do not count as background.
+   * @param image The binary image.
+   * @param width The image width.
+   * @param height The image height.
+   * @return Returns the distance of every pixel to the nearest background pixel, column by column (x * height + y).
+   *     Without any background pixel all distances are infinite.
+   */
+  public static float[] distanceTransform(int[][] image, int width, int height) {
+    return distanceTransform(image, width, height, TaskMonitor.NONE);
+  }
+
+  /**
+   * Exact Euclidean distance transform, which checks for cancellation once per column and row.
+   * @param image The binary image.
+   * @param width The image width.
+   * @param height The image height.
+   * @param monitor The monitor of the transform.
+   * @return Returns the distance of every pixel to the nearest background pixel, column by column (x * height + y).
+   *     Without any background pixel all distances are infinite.
+   */
+  public static float[] distanceTransform(int[][] image, int width, int height, TaskMonitor monitor) {
+    double infinity = (double) width * width + (double) height * height + 1.0;
+    float[] distances = new float[width * height];
+    int length = Math.max(width, height);
+    double[] input = new double[length];
+    double[] output = new double[length];
+    int[] vertices = new int[length];
+    double[] boundaries = new double[length + 1];
+
+    for (int x = 0; x < width; ++x) {
+      monitor.progress(x, width + height);
+      for (int y = 0; y < height; ++y) {
+        input[y] = image[x][y] == CoinUtils.FOREGROUND_COLOR ? infinity : 0.0;
+      }
+      transform1D(input, height, output, vertices, boundaries);
+      for (int y = 0; y < height; ++y) {
+        distances[x * height + y] = (float) output[y];
+      }
+    }
+    for (int y = 0; y < height; ++y) {
+      monitor.progress(width + y, width + height);
+      for (int x = 0; x < width; ++x) {
+        input[x] = distances[x * height + y];
+      }
+      transform1D(input, width, output, vertices, boundaries);
+      for (int x = 0; x < width; ++x) {
+        distances[x * height + y] = output[x] >= infinity ? Float.POSITIVE_INFINITY : (float) Math.sqrt(output[x]);
+      }
+    }
+    return distances;
+  }
+
+  /**
+   * One dimensional squared distance transform as lower envelope of parabolas.
+   */
+  private static void transform1D(double[] input, int length, double[] output, int[] vertices, double[] boundaries) {
+    int k = 0;
+    vertices[0] = 0;
+    boundaries[0] = Double.NEGATIVE_INFINITY;
+    boundaries[1] = Double.POSITIVE_INFINITY;
+    for (int q = 1; q < length; ++q) {
+      double s = intersection(input, q, vertices[k]);
+      while (s <= boundaries[k]) {
+        --k;
+        s = intersection(input, q, vertices[k]);
+      }
+      ++k;
+      vertices[k] = q;
+      boundaries[k] = s;
+      boundaries[k + 1] = Double.POSITIVE_INFINITY;
+    }
+    k = 0;
+    for (int q = 0; q < length; ++q) {
+      while (boundaries[k + 1] < q) {
+        ++k;
+      }
+      double offset = q - vertices[k];
+      output[q] = offset * offset + input[vertices[k]];
+    }
+  }
+
+  private static double intersection(double[] input, int q, int p) {
+    return ((input[q] + (double) q * q) - (input[p] + (double) p * p)) / (2.0 * q - 2.0 * p);
+  }
+
+  private static int level(float distance) {
+    return (int) (distance * LEVELS_PER_PIXEL);
+  }
+
+  /**
+   * Union-find of the flooded basins with the peak distance of every basin.
+   */
+  private static final class Basins {
+
+    private final UnionFind basinSets = new UnionFind(1);
+    private float[] peaks = new float[16];
+
+    int create(float peak) {
+      int basin = basinSets.add();
+      if (basin == peaks.length) {
+        peaks = Arrays.copyOf(peaks, peaks.length * 2);
+      }
+      peaks[basin] = peak;
+      return basin;
+    }
+
+    int find(int basin) {
+      return basinSets.find(basin);
+    }
+
+    void merge(int child, int root) {
+      basinSets.link(child, root);
+      peaks[root] = Math.max(peaks[root], peaks[child]);
+    }
+
+    float getPeak(int basin) {
+      return peaks[basin];
+    }
+
+    boolean isSignificant(int basin, float level, double minRadius, double dynamicRatio) {
+      float peak = peaks[basin];
+      return peak >= minRadius && peak - level >= dynamicRatio * peak;
+    }
+  }
+}
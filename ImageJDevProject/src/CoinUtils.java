@@ -1,14 +1,10 @@
-import java.awt.Color;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Random;
-import java.util.Set;
 import java.util.Stack;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.TreeMap;
 
 
 /**
@@ -22,29 +18,18 @@ public class CoinUtils {
 
   public static final int BACKGROUND_COLOR = 0;
   public static final int FOREGROUND_COLOR = 255;
+  public static final int MIN_THRESHOLD = 12_000;
+  public static final int NORMALIZE_COUNT = 7;
+  public static final float GOLD_HUE_THRESHOLD = 0.12f;
+
+  static final Coin NO_COIN = new Coin(0.0, 0.0);
 
   private static final int MARKER = -1;
-  private static final int NORMALIZE_COUNT = 7;
   private static final int RGB_CHANNELS = 3;
-  private static final int MIN_THRESHOLD = 12_000;
+  private static final int CANCEL_CHECK_INTERVAL = 1 << 16;
+  /* Relative diameter deviation up to which a coin may still be a bimetallic one. */
+  private static final double BIMETALLIC_DIAMETER_TOLERANCE = 0.06;
   private static final RGBColor BACKGROUND = new RGBColor(BACKGROUND_COLOR, BACKGROUND_COLOR, BACKGROUND_COLOR);
-  private static final Set<Coin> goldCoins;
-  private static final Set<Coin> copperCoins;
-
-  /**
-   * Initalizes the static gold coins and copper coins for classifications.
-   */
-  static {
-    goldCoins = new HashSet<>();
-    copperCoins = new HashSet<>();
-    copperCoins.add(new Coin(0.01, 16.25));
-    copperCoins.add(new Coin(0.02, 18.75));
-    copperCoins.add(new Coin(0.05, 21.25));
-    goldCoins.add(new Coin(0.10, 19.75, true));
-    goldCoins.add(new Coin(0.20, 22.25, true));
-    goldCoins.add(new Coin(0.50, 24.25, true));
-  }
-
 
   private CoinUtils() {
   }
@@ -97,6 +82,56 @@ public class CoinUtils {
     return returnImg;
   }
 
+  /**
+   *  Threshold segmentation directly into a run-length encoded mask, equivalent to
+   *  {@link #getTransformedImage(int[][][], int, int, int, int, int, boolean)}.
+   * @param inImg The input image.
+   * @param width The image width.
+   * @param height The image height.
+   * @param minThreshold The minimum threshold.
+   * @param maxThreshold The maximum threshold.
+   * @param delta The delta for the RGB values.
+   * @param invert An marker to invert the segmented mask.
+   * @return Returns the segmented mask.
+   */
+  public static RunLengthMask getTransformedMask(int[][][] inImg, int width, int height, int minThreshold, int maxThreshold,
+      int delta, boolean invert) {
+    return getTransformedMask(inImg, width, height, minThreshold, maxThreshold, delta, invert, TaskMonitor.NONE);
+  }
+
+  /**
+   * Threshold segmentation into a run-length encoded mask, which reports its progress once per row.
+   * @param inImg The input image.
+   * @param width The image width.
+   * @param height The image height.
+   * @param minThreshold The minimum threshold.
+   * @param maxThreshold The maximum threshold.
+   * @param delta The delta for the RGB values.
+   * @param invert An marker to invert the segmented mask.
+   * @param monitor The monitor of the segmentation.
+   * @return Returns the segmented mask.
+   */
+  public static RunLengthMask getTransformedMask(int[][][] inImg, int width, int height, int minThreshold, int maxThreshold,
+      int delta, boolean invert, TaskMonitor monitor) {
+    RunLengthMask.Builder builder = new RunLengthMask.Builder(width, height);
+    for (int y = 0; y < height; ++y) {
+      monitor.progress(y, height);
+      for (int x = 0; x < width; ++x) {
+        int r = inImg[x][y][0];
+        int g = inImg[x][y][1];
+        int b = inImg[x][y][2];
+        boolean inRange = isInRange(minThreshold, maxThreshold, r) && isInRange(minThreshold, maxThreshold, g) &&
+            isInRange(minThreshold, maxThreshold, b) &&
+            Math.abs(r - g) <= delta && Math.abs(g - b) <= delta;
+        if (inRange != invert) {
+          builder.add(x);
+        }
+      }
+      builder.nextRow();
+    }
+    return builder.build();
+  }
+
   /**
    * Determines if a value is in range.
    * @param minThreshold Min threshold.
@@ -151,6 +186,94 @@ public class CoinUtils {
     return image;
   }
 
+  /**
+   * Normalizes the reference marker mask with the same Mathematical Morphology iterations as
+   * {@link #normalizeReferenceMarker(int[][], int, int)}, but operating on runs.
+   * @param mask The mask which should be normalized.
+   * @return Returns the normalized mask.
+   */
+  public static RunLengthMask normalizeReferenceMarker(RunLengthMask mask) {
+    return normalizeReferenceMarker(mask, NORMALIZE_COUNT);
+  }
+
+  /**
+   * Normalizes the reference marker mask with a given base amount of Mathematical Morphology iterations.
+   * @param mask The mask which should be normalized.
+   * @param normalizeCount The base amount of iterations, {@link #NORMALIZE_COUNT} by default.
+   * @return Returns the normalized mask.
+   */
+  public static RunLengthMask normalizeReferenceMarker(RunLengthMask mask, int normalizeCount) {
+    return normalizeReferenceMarker(mask, normalizeCount, TaskMonitor.NONE);
+  }
+
+  /**
+   * Normalizes the reference marker mask and reports the progress once per iteration.
+   * @param mask The mask which should be normalized.
+   * @param normalizeCount The base amount of iterations, {@link #NORMALIZE_COUNT} by default.
+   * @param monitor The monitor of the normalization.
+   * @return Returns the normalized mask.
+   */
+  public static RunLengthMask normalizeReferenceMarker(RunLengthMask mask, int normalizeCount, TaskMonitor monitor) {
+    int iterations = normalizeCount * 7;
+    for (int i = 0; i < normalizeCount; ++i) {
+      monitor.progress(i, iterations);
+      mask = mask.dilate();
+    }
+    for (int j = 0; j < normalizeCount * 4; ++j) {
+      monitor.progress(normalizeCount + j, iterations);
+      mask = mask.erode();
+    }
+    for (int j = 0; j < normalizeCount * 3 - normalizeCount; ++j) {
+      monitor.progress(normalizeCount * 5 + j, iterations);
+      mask = mask.dilate();
+    }
+    return mask;
+  }
+
+  /**
+   * Normalizes the coin mask with the same Mathematical Morphology iterations as
+   * {@link #normalizeCoins(int[][], int, int)}, but operating on runs.
+   * @param mask The mask which should be normalized.
+   * @return Returns the normalized mask.
+   */
+  public static RunLengthMask normalizeCoins(RunLengthMask mask) {
+    return normalizeCoins(mask, NORMALIZE_COUNT);
+  }
+
+  /**
+   * Normalizes the coin mask with a given base amount of Mathematical Morphology iterations.
+   * @param mask The mask which should be normalized.
+   * @param normalizeCount The base amount of iterations, {@link #NORMALIZE_COUNT} by default.
+   * @return Returns the normalized mask.
+   */
+  public static RunLengthMask normalizeCoins(RunLengthMask mask, int normalizeCount) {
+    return normalizeCoins(mask, normalizeCount, TaskMonitor.NONE);
+  }
+
+  /**
+   * Normalizes the coin mask and reports the progress once per iteration.
+   * @param mask The mask which should be normalized.
+   * @param normalizeCount The base amount of iterations, {@link #NORMALIZE_COUNT} by default.
+   * @param monitor The monitor of the normalization.
+   * @return Returns the normalized mask.
+   */
+  public static RunLengthMask normalizeCoins(RunLengthMask mask, int normalizeCount, TaskMonitor monitor) {
+    int iterations = normalizeCount * 8;
+    for (int i = 0; i < normalizeCount * 2; ++i) {
+      monitor.progress(i, iterations);
+      mask = mask.dilate();
+    }
+    for (int i = 0; i < normalizeCount * 4; ++i) {
+      monitor.progress(normalizeCount * 2 + i, iterations);
+      mask = mask.erode();
+    }
+    for (int i = 0; i < normalizeCount * 2; ++i) {
+      monitor.progress(normalizeCount * 6 + i, iterations);
+      mask = mask.dilate();
+    }
+    return mask;
+  }
+
   /**
    * Implementation of the Mathematical Morphology method "dilate".
    * @param image The input image which should be dilated.
@@ -245,6 +368,16 @@ public class CoinUtils {
   }
 
 
+  /**
+   * Removes the reference marker from a mask. The run-length counterpart of {@link #applyReferencePoints(int[][], List)}.
+   * @param mask The input mask.
+   * @param referenceMarkerMask The mask of the reference marker.
+   * @return Returns the mask without the reference marker.
+   */
+  public static RunLengthMask applyReferenceMask(RunLengthMask mask, RunLengthMask referenceMarkerMask) {
+    return mask.andNot(referenceMarkerMask);
+  }
+
   /**
    * Fills the image on the given points with the background color.
    * @param image The RGB image.
@@ -263,13 +396,28 @@ public class CoinUtils {
    * @return Returns a Map of IDs for each coin and all their pixels represented in a list of points.
    */
   public static Map<Integer, List<Point>> rgbRegionGrowing(int[][] coinImage, int[][][] segmentationResultImage) {
+    return rgbRegionGrowing(coinImage, segmentationResultImage, TaskMonitor.NONE);
+  }
+
+  /**
+   * Runs region growing and checks for cancellation before every grown region and every
+   * {@value #CANCEL_CHECK_INTERVAL} grown pixels, so a single large region cannot delay the cancellation.
+   * @param coinImage The input image.
+   * @param segmentationResultImage The segementation result.
+   * @param monitor The monitor of the region growing.
+   * @return Returns a Map of IDs for each coin and all their pixels represented in a list of points.
+   */
+  public static Map<Integer, List<Point>> rgbRegionGrowing(int[][] coinImage, int[][][] segmentationResultImage,
+      TaskMonitor monitor) {
     Map<Integer, List<Point>> idLabels = new HashMap<>();
     Stack<Point> processingStack = new Stack<>();
     initSegmentation(coinImage, segmentationResultImage);
     List<Point> seedPoints = getSeedPoints(segmentationResultImage);
 
     int idSequence = 1;
+    int grownPixels = 0;
     while (!seedPoints.isEmpty()) {
+      monitor.checkCancelled();
       Point firstSeedPoint = seedPoints.get(0);
       int initVal = coinImage[firstSeedPoint.getX()][firstSeedPoint.getY()];
       double tolerance = FOREGROUND_COLOR * 0.1; // 10 % tolerance 25
@@ -292,6 +440,9 @@ public class CoinUtils {
       seedPoints.remove(0);
       //expand and grow
       while (!processingStack.isEmpty()) {
+        if (++grownPixels % CANCEL_CHECK_INTERVAL == 0) {
+          monitor.checkCancelled();
+        }
         Point actualPoint = processingStack.pop();
         //expanding N4 + ND  = N8
         for (int xOffset = -1; xOffset <= 1; ++xOffset) {
@@ -326,6 +477,29 @@ public class CoinUtils {
     return idLabels;
   }
 
+  /**
+   * Region labelling on the runs of a mask. Regions smaller than {@link #MIN_THRESHOLD} are dropped.
+   * @param mask The input mask.
+   * @return Returns a Map of IDs for each coin and the mask of the coin.
+   */
+  public static Map<Integer, RunLengthMask> labelRuns(RunLengthMask mask) {
+    return mask.labelRegions(MIN_THRESHOLD);
+  }
+
+  /**
+   * Paints every labelled region with a random color into the segmentation result image.
+   * @param regionLabels The labelled regions.
+   * @param segmentationResultImage The segmentation result.
+   */
+  public static void paintRegions(Map<Integer, List<Point>> regionLabels, int[][][] segmentationResultImage) {
+    regionLabels.forEach((id, points) -> {
+      RGBColor currentColor = generateRandomRGB();
+      for (Point point : points) {
+        setColor(segmentationResultImage, point.getX(), point.getY(), currentColor);
+      }
+    });
+  }
+
   /**
    * Sets a RGB color in a RGB image.
    * @param segmentedImg The RGB image.
@@ -370,60 +544,218 @@ public class CoinUtils {
   }
 
   /**
-   * Converts a RGB image to a HSB image.
-   * @param rgbImage The input RGB image.
-   * @return Returns a HSB image.
+   * Calculates all sums of the coins from the region labelling. The mean Hue value of all coins is calculated in one
+   * pass over a flat Hue plane, see {@link LabelHueStatistics}.
+   * @param regionLabels The regions which are labelled.
+   * @param rgbImage The original RGB image.
+   * @param scalingFactor The scaling factor for each coins.
+   * @return Returns the calculated total sum of all coins in the image.
    */
-  public static float[][][] convertRGBToHSB(int[][][] rgbImage) {
-    float[][][] hsbImage = new float[rgbImage.length][rgbImage[0].length][RGB_CHANNELS];
-    float[] hsbValues = new float[3];
-    for (int x = 0; x < rgbImage.length; ++x) {
-      for (int y = 0; y < rgbImage[0].length; ++y) {
-        Color.RGBtoHSB(rgbImage[x][y][0], rgbImage[x][y][1], rgbImage[x][y][2], hsbValues);
-        System.arraycopy(hsbValues, 0, hsbImage[x][y], 0, RGB_CHANNELS);
-      }
-    }
-    return hsbImage;
+  public static double calcSumFromRegions(Map<Integer, List<Point>> regionLabels, int[][][] rgbImage, double scalingFactor) {
+    return classifyRegions(regionLabels, null, rgbImage, scalingFactor).getSum();
   }
 
   /**
-   * Calculates all sums of the coins from the region labelling.
+   * Calculates all sums of the coins from the region labelling. The colour of each single metal coin is determined on
+   * a sample of its pixels, which is only as large as needed for a certain decision.
    * @param regionLabels The regions which are labelled.
-   * @param hsbImage The HSB image representation of the original RGB image.
+   * @param rgbImage The original RGB image.
    * @param scalingFactor The scaling factor for each coins.
+   * @param hueClassifier The classifier for the gold/copper decision.
    * @return Returns the calculated total sum of all coins in the image.
    */
-  public static double calcSumFromRegions(Map<Integer, List<Point>> regionLabels, float[][][] hsbImage, double scalingFactor) {
-    AtomicReference<Double> sum = new AtomicReference<>(0.0);
-    regionLabels.forEach((id, points) -> {
-      int area = points.size();
-      double scaledDiameter = MathUtils.scale(MathUtils.calculateDiameter(area), scalingFactor);
-      Optional<Coin> optionalCoin;
-      if (isGold(hsbImage, points)) {
-        optionalCoin = goldCoins.stream().min((c1, c2) -> Double.compare(Math.abs(scaledDiameter - c1.getDiameter()), Math.abs(scaledDiameter - c2.getDiameter())));
+  public static double calcSumFromRegions(Map<Integer, List<Point>> regionLabels, int[][][] rgbImage, double scalingFactor,
+      SampledHueClassifier hueClassifier) {
+    return classifyRegions(regionLabels, null, rgbImage, scalingFactor, hueClassifier).getSum();
+  }
+
+  /**
+   * Calculates all sums of the coins from the region labelling with the circle measurement of each region. Regions
+   * which are no circles are rejected before their colour is determined, the diameter of a coin is the fitted one.
+   * @param regionLabels The regions which are labelled.
+   * @param measurements The circle measurement of each region.
+   * @param rgbImage The original RGB image.
+   * @param scalingFactor The scaling factor for each coins.
+   * @return Returns the calculated total sum of all coins in the image.
+   */
+  public static double calcSumFromRegions(Map<Integer, List<Point>> regionLabels, Map<Integer, CircleMeasurement> measurements,
+      int[][][] rgbImage, double scalingFactor) {
+    return classifyRegions(regionLabels, measurements, rgbImage, scalingFactor).getSum();
+  }
+
+  /**
+   * Calculates all sums of the coins from the region labelling with the circle measurement of each region. The colour
+   * of each single metal coin is determined on a sample of its pixels.
+   * @param regionLabels The regions which are labelled.
+   * @param measurements The circle measurement of each region.
+   * @param rgbImage The original RGB image.
+   * @param scalingFactor The scaling factor for each coins.
+   * @param hueClassifier The classifier for the gold/copper decision.
+   * @return Returns the calculated total sum of all coins in the image.
+   */
+  public static double calcSumFromRegions(Map<Integer, List<Point>> regionLabels, Map<Integer, CircleMeasurement> measurements,
+      int[][][] rgbImage, double scalingFactor, SampledHueClassifier hueClassifier) {
+    return classifyRegions(regionLabels, measurements, rgbImage, scalingFactor, hueClassifier).getSum();
+  }
+
+  /**
+   * Classifies every coin of the region labelling. With circle measurements, regions which are no circles are
+   * rejected and the fitted diameter is used, otherwise the diameter is derived from the area of a region. Only the
+   * regions with the diameter of a bimetallic coin of the catalogue are candidates for the radial colour profile, the
+   * mean Hue values of all other coins are summed in one pass over a flat Hue plane of their pixels.
+   * @param regionLabels The regions which are labelled.
+   * @param measurements The circle measurement of each region, or null.
+   * @param rgbImage The original RGB image.
+   * @param scalingFactor The scaling factor for each coins.
+   * @return Returns the result of every coin and the total sum.
+   */
+  public static ClassificationResult classifyRegions(Map<Integer, List<Point>> regionLabels,
+      Map<Integer, CircleMeasurement> measurements, int[][][] rgbImage, double scalingFactor) {
+    return classifyRegions(regionLabels, measurements, rgbImage, scalingFactor, null);
+  }
+
+  /**
+   * Classifies every coin of the region labelling. With circle measurements, regions which are no circles are
+   * rejected and the fitted diameter is used, otherwise the diameter is derived from the area of a region. Only the
+   * regions with the diameter of a bimetallic coin of the catalogue are candidates for the radial colour profile, all
+   * other coins are decided by the Hue classifier on a sample of their pixels, which stops as soon as the decision is
+   * certain.
+   * @param regionLabels The regions which are labelled.
+   * @param measurements The circle measurement of each region, or null.
+   * @param rgbImage The original RGB image.
+   * @param scalingFactor The scaling factor for each coins.
+   * @param hueClassifier The classifier for the gold/copper decision, or null for the mean Hue of all pixels.
+   * @return Returns the result of every coin and the total sum.
+   */
+  public static ClassificationResult classifyRegions(Map<Integer, List<Point>> regionLabels,
+      Map<Integer, CircleMeasurement> measurements, int[][][] rgbImage, double scalingFactor,
+      SampledHueClassifier hueClassifier) {
+    int maxLabel = LabelHueStatistics.maxLabel(regionLabels);
+    double[] centersX = new double[maxLabel + 1];
+    double[] centersY = new double[maxLabel + 1];
+    double[] radii = new double[maxLabel + 1];
+    double[] scaledDiameters = new double[maxLabel + 1];
+    CurrencyCatalogue catalogue = CurrencyCatalogue.getCurrent();
+    Map<Integer, List<Point>> bimetallicCandidates = new TreeMap<>();
+    Map<Integer, List<Point>> singleMetalRegions = new TreeMap<>();
+    for (Map.Entry<Integer, List<Point>> region : regionLabels.entrySet()) {
+      int id = region.getKey();
+      List<Point> points = region.getValue();
+      if (measurements == null) {
+        long sumX = 0;
+        long sumY = 0;
+        for (Point point : points) {
+          sumX += point.getX();
+          sumY += point.getY();
+        }
+        centersX[id] = (double) sumX / points.size();
+        centersY[id] = (double) sumY / points.size();
+        radii[id] = MathUtils.calculateDiameter(points.size()) / 2.0;
       } else {
-        optionalCoin = copperCoins.stream().min((c1, c2) -> Double.compare(Math.abs(scaledDiameter - c1.getDiameter()), Math.abs(scaledDiameter - c2.getDiameter())));
+        CircleMeasurement measurement = measurements.get(id);
+        if (measurement == null || !measurement.isCircular()) {
+          continue;
+        }
+        centersX[id] = measurement.getCenterX();
+        centersY[id] = measurement.getCenterY();
+        radii[id] = measurement.getRadius();
       }
-      Coin coin = optionalCoin.orElse(new Coin(0.0, 0.0));
-      sum.updateAndGet(value -> value + coin.getValue());
-    });
-    return sum.get();
+      scaledDiameters[id] = MathUtils.scale(2.0 * radii[id], scalingFactor);
+      if (isBimetallicCandidate(catalogue, scaledDiameters[id])) {
+        bimetallicCandidates.put(id, points);
+      } else {
+        singleMetalRegions.put(id, points);
+      }
+    }
+    int width = rgbImage.length;
+    int height = rgbImage[0].length;
+    RadialProfile[] profiles = new RadialProfile[maxLabel + 1];
+    if (!bimetallicCandidates.isEmpty()) {
+      profiles = LabelHueStatistics.radialProfiles(LabelHueStatistics.labelPlane(bimetallicCandidates, width, height),
+          rgbImage, maxLabel, centersX, centersY, radii, RadialProfile.DEFAULT_ANNULI, true);
+    }
+    double[] meanHues = new double[maxLabel + 1];
+    if (hueClassifier == null && !singleMetalRegions.isEmpty()) {
+      meanHues = LabelHueStatistics.meanHues(LabelHueStatistics.labelPlane(singleMetalRegions, width, height),
+          LabelHueStatistics.huePlane(singleMetalRegions, rgbImage), maxLabel, true);
+    }
+
+    List<CoinResult> coins = new ArrayList<>(regionLabels.size());
+    for (int id : regionLabels.keySet()) {
+      CoinFamily family;
+      if (bimetallicCandidates.containsKey(id)) {
+        family = determineFamily(profiles[id]);
+      } else if (singleMetalRegions.containsKey(id)) {
+        boolean isGold = hueClassifier == null ? isGoldHue(meanHues[id])
+            : hueClassifier.isGold(rgbImage, singleMetalRegions.get(id));
+        family = isGold ? CoinFamily.GOLD : CoinFamily.COPPER;
+      } else {
+        continue;
+      }
+      Coin coin = family == null ? null : catalogue.classify(scaledDiameters[id], family);
+      double confidence = coin == null ? 0.0 : catalogue.confidence(scaledDiameters[id], family);
+      coins.add(new CoinResult(id, centersX[id], centersY[id], scaledDiameters[id], family,
+          coin == null ? NO_COIN : coin, confidence));
+    }
+    return new ClassificationResult(coins);
+  }
+
+  /**
+   * Checks if a coin has the diameter of a bimetallic coin of the catalogue, only then its radial profile is needed.
+   * @param catalogue The currency catalogue.
+   * @param scaledDiameter The diameter of the coin in mm.
+   * @return Returns true, if a bimetallic coin lies within the diameter tolerance.
+   */
+  private static boolean isBimetallicCandidate(CurrencyCatalogue catalogue, double scaledDiameter) {
+    Coin nearest = catalogue.classify(scaledDiameter, CoinFamily.BIMETALLIC);
+    return nearest != null
+        && Math.abs(scaledDiameter - nearest.getDiameter()) <= BIMETALLIC_DIAMETER_TOLERANCE * nearest.getDiameter();
+  }
+
+  /**
+   * Determines the colour family of a coin. A clear Saturation step in the radial profile marks a bimetallic coin,
+   * otherwise the mean Hue value decides between gold and copper.
+   * @param profile The radial colour profile of the coin, or null.
+   * @return Returns the colour family of the coin, null if the coin has no profile.
+   */
+  public static CoinFamily determineFamily(RadialProfile profile) {
+    if (profile == null) {
+      return null;
+    }
+    if (profile.isBimetallic(RadialProfile.DEFAULT_MIN_CONTRAST)) {
+      return CoinFamily.BIMETALLIC;
+    }
+    return isGoldHue(profile.getMeanHue()) ? CoinFamily.GOLD : CoinFamily.COPPER;
+  }
+
+  /**
+   * Finds the coin with the nearest diameter in the gold or copper coins of the current currency catalogue.
+   * @param scaledDiameter The diameter of the coin in mm.
+   * @param isGold True, if the coin is golden, otherwise false.
+   * @return Returns the matching coin or a coin without value, if no coin is available.
+   */
+  public static Coin classifyCoin(double scaledDiameter, boolean isGold) {
+    return classifyCoin(scaledDiameter, isGold ? CoinFamily.GOLD : CoinFamily.COPPER);
+  }
+
+  /**
+   * Finds the coin with the nearest diameter in a coin family of the current currency catalogue.
+   * @param scaledDiameter The diameter of the coin in mm.
+   * @param family The colour family of the coin.
+   * @return Returns the matching coin or a coin without value, if no coin is available.
+   */
+  public static Coin classifyCoin(double scaledDiameter, CoinFamily family) {
+    Coin coin = CurrencyCatalogue.getCurrent().classify(scaledDiameter, family);
+    return coin == null ? NO_COIN : coin;
   }
 
   /**
-   * Determines if a coin in the HSB image is a gold or a copper one.
-   * The algorithm calculates the whole pixel Hue value and calculates the average. Regarding to the Hue value,
-   * it can be determines if the coin is golden or copper.
-   * @param hsbImage The HSB image.
-   * @param points All pixels of the coin.
+   * Determines by the average Hue value of a coin if it is golden or copper.
+   * @param meanHue The average Hue value of all coin pixels.
    * @return Returns true, if the coin is golden, otherwhise false.
    */
-  private static boolean isGold(float[][][] hsbImage, List<Point> points) {
-    float count = points.size();
-    AtomicReference<Float> h = new AtomicReference<>(0.0f);
-    points.forEach(point -> h.updateAndGet(value -> (value + hsbImage[point.getX()][point.getY()][0])));
-    h.updateAndGet(value -> value / count);
-    return h.get() >= 0.12f;
+  public static boolean isGoldHue(double meanHue) {
+    return meanHue >= GOLD_HUE_THRESHOLD;
   }
 
 }
@@ -0,0 +1,469 @@
+import ij.ImageStack;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coin counting on the frames of a conveyor camera, where every coin is seen in many frames. The frames are segmented
+ * on their packed RGB pixels with the run-length stages of the coin pipeline (threshold kernel, reference marker
+ * subtraction, morphology, hole filling, run labelling), which never split a frame into channels. The reference
+ * marker of the rig is measured once by the {@link CalibrationSession} and only validated on the following frames.
+ * Touching coins are not separated, the coins on a conveyor are expected to be apart.
+ * Every coin is followed by a track. All coins move with the belt, so the displacement of the belt since the last frame
+ * is estimated as the displacement between a track and a centroid of the frame which most other pairs agree with; this
+ * also holds if the belt moves farther than a coin radius per frame. If no two pairs agree, e.g. with a lone coin, the
+ * displacement nearest to the previous one in the last known belt direction is taken. Displacements beyond the
+ * maximum belt displacement per frame are never taken. The centroids are then assigned to the positions
+ * predicted with the belt displacement, nearest pairs first, within the radius of the coin. A track is classified and
+ * counted once, in the first frame in which its coin is clear of the borders the belt moves across, and retired after
+ * it has not been seen for a few frames. Only the pixels of a newly counted coin are converted for the colour family,
+ * so the cost of a frame is dominated by the segmentation.
+ *
+ * @version 1.0
+ */
+public class ConveyorCounter {
+
+  public static final int DEFAULT_MAX_MISSED_FRAMES = 2;
+  public static final double DEFAULT_MAX_BELT_DISPLACEMENT_RATIO = 0.25;
+
+  /* Displacements of two pairs agree, if they differ by less than this part of the smaller coin radius. */
+  private static final double AGREEMENT_RATIO = 0.5;
+  private static final int[][] N4_OFFSETS = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+
+  private final int width;
+  private final int height;
+  private final CalibrationSession calibrationSession;
+  private final SampledHueClassifier hueClassifier = new SampledHueClassifier();
+  private final List<Track> tracks = new ArrayList<>();
+  private final List<CoinResult> countedCoins = new ArrayList<>();
+  private int normalizeCount = CoinUtils.NORMALIZE_COUNT;
+  private int minArea = CoinUtils.MIN_THRESHOLD;
+  private int maxMissedFrames = DEFAULT_MAX_MISSED_FRAMES;
+  private double maxBeltDisplacement;
+  private int trackSequence;
+  private double beltDisplacementX;
+  private double beltDisplacementY;
+
+  /**
+   * Creates a counter for frames of a fixed size.
+   * @param width The frame width.
+   * @param height The frame height.
+   * @param calibrationSession The calibration of the rig, its thresholds are used for the marker and the coins.
+   */
+  public ConveyorCounter(int width, int height, CalibrationSession calibrationSession) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException(String.format("Invalid frame size %dx%d", width, height));
+    }
+    this.width = width;
+    this.height = height;
+    this.calibrationSession = calibrationSession;
+    this.maxBeltDisplacement = DEFAULT_MAX_BELT_DISPLACEMENT_RATIO * Math.max(width, height);
+  }
+
+  public void setNormalizeCount(int normalizeCount) {
+    if (normalizeCount < 0) {
+      throw new IllegalArgumentException("Normalize count must not be negative: " + normalizeCount);
+    }
+    this.normalizeCount = normalizeCount;
+  }
+
+  /**
+   * @param minArea The minimum amount of pixels of a coin, smaller regions are ignored.
+   */
+  public void setMinArea(int minArea) {
+    if (minArea <= 0) {
+      throw new IllegalArgumentException("Minimum area must be positive: " + minArea);
+    }
+    this.minArea = minArea;
+  }
+
+  /**
+   * @param maxMissedFrames The amount of frames a track is kept without a matching coin.
+   */
+  public void setMaxMissedFrames(int maxMissedFrames) {
+    if (maxMissedFrames < 0) {
+      throw new IllegalArgumentException("Maximum missed frames must not be negative: " + maxMissedFrames);
+    }
+    this.maxMissedFrames = maxMissedFrames;
+  }
+
+  /**
+   * @param maxBeltDisplacement The largest distance in pixels the belt moves between two frames, by default a quarter
+   *     of the longer frame side.
+   */
+  public void setMaxBeltDisplacement(double maxBeltDisplacement) {
+    if (!(maxBeltDisplacement > 0.0)) {
+      throw new IllegalArgumentException("Maximum belt displacement must be positive: " + maxBeltDisplacement);
+    }
+    this.maxBeltDisplacement = maxBeltDisplacement;
+  }
+
+  /**
+   * Counts the coins of all slices of a stack, which are consecutive frames.
+   * @param stack The RGB frames.
+   * @param monitor The monitor of the counting, which is cancelled between two frames.
+   * @return Returns the counted coins of all frames so far.
+   */
+  public ClassificationResult process(ImageStack stack, TaskMonitor monitor) {
+    for (int slice = 1; slice <= stack.getSize(); ++slice) {
+      monitor.checkCancelled();
+      monitor.progress(slice - 1, stack.getSize());
+      process(stack.getProcessor(slice));
+    }
+    monitor.progress(1.0);
+    return getResult();
+  }
+
+  /**
+   * Processes the next frame.
+   * @param frame The RGB frame.
+   * @return Returns the coins which are counted in this frame.
+   */
+  public List<CoinResult> process(ImageProcessor frame) {
+    if (!(frame instanceof ColorProcessor)) {
+      throw new IllegalArgumentException("Frame is no RGB image: " + frame.getClass().getSimpleName());
+    }
+    if (frame.getWidth() != width || frame.getHeight() != height) {
+      throw new IllegalArgumentException(String.format("Frame size %dx%d differs from %dx%d", frame.getWidth(),
+          frame.getHeight(), width, height));
+    }
+    return process((int[]) frame.getPixels());
+  }
+
+  /**
+   * Processes the next frame, e.g. the buffer of a camera. The pixels are only read during the call, so the buffer can
+   * be filled with the next frame afterwards.
+   * @param pixels The packed RGB pixels of the frame, row by row.
+   * @return Returns the coins which are counted in this frame.
+   */
+  public List<CoinResult> process(int[] pixels) {
+    CalibrationSession.Calibration calibration = calibrationSession.calibrate(width, height, pixels, normalizeCount,
+        TaskMonitor.NONE);
+    ThresholdParameters thresholds = calibrationSession.getThresholds();
+    RunLengthMask coinMask = ThresholdKernel.threshold(pixels, width, height, thresholds.getCoinMinThreshold(),
+        thresholds.getCoinMaxThreshold(), thresholds.getCoinDelta(), true);
+    coinMask = CoinUtils.applyReferenceMask(coinMask, calibration.getReferenceMarkerMask());
+    coinMask = CoinUtils.normalizeCoins(coinMask, normalizeCount).fillHoles();
+    List<Detection> detections = new ArrayList<>();
+    for (Map.Entry<Integer, RunLengthMask> region : coinMask.labelRegions(minArea).entrySet()) {
+      detections.add(new Detection(region.getValue()));
+    }
+
+    List<Track> matchedTracks = match(detections);
+    double scalingFactor = calibration.getScalingFactor();
+    boolean calibrated = calibration.getMeasurement().getArea() > 0 && scalingFactor > 0.0 &&
+        !Double.isInfinite(scalingFactor);
+    List<CoinResult> counted = new ArrayList<>();
+    for (int i = 0; i < detections.size(); ++i) {
+      Detection detection = detections.get(i);
+      Track track = matchedTracks.get(i);
+      if (track == null) {
+        track = new Track(++trackSequence, detection);
+        tracks.add(track);
+      }
+      if (track.coin == null && calibrated && isComplete(detection)) {
+        track.coin = classify(track.id, detection, pixels, scalingFactor);
+        if (track.coin != null) {
+          countedCoins.add(track.coin);
+          counted.add(track.coin);
+        }
+      }
+    }
+    for (Iterator<Track> iterator = tracks.iterator(); iterator.hasNext(); ) {
+      if (iterator.next().missedFrames > maxMissedFrames) {
+        iterator.remove();
+      }
+    }
+    return counted;
+  }
+
+  /**
+   * @return Returns all counted coins, their centroids in the frame in which they were counted.
+   */
+  public ClassificationResult getResult() {
+    return new ClassificationResult(countedCoins);
+  }
+
+  /**
+   * @return Returns the amount of coins which are currently followed.
+   */
+  public int getTrackCount() {
+    return tracks.size();
+  }
+
+  /**
+   * Forgets all tracks and counted coins, e.g. for the next batch, the calibration is kept.
+   */
+  public void reset() {
+    tracks.clear();
+    countedCoins.clear();
+    beltDisplacementX = 0.0;
+    beltDisplacementY = 0.0;
+  }
+
+  /**
+   * Assigns the detections to the tracks, nearest pairs first. Every matched track is moved to its detection, the
+   * others are moved with the belt and miss a frame.
+   * @return Returns the matched track of every detection, null for new coins.
+   */
+  private List<Track> match(List<Detection> detections) {
+    estimateBeltMotion(detections);
+    List<double[]> pairs = new ArrayList<>();
+    for (int t = 0; t < tracks.size(); ++t) {
+      Track track = tracks.get(t);
+      double predictedX = track.x + beltDisplacementX;
+      double predictedY = track.y + beltDisplacementY;
+      for (int d = 0; d < detections.size(); ++d) {
+        Detection detection = detections.get(d);
+        double gate = Math.max(track.radius, detection.radius);
+        double distance = Math.hypot(detection.centerX - predictedX, detection.centerY - predictedY);
+        if (distance < gate) {
+          pairs.add(new double[] {distance, t, d});
+        }
+      }
+    }
+    pairs.sort((a, b) -> Double.compare(a[0], b[0]));
+    List<Track> matchedTracks = new ArrayList<>(Collections.nCopies(detections.size(), (Track) null));
+    boolean[] trackMatched = new boolean[tracks.size()];
+    for (double[] pair : pairs) {
+      int t = (int) pair[1];
+      int d = (int) pair[2];
+      if (trackMatched[t] || matchedTracks.get(d) != null) {
+        continue;
+      }
+      tracks.get(t).update(detections.get(d));
+      trackMatched[t] = true;
+      matchedTracks.set(d, tracks.get(t));
+    }
+    for (int t = 0; t < tracks.size(); ++t) {
+      if (!trackMatched[t]) {
+        tracks.get(t).miss(beltDisplacementX, beltDisplacementY);
+      }
+    }
+    return matchedTracks;
+  }
+
+  /**
+   * Estimates the belt displacement as the mean of the largest group of agreeing displacements between all tracks and
+   * detections. Without at least two agreeing pairs, e.g. with a single coin, the displacement nearest to the previous
+   * one is taken of the pairs which move in the last known belt direction (or in any direction, as long as the belt has
+   * not moved). Without such a pair the previous displacement is kept.
+   */
+  private void estimateBeltMotion(List<Detection> detections) {
+    int pairCount = tracks.size() * detections.size();
+    double[] displacementX = new double[pairCount];
+    double[] displacementY = new double[pairCount];
+    double[] tolerances = new double[pairCount];
+    int i = 0;
+    for (Track track : tracks) {
+      for (Detection detection : detections) {
+        double dx = detection.centerX - track.x;
+        double dy = detection.centerY - track.y;
+        if (Math.hypot(dx, dy) <= maxBeltDisplacement) {
+          displacementX[i] = dx;
+          displacementY[i] = dy;
+          tolerances[i] = AGREEMENT_RATIO * Math.min(track.radius, detection.radius);
+          ++i;
+        }
+      }
+    }
+    pairCount = i;
+    double previousX = beltDisplacementX;
+    double previousY = beltDisplacementY;
+    int bestSupport = 1;
+    double bestDeviation = Double.POSITIVE_INFINITY;
+    for (int candidate = 0; candidate < pairCount; ++candidate) {
+      int support = 0;
+      double sumX = 0.0;
+      double sumY = 0.0;
+      for (int other = 0; other < pairCount; ++other) {
+        if (Math.hypot(displacementX[other] - displacementX[candidate],
+            displacementY[other] - displacementY[candidate]) < tolerances[candidate]) {
+          ++support;
+          sumX += displacementX[other];
+          sumY += displacementY[other];
+        }
+      }
+      /* Of equally supported displacements the one nearest to the previous belt displacement wins. */
+      double deviation = Math.hypot(sumX / support - previousX, sumY / support - previousY);
+      if (support > bestSupport || (support == bestSupport && support > 1 && deviation < bestDeviation)) {
+        bestSupport = support;
+        bestDeviation = deviation;
+        beltDisplacementX = sumX / support;
+        beltDisplacementY = sumY / support;
+      }
+    }
+    if (bestSupport > 1) {
+      return;
+    }
+    boolean moved = previousX != 0.0 || previousY != 0.0;
+    for (int candidate = 0; candidate < pairCount; ++candidate) {
+      if (moved && displacementX[candidate] * previousX + displacementY[candidate] * previousY <= 0.0) {
+        continue;
+      }
+      double deviation = Math.hypot(displacementX[candidate] - previousX, displacementY[candidate] - previousY);
+      if (deviation < bestDeviation) {
+        bestDeviation = deviation;
+        beltDisplacementX = displacementX[candidate];
+        beltDisplacementY = displacementY[candidate];
+      }
+    }
+  }
+
+  /**
+   * @return Returns true, if the coin is clear of the frame borders which the belt moves across, so it is not cut by
+   *     the border it enters or leaves through. Coins at the other borders are fitted on their visible arc. As long as
+   *     the belt has not moved, all borders are checked.
+   */
+  private boolean isComplete(Detection detection) {
+    boolean clearX = detection.minX > 0 && detection.maxX < width - 1;
+    boolean clearY = detection.minY > 0 && detection.maxY < height - 1;
+    boolean alongX = Math.abs(beltDisplacementX) > Math.abs(beltDisplacementY);
+    boolean alongY = Math.abs(beltDisplacementY) > Math.abs(beltDisplacementX);
+    return (clearX || alongY) && (clearY || alongX);
+  }
+
+  /**
+   * Classifies a coin like the frame pipeline on its fitted circle, but on the RGB channels of its bounding box only.
+   * @return Returns the coin, or null if it is no circle in this frame, e.g. because it touches another one.
+   */
+  private CoinResult classify(int id, Detection detection, int[] pixels, double scalingFactor) {
+    int[][][] rgbImage = new int[detection.maxX - detection.minX + 1][detection.maxY - detection.minY + 1][];
+    for (int x = 0; x < rgbImage.length; ++x) {
+      for (int y = 0; y < rgbImage[x].length; ++y) {
+        int rgb = pixels[(detection.minY + y) * width + detection.minX + x];
+        rgbImage[x][y] = new int[] {(rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff};
+      }
+    }
+    List<Point> points = new ArrayList<>(detection.area);
+    for (Point point : detection.region.toPoints()) {
+      points.add(new Point(point.getX() - detection.minX, point.getY() - detection.minY));
+    }
+    ClassificationResult result = CoinUtils.classifyRegions(Collections.singletonMap(id, points),
+        Collections.singletonMap(id, measure(detection)), rgbImage, scalingFactor, hueClassifier);
+    return result.getCoins().isEmpty() ? null : result.getCoins().get(0).translate(detection.minX, detection.minY);
+  }
+
+  /**
+   * Fits a circle to the boundary of a coin like the tiled region labelling, in the coordinates of its bounding box.
+   * Edges at the frame border are left out, so a coin cut by the border is fitted on its visible arc and its
+   * roundness is measured against the part of the circle inside the frame.
+   */
+  private CircleMeasurement measure(Detection detection) {
+    int count = collectBoundary(detection, null, null);
+    double[] boundaryX = new double[count];
+    double[] boundaryY = new double[count];
+    collectBoundary(detection, boundaryX, boundaryY);
+    return CircleMeasurement.fit(detection.area, boundaryX, boundaryY, count,
+        CircleMeasurement.DEFAULT_REFINEMENT_ITERATIONS, -detection.minX - 0.5, -detection.minY - 0.5,
+        width - detection.minX - 0.5, height - detection.minY - 0.5);
+  }
+
+  /**
+   * Visits the edges between the coin pixels and their N4 neighbours outside the coin.
+   * @param detection The coin.
+   * @param boundaryX Receives the x positions of the edges relative to the bounding box, or null to count only.
+   * @param boundaryY Receives the y positions of the edges relative to the bounding box, or null to count only.
+   * @return Returns the amount of edges.
+   */
+  private static int collectBoundary(Detection detection, double[] boundaryX, double[] boundaryY) {
+    RunLengthMask region = detection.region;
+    int count = 0;
+    for (int y = detection.minY; y <= detection.maxY; ++y) {
+      for (int run = 0; run < region.getRunCount(y); ++run) {
+        for (int x = region.getRunStart(y, run); x < region.getRunEnd(y, run); ++x) {
+          for (int[] offset : N4_OFFSETS) {
+            int neighbourX = x + offset[0];
+            int neighbourY = y + offset[1];
+            if (neighbourX < 0 || neighbourY < 0 || neighbourX >= region.getWidth() ||
+                neighbourY >= region.getHeight() || region.contains(neighbourX, neighbourY)) {
+              continue;
+            }
+            if (boundaryX != null) {
+              boundaryX[count] = x - detection.minX + offset[0] * 0.5;
+              boundaryY[count] = y - detection.minY + offset[1] * 0.5;
+            }
+            ++count;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * A coin region of the current frame.
+   */
+  private static final class Detection {
+
+    private final RunLengthMask region;
+    private final int area;
+    private final double centerX;
+    private final double centerY;
+    private final double radius;
+    private int minX = Integer.MAX_VALUE;
+    private int minY = Integer.MAX_VALUE;
+    private int maxX = -1;
+    private int maxY = -1;
+
+    Detection(RunLengthMask region) {
+      this.region = region;
+      long sumX = 0;
+      long sumY = 0;
+      int pixelCount = 0;
+      for (int y = 0; y < region.getHeight(); ++y) {
+        for (int run = 0; run < region.getRunCount(y); ++run) {
+          int start = region.getRunStart(y, run);
+          int end = region.getRunEnd(y, run);
+          int length = end - start;
+          pixelCount += length;
+          sumX += (long) (start + end - 1) * length / 2;
+          sumY += (long) y * length;
+          minX = Math.min(minX, start);
+          maxX = Math.max(maxX, end - 1);
+          minY = Math.min(minY, y);
+          maxY = y;
+        }
+      }
+      this.area = pixelCount;
+      this.centerX = (double) sumX / pixelCount;
+      this.centerY = (double) sumY / pixelCount;
+      this.radius = MathUtils.calculateDiameter(pixelCount) / 2.0;
+    }
+  }
+
+  /**
+   * A coin which is followed through the frames.
+   */
+  private static final class Track {
+
+    private final int id;
+    private double x;
+    private double y;
+    private double radius;
+    private int missedFrames;
+    private CoinResult coin;
+
+    Track(int id, Detection detection) {
+      this.id = id;
+      update(detection);
+    }
+
+    void update(Detection detection) {
+      x = detection.centerX;
+      y = detection.centerY;
+      radius = detection.radius;
+      missedFrames = 0;
+    }
+
+    void miss(double displacementX, double displacementY) {
+      x += displacementX;
+      y += displacementY;
+      ++missedFrames;
+    }
+  }
+}
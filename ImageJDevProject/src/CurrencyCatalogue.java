@@ -0,0 +1,225 @@
+import ij.IJ;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable catalogue of all coins which take part in the classification, compiled into one diameter index per coin
+ * family. The catalogue is read from a compact text file with one coin per line:
+ * <pre>
+ * # currency value diameter[mm] thickness[mm] family
+ * EUR 0.01 16.25 1.67 copper
+ * </pre>
+ * The current catalogue is loaded from the file given by the system property {@value #FILE_PROPERTY}, otherwise from
+ * the class path resource {@value #DEFAULT_RESOURCE}, and falls back to the built-in euro coins. It can be replaced at
+ * any time without restarting the JVM, running classifications keep the catalogue they started with.
+ *
+ * @version 1.0
+ */
+public final class CurrencyCatalogue {
+
+  public static final String DEFAULT_CURRENCY = "EUR";
+  public static final String FILE_PROPERTY = "coins.catalogue";
+
+  private static final String DEFAULT_RESOURCE = "/currencies.cfg";
+  private static final String COMMENT = "#";
+  private static final int FIELD_COUNT = 5;
+
+  private static volatile CurrencyCatalogue current;
+  private static long currentLastModified;
+
+  private final List<Coin> coins;
+  private final Map<CoinFamily, DiameterIndex> indices;
+
+  /**
+   * Compiles a catalogue.
+   * @param coins All coins of the catalogue.
+   */
+  public CurrencyCatalogue(List<Coin> coins) {
+    this.coins = Collections.unmodifiableList(new ArrayList<>(coins));
+    Map<CoinFamily, List<Coin>> families = new EnumMap<>(CoinFamily.class);
+    for (CoinFamily family : CoinFamily.values()) {
+      families.put(family, new ArrayList<>());
+    }
+    for (Coin coin : coins) {
+      families.get(coin.getFamily()).add(coin);
+    }
+    Map<CoinFamily, DiameterIndex> familyIndices = new EnumMap<>(CoinFamily.class);
+    families.forEach((family, familyCoins) -> familyIndices.put(family, new DiameterIndex(familyCoins)));
+    this.indices = Collections.unmodifiableMap(familyIndices);
+  }
+
+  /**
+   * @return Returns the catalogue which is currently used for the classification.
+   */
+  public static CurrencyCatalogue getCurrent() {
+    CurrencyCatalogue catalogue = current;
+    if (catalogue == null) {
+      synchronized (CurrencyCatalogue.class) {
+        if (current == null) {
+          current = loadInitial();
+        }
+        catalogue = current;
+      }
+    }
+    return catalogue;
+  }
+
+  /**
+   * Replaces the catalogue which is used for the classification.
+   * @param catalogue The new catalogue.
+   */
+  public static synchronized void setCurrent(CurrencyCatalogue catalogue) {
+    current = catalogue;
+  }
+
+  /**
+   * Reloads the catalogue file given by the system property {@value #FILE_PROPERTY}, if it has been modified since it
+   * was loaded. The old catalogue stays in use if the file cannot be read.
+   * @return Returns true, if a new catalogue has been loaded.
+   * @throws IOException If the catalogue file cannot be read or parsed.
+   */
+  public static synchronized boolean reloadIfModified() throws IOException {
+    Path file = getCatalogueFile();
+    if (file == null || !Files.isRegularFile(file)) {
+      return false;
+    }
+    long lastModified = Files.getLastModifiedTime(file).toMillis();
+    if (current != null && lastModified == currentLastModified) {
+      return false;
+    }
+    current = load(file);
+    currentLastModified = lastModified;
+    return true;
+  }
+
+  /**
+   * Loads a catalogue from a file.
+   * @param file The catalogue file.
+   * @return Returns the loaded catalogue.
+   * @throws IOException If the file cannot be read or parsed.
+   */
+  public static CurrencyCatalogue load(Path file) throws IOException {
+    try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      return parse(reader);
+    }
+  }
+
+  /**
+   * Parses a catalogue.
+   * @param reader The reader of the catalogue text.
+   * @return Returns the parsed catalogue.
+   * @throws IOException If the text cannot be read or a line is malformed.
+   */
+  public static CurrencyCatalogue parse(Reader reader) throws IOException {
+    List<Coin> coins = new ArrayList<>();
+    BufferedReader lines = new BufferedReader(reader);
+    int lineNumber = 0;
+    String line;
+    while ((line = lines.readLine()) != null) {
+      ++lineNumber;
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith(COMMENT)) {
+        continue;
+      }
+      String[] fields = line.split("\\s+");
+      if (fields.length != FIELD_COUNT) {
+        throw new IOException(String.format("Line %d: expected %d fields but found %d", lineNumber, FIELD_COUNT, fields.length));
+      }
+      try {
+        coins.add(new Coin(fields[0], Double.parseDouble(fields[1]), Double.parseDouble(fields[2]),
+            Double.parseDouble(fields[3]), CoinFamily.valueOf(fields[4].toUpperCase(Locale.ROOT))));
+      } catch (IllegalArgumentException e) {
+        throw new IOException(String.format("Line %d: %s", lineNumber, e.getMessage()), e);
+      }
+    }
+    return new CurrencyCatalogue(coins);
+  }
+
+  /**
+   * @return Returns the built-in catalogue of the euro coins.
+   */
+  public static CurrencyCatalogue euro() {
+    List<Coin> coins = new ArrayList<>();
+    coins.add(new Coin(DEFAULT_CURRENCY, 0.01, 16.25, 1.67, CoinFamily.COPPER));
+    coins.add(new Coin(DEFAULT_CURRENCY, 0.02, 18.75, 1.67, CoinFamily.COPPER));
+    coins.add(new Coin(DEFAULT_CURRENCY, 0.05, 21.25, 1.67, CoinFamily.COPPER));
+    coins.add(new Coin(DEFAULT_CURRENCY, 0.10, 19.75, 1.93, CoinFamily.GOLD));
+    coins.add(new Coin(DEFAULT_CURRENCY, 0.20, 22.25, 2.14, CoinFamily.GOLD));
+    coins.add(new Coin(DEFAULT_CURRENCY, 0.50, 24.25, 2.38, CoinFamily.GOLD));
+    coins.add(new Coin(DEFAULT_CURRENCY, 1.00, 23.25, 2.33, CoinFamily.BIMETALLIC));
+    coins.add(new Coin(DEFAULT_CURRENCY, 2.00, 25.75, 2.20, CoinFamily.BIMETALLIC));
+    return new CurrencyCatalogue(coins);
+  }
+
+  /**
+   * Finds the coin with the nearest diameter in a coin family.
+   * @param diameter The diameter in mm.
+   * @param family The coin family.
+   * @return Returns the nearest coin or null, if the family has no coins.
+   */
+  public Coin classify(double diameter, CoinFamily family) {
+    return indices.get(family).nearest(diameter);
+  }
+
+  /**
+   * Rates how clearly a diameter matches its nearest coin in a coin family.
+   * @param diameter The diameter in mm.
+   * @param family The coin family.
+   * @return Returns the confidence in [0, 1].
+   * @see DiameterIndex#confidence(double)
+   */
+  public double confidence(double diameter, CoinFamily family) {
+    return indices.get(family).confidence(diameter);
+  }
+
+  /**
+   * @param family The coin family.
+   * @return Returns the diameter index of the coin family.
+   */
+  public DiameterIndex getIndex(CoinFamily family) {
+    return indices.get(family);
+  }
+
+  /**
+   * @return Returns all coins of the catalogue.
+   */
+  public List<Coin> getCoins() {
+    return coins;
+  }
+
+  private static CurrencyCatalogue loadInitial() {
+    try {
+      Path file = getCatalogueFile();
+      if (file != null && Files.isRegularFile(file)) {
+        currentLastModified = Files.getLastModifiedTime(file).toMillis();
+        return load(file);
+      }
+      try (InputStream resource = CurrencyCatalogue.class.getResourceAsStream(DEFAULT_RESOURCE)) {
+        if (resource != null) {
+          return parse(new InputStreamReader(resource, StandardCharsets.UTF_8));
+        }
+      }
+    } catch (IOException e) {
+      IJ.log("Currency catalogue could not be loaded, using the euro coins: " + e.getMessage());
+    }
+    return euro();
+  }
+
+  private static Path getCatalogueFile() {
+    String fileName = System.getProperty(FILE_PROPERTY);
+    return fileName == null ? null : Paths.get(fileName);
+  }
+}
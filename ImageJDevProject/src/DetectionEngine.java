@@ -0,0 +1,11 @@
+/**
+ * The engine which detects the coins in an image.
+ *
+ * @version 1.0
+ */
+public enum DetectionEngine {
+  /** Colour thresholding, morphology and region labelling. */
+  THRESHOLD,
+  /** Gradient Hough transform for circles, robust against uneven lighting. */
+  HOUGH
+}
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Sorted index of coin diameters for the nearest diameter lookup. The decision boundaries between two neighbouring
+ * coins are the midpoints of their diameters, so a lookup is a binary search on a primitive array in O(log n) without
+ * any allocation. An index is immutable and can be shared between threads.
+ *
+ * @version 1.0
+ */
+public class DiameterIndex {
+
+  private final Coin[] coins;
+  private final double[] diameters;
+  private final double[] boundaries;
+
+  /**
+   * Creates the index for a coin family.
+   * @param coins All coins of the family.
+   */
+  public DiameterIndex(Collection<Coin> coins) {
+    this.coins = coins.toArray(new Coin[0]);
+    Arrays.sort(this.coins, Comparator.comparingDouble(Coin::getDiameter));
+    this.diameters = new double[this.coins.length];
+    for (int i = 0; i < this.coins.length; ++i) {
+      diameters[i] = this.coins[i].getDiameter();
+    }
+    this.boundaries = new double[Math.max(0, diameters.length - 1)];
+    for (int i = 0; i < boundaries.length; ++i) {
+      boundaries[i] = (diameters[i] + diameters[i + 1]) / 2.0;
+    }
+  }
+
+  /**
+   * Finds the position of the coin with the nearest diameter.
+   * @param diameter The diameter in mm.
+   * @return Returns the position of the nearest coin in the sorted index or -1, if the index is empty.
+   */
+  public int indexOf(double diameter) {
+    if (diameters.length == 0) {
+      return -1;
+    }
+    int position = Arrays.binarySearch(boundaries, diameter);
+    return position < 0 ? -position - 1 : position;
+  }
+
+  /**
+   * Finds the coin with the nearest diameter.
+   * @param diameter The diameter in mm.
+   * @return Returns the nearest coin or null, if the index is empty.
+   */
+  public Coin nearest(double diameter) {
+    int position = indexOf(diameter);
+    return position < 0 ? null : coins[position];
+  }
+
+  /**
+   * Rates how clearly a diameter matches its nearest coin by its distance to the decision boundary. The confidence is
+   * 1 at the diameter of the coin and falls linearly to 0 at the boundary to the neighbouring coin; beyond the
+   * smallest and the largest coin, the distance to the only neighbour is used on both sides. Coins of the same
+   * diameter cannot be told apart, their confidence is 0.
+   * @param diameter The diameter in mm.
+   * @return Returns the confidence in [0, 1], 0 if the index is empty and 1 if it holds a single coin.
+   */
+  public double confidence(double diameter) {
+    int position = indexOf(diameter);
+    if (position < 0) {
+      return 0.0;
+    }
+    if (boundaries.length == 0) {
+      return 1.0;
+    }
+    if ((position > 0 && boundaries[position - 1] == diameters[position]) ||
+        (position < boundaries.length && boundaries[position] == diameters[position])) {
+      return 0.0;
+    }
+    double offset = diameter - diameters[position];
+    int boundary = offset < 0.0 ? position - 1 : position;
+    if (boundary < 0) {
+      boundary = 0;
+    } else if (boundary >= boundaries.length) {
+      boundary = boundaries.length - 1;
+    }
+    double halfGap = Math.abs(boundaries[boundary] - diameters[position]);
+    return Math.max(0.0, 1.0 - Math.abs(offset) / halfGap);
+  }
+
+  /**
+   * @param position The position in the sorted index.
+   * @return Returns the coin at the position.
+   */
+  public Coin getCoin(int position) {
+    return coins[position];
+  }
+
+  /**
+   * @return Returns the amount of coins in the index.
+   */
+  public int size() {
+    return coins.length;
+  }
+}
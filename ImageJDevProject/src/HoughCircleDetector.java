@@ -0,0 +1,495 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Circle detection with the gradient Hough transform, an alternative to the colour thresholding for images with
+ * uneven lighting. Edge pixels are found with the Sobel operator on the grey values; the gradient is compared relative
+ * to the local brightness, so the edge threshold does not depend on the lighting. Every edge pixel votes along its
+ * gradient direction (both ways, coins can be brighter or darker than the background) for all centers within the
+ * radius range. The votes are collected in parallel, every worker into a partial accumulator of its own, which are
+ * summed at the end. Maxima of the accumulator are verified by a radius histogram of the edge pixels around them;
+ * the edge pixels are bucketed in a coarse grid, so a candidate visits only the cells within its radius range.
+ *
+ * @version 1.0
+ */
+public class HoughCircleDetector {
+
+  public static final double DEFAULT_EDGE_THRESHOLD = 0.6;
+  public static final double DEFAULT_RADIUS_MARGIN = 0.1;
+  public static final double DEFAULT_MIN_SUPPORT = 0.3;
+
+  private static final int BIN_SIZE = 2;
+  private static final double MIN_ALIGNMENT = 0.9;
+  private static final double MIN_BRIGHTNESS = 16.0;
+  private static final int REFINEMENT_ITERATIONS = 3;
+  private static final double REFINEMENT_BAND = 3.0;
+  private static final double OUTLINE_RATIO = 0.5;
+  private static final int CELL_SIZE = 32;
+
+  private final int minRadius;
+  private final int maxRadius;
+  private final double edgeThreshold;
+  private final double minSupport;
+
+  /**
+   * Creates a detector with the default edge threshold and support.
+   * @param minRadius The smallest radius in pixels.
+   * @param maxRadius The largest radius in pixels.
+   */
+  public HoughCircleDetector(int minRadius, int maxRadius) {
+    this(minRadius, maxRadius, DEFAULT_EDGE_THRESHOLD, DEFAULT_MIN_SUPPORT);
+  }
+
+  /**
+   * Creates a detector.
+   * @param minRadius The smallest radius in pixels.
+   * @param maxRadius The largest radius in pixels.
+   * @param edgeThreshold The minimum Sobel gradient magnitude of an edge pixel relative to its grey value.
+   * @param minSupport The minimum part of the circumference which has to be covered by edge pixels.
+   */
+  public HoughCircleDetector(int minRadius, int maxRadius, double edgeThreshold, double minSupport) {
+    if (minRadius <= 0 || maxRadius < minRadius) {
+      throw new IllegalArgumentException(String.format("Invalid radius range: [%d, %d]", minRadius, maxRadius));
+    }
+    this.minRadius = minRadius;
+    this.maxRadius = maxRadius;
+    this.edgeThreshold = edgeThreshold;
+    this.minSupport = minSupport;
+  }
+
+  /**
+   * Creates a detector for all coins of a currency catalogue. The radius range spans the smallest to the largest coin
+   * diameter, widened by {@link #DEFAULT_RADIUS_MARGIN}.
+   * @param catalogue The currency catalogue.
+   * @param scalingFactor The scaling factor from pixels to mm.
+   * @return Returns the detector.
+   */
+  public static HoughCircleDetector forCatalogue(CurrencyCatalogue catalogue, double scalingFactor) {
+    double minDiameter = Double.POSITIVE_INFINITY;
+    double maxDiameter = 0.0;
+    for (Coin coin : catalogue.getCoins()) {
+      minDiameter = Math.min(minDiameter, coin.getDiameter());
+      maxDiameter = Math.max(maxDiameter, coin.getDiameter());
+    }
+    if (maxDiameter == 0.0) {
+      throw new IllegalArgumentException("The currency catalogue has no coins");
+    }
+    int minRadius = (int) Math.floor(minDiameter / scalingFactor / 2.0 * (1.0 - DEFAULT_RADIUS_MARGIN));
+    int maxRadius = (int) Math.ceil(maxDiameter / scalingFactor / 2.0 * (1.0 + DEFAULT_RADIUS_MARGIN));
+    return new HoughCircleDetector(Math.max(1, minRadius), Math.max(1, maxRadius));
+  }
+
+  /**
+   * Detects all circles in the image. Overlapping detections are suppressed, the circle with more votes wins.
+   * @param rgbImage The RGB image.
+   * @param width The image width.
+   * @param height The image height.
+   * @return Returns the detected circles, ordered by decreasing votes.
+   */
+  public List<Circle> detect(int[][][] rgbImage, int width, int height) {
+    return detect(rgbImage, width, height, TaskMonitor.NONE);
+  }
+
+  /**
+   * Detects all circles in the image and checks for cancellation once per column or chunk of edges.
+   * @param rgbImage The RGB image.
+   * @param width The image width.
+   * @param height The image height.
+   * @param monitor The monitor of the detection.
+   * @return Returns the detected circles, ordered by decreasing votes.
+   */
+  public List<Circle> detect(int[][][] rgbImage, int width, int height, TaskMonitor monitor) {
+    Edges edges = findEdges(rgbImage, width, height, monitor);
+    EdgeGrid grid = new EdgeGrid(edges, width, height);
+    monitor.progress(0.2);
+    int binsX = (width + BIN_SIZE - 1) / BIN_SIZE;
+    int binsY = (height + BIN_SIZE - 1) / BIN_SIZE;
+    int[] accumulator = accumulate(edges, binsX, binsY, monitor);
+    monitor.progress(0.8);
+
+    /* Candidates are the maxima within the smallest radius, strongest first. */
+    int window = Math.max(1, minRadius / BIN_SIZE);
+    int minVotes = (int) (minSupport * 2.0 * Math.PI * minRadius / BIN_SIZE);
+    List<int[]> candidates = new ArrayList<>();
+    for (int binX = 0; binX < binsX; ++binX) {
+      for (int binY = 0; binY < binsY; ++binY) {
+        int votes = accumulator[binX * binsY + binY];
+        if (votes >= minVotes && isMaximum(accumulator, binsX, binsY, binX, binY, window)) {
+          candidates.add(new int[] {binX, binY, votes});
+        }
+      }
+    }
+    candidates.sort((first, second) -> Integer.compare(second[2], first[2]));
+
+    List<Circle> circles = new ArrayList<>();
+    int[] nearEdges = new int[edges.count];
+    TaskMonitor fitMonitor = monitor.subTask(0.8, 1.0);
+    for (int i = 0; i < candidates.size(); ++i) {
+      fitMonitor.progress(i, candidates.size());
+      int[] candidate = candidates.get(i);
+      double centerX = candidate[0] * BIN_SIZE + (BIN_SIZE - 1) / 2.0;
+      double centerY = candidate[1] * BIN_SIZE + (BIN_SIZE - 1) / 2.0;
+      boolean overlaps = false;
+      for (Circle circle : circles) {
+        if (Math.hypot(circle.getCenterX() - centerX, circle.getCenterY() - centerY) < circle.getRadius()) {
+          overlaps = true;
+          break;
+        }
+      }
+      if (!overlaps) {
+        Circle circle = fitRadius(edges, grid, nearEdges, centerX, centerY, candidate[2]);
+        if (circle != null) {
+          circles.add(circle);
+        }
+      }
+    }
+    return circles;
+  }
+
+  /**
+   * Finds the edge pixels with the Sobel operator on the mean of the three channels.
+   */
+  private Edges findEdges(int[][][] rgbImage, int width, int height, TaskMonitor monitor) {
+    float[][] grey = new float[width][height];
+    IntStream.range(0, width).parallel().forEach(x -> {
+      monitor.checkCancelled();
+      for (int y = 0; y < height; ++y) {
+        int[] pixel = rgbImage[x][y];
+        grey[x][y] = (pixel[0] + pixel[1] + pixel[2]) / 3.0f;
+      }
+    });
+    double squaredThreshold = edgeThreshold * edgeThreshold;
+    List<Edges> columns = new ArrayList<>(width);
+    IntStream.range(0, width).parallel().mapToObj(x -> {
+      monitor.checkCancelled();
+      Edges column = new Edges();
+      if (x == 0 || x == width - 1) {
+        return column;
+      }
+      for (int y = 1; y < height - 1; ++y) {
+        float gx = (grey[x + 1][y - 1] + 2 * grey[x + 1][y] + grey[x + 1][y + 1]) -
+            (grey[x - 1][y - 1] + 2 * grey[x - 1][y] + grey[x - 1][y + 1]);
+        float gy = (grey[x - 1][y + 1] + 2 * grey[x][y + 1] + grey[x + 1][y + 1]) -
+            (grey[x - 1][y - 1] + 2 * grey[x][y - 1] + grey[x + 1][y - 1]);
+        double squaredMagnitude = (double) gx * gx + (double) gy * gy;
+        //relative to the local brightness, so the threshold does not depend on the lighting
+        double brightness = Math.max(MIN_BRIGHTNESS, grey[x][y]);
+        if (squaredMagnitude >= squaredThreshold * brightness * brightness) {
+          double magnitude = Math.sqrt(squaredMagnitude);
+          column.add(x, y, (float) (gx / magnitude), (float) (gy / magnitude));
+        }
+      }
+      return column;
+    }).forEachOrdered(columns::add);
+    Edges edges = new Edges();
+    columns.forEach(edges::addAll);
+    return edges;
+  }
+
+  /**
+   * Collects the votes of all edge pixels. The edges are split into one chunk per processor, every chunk votes into
+   * a partial accumulator of its own, so no synchronisation is needed.
+   */
+  private int[] accumulate(Edges edges, int binsX, int binsY, TaskMonitor monitor) {
+    int chunkCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), edges.count / 1024 + 1));
+    int chunkSize = (edges.count + chunkCount - 1) / chunkCount;
+    int[][] partials = new int[chunkCount][];
+    IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+      int[] partial = new int[binsX * binsY];
+      int end = Math.min(edges.count, (chunk + 1) * chunkSize);
+      for (int edge = chunk * chunkSize; edge < end; ++edge) {
+        if (edge % 1024 == 0) {
+          monitor.checkCancelled();
+        }
+        float x = edges.xs[edge];
+        float y = edges.ys[edge];
+        float directionX = edges.directionsX[edge];
+        float directionY = edges.directionsY[edge];
+        for (int sign = -1; sign <= 1; sign += 2) {
+          int previousBin = -1;
+          for (int radius = minRadius; radius <= maxRadius; ++radius) {
+            int binX = (int) (x + sign * radius * directionX) / BIN_SIZE;
+            int binY = (int) (y + sign * radius * directionY) / BIN_SIZE;
+            if (binX < 0 || binY < 0 || binX >= binsX || binY >= binsY) {
+              break;
+            }
+            int bin = binX * binsY + binY;
+            //one vote per bin and direction, the steps along the gradient are smaller than a bin
+            if (bin != previousBin) {
+              ++partial[bin];
+              previousBin = bin;
+            }
+          }
+        }
+      }
+      partials[chunk] = partial;
+    });
+    int[] accumulator = partials[0];
+    IntStream.range(0, accumulator.length).parallel().forEach(bin -> {
+      for (int chunk = 1; chunk < partials.length; ++chunk) {
+        accumulator[bin] += partials[chunk][bin];
+      }
+    });
+    return accumulator;
+  }
+
+  private static boolean isMaximum(int[] accumulator, int binsX, int binsY, int binX, int binY, int window) {
+    int votes = accumulator[binX * binsY + binY];
+    for (int x = Math.max(0, binX - window); x <= Math.min(binsX - 1, binX + window); ++x) {
+      for (int y = Math.max(0, binY - window); y <= Math.min(binsY - 1, binY + window); ++y) {
+        int other = accumulator[x * binsY + y];
+        //ties are broken by the position, so a plateau yields a single maximum
+        if (other > votes || (other == votes && (x < binX || (x == binX && y < binY)))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Finds the radius of a candidate center with a histogram of the distances of the edge pixels whose gradient points
+   * towards the center or away from it. The coarse circle is then refined with a geometric fit on the edge pixels close
+   * to it, which removes the quantisation of the accumulator. Only the edge pixels in the grid cells which overlap the
+   * radius range, or the refinement band, are visited.
+   * @return Returns the circle or null, if no radius has enough support.
+   */
+  private Circle fitRadius(Edges edges, EdgeGrid grid, int[] nearEdges, double centerX, double centerY, int votes) {
+    int[] histogram = new int[maxRadius + 2];
+    int nearCount = grid.collect(centerX, centerY, minRadius - 1, maxRadius + 1, nearEdges);
+    for (int i = 0; i < nearCount; ++i) {
+      int edge = nearEdges[i];
+      double distance = alignedDistance(edges, edge, centerX, centerY, maxRadius + 1);
+      int radius = (int) Math.round(distance);
+      if (radius >= minRadius && radius <= maxRadius) {
+        ++histogram[radius];
+      }
+    }
+    int bestRadius = -1;
+    int bestCount = 0;
+    for (int radius = minRadius; radius <= maxRadius; ++radius) {
+      //the boundary is blurred over a few pixels
+      int count = histogram[radius - 1] + histogram[radius] + histogram[radius + 1];
+      if (count > bestCount) {
+        bestCount = count;
+        bestRadius = radius;
+      }
+    }
+    if (bestRadius < 0 || bestCount < minSupport * 2.0 * Math.PI * bestRadius) {
+      return null;
+    }
+    //the relief and the rim of a coin give edges inside of it, the outline is the outermost strong radius
+    for (int radius = maxRadius; radius > bestRadius; --radius) {
+      int count = histogram[radius - 1] + histogram[radius] + (radius < maxRadius ? histogram[radius + 1] : 0);
+      if (count >= OUTLINE_RATIO * bestCount) {
+        bestRadius = radius;
+        break;
+      }
+    }
+
+    double radius = bestRadius;
+    for (int iteration = 0; iteration < REFINEMENT_ITERATIONS; ++iteration) {
+      int count = 0;
+      nearCount = grid.collect(centerX, centerY, radius - REFINEMENT_BAND, radius + REFINEMENT_BAND, nearEdges);
+      double[] boundaryX = new double[nearCount];
+      double[] boundaryY = new double[nearCount];
+      for (int i = 0; i < nearCount; ++i) {
+        int edge = nearEdges[i];
+        double distance = alignedDistance(edges, edge, centerX, centerY, radius + REFINEMENT_BAND);
+        if (Math.abs(distance - radius) <= REFINEMENT_BAND) {
+          boundaryX[count] = edges.xs[edge];
+          boundaryY[count] = edges.ys[edge];
+          ++count;
+        }
+      }
+      CircleMeasurement measurement = CircleMeasurement.fit(0, boundaryX, boundaryY, count,
+          CircleMeasurement.DEFAULT_REFINEMENT_ITERATIONS);
+      if (Double.isNaN(measurement.getRadius()) || measurement.getRadius() < minRadius ||
+          measurement.getRadius() > maxRadius) {
+        break;
+      }
+      centerX = measurement.getCenterX();
+      centerY = measurement.getCenterY();
+      radius = measurement.getRadius();
+    }
+    return new Circle(centerX, centerY, radius, votes);
+  }
+
+  /**
+   * @return Returns the distance of an edge pixel to the center, if it is nearer than the limit and its gradient
+   *     points towards the center or away from it, otherwise infinity.
+   */
+  private static double alignedDistance(Edges edges, int edge, double centerX, double centerY, double limit) {
+    double dx = edges.xs[edge] - centerX;
+    double dy = edges.ys[edge] - centerY;
+    if (Math.abs(dx) > limit || Math.abs(dy) > limit) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double distance = Math.sqrt(dx * dx + dy * dy);
+    double alignment = (dx * edges.directionsX[edge] + dy * edges.directionsY[edge]) / distance;
+    return Math.abs(alignment) >= MIN_ALIGNMENT ? distance : Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Edge pixels with their normalised gradient directions.
+   */
+  private static final class Edges {
+
+    private int count;
+    private float[] xs = new float[64];
+    private float[] ys = new float[64];
+    private float[] directionsX = new float[64];
+    private float[] directionsY = new float[64];
+
+    void add(float x, float y, float directionX, float directionY) {
+      if (count == xs.length) {
+        grow(count * 2);
+      }
+      xs[count] = x;
+      ys[count] = y;
+      directionsX[count] = directionX;
+      directionsY[count] = directionY;
+      ++count;
+    }
+
+    void addAll(Edges other) {
+      if (count + other.count > xs.length) {
+        grow(Math.max(count + other.count, xs.length * 2));
+      }
+      System.arraycopy(other.xs, 0, xs, count, other.count);
+      System.arraycopy(other.ys, 0, ys, count, other.count);
+      System.arraycopy(other.directionsX, 0, directionsX, count, other.count);
+      System.arraycopy(other.directionsY, 0, directionsY, count, other.count);
+      count += other.count;
+    }
+
+    private void grow(int capacity) {
+      xs = Arrays.copyOf(xs, capacity);
+      ys = Arrays.copyOf(ys, capacity);
+      directionsX = Arrays.copyOf(directionsX, capacity);
+      directionsY = Arrays.copyOf(directionsY, capacity);
+    }
+  }
+
+  /**
+   * Buckets of the edge pixels in square cells, stored as one index array sorted by cell.
+   */
+  private static final class EdgeGrid {
+
+    private final int cellsX;
+    private final int cellsY;
+    private final int[] cellStarts;
+    private final int[] cellEdges;
+
+    EdgeGrid(Edges edges, int width, int height) {
+      cellsX = (width + CELL_SIZE - 1) / CELL_SIZE;
+      cellsY = (height + CELL_SIZE - 1) / CELL_SIZE;
+      cellStarts = new int[cellsX * cellsY + 1];
+      for (int edge = 0; edge < edges.count; ++edge) {
+        ++cellStarts[cell(edges, edge) + 1];
+      }
+      for (int cell = 0; cell < cellsX * cellsY; ++cell) {
+        cellStarts[cell + 1] += cellStarts[cell];
+      }
+      int[] positions = Arrays.copyOf(cellStarts, cellsX * cellsY);
+      cellEdges = new int[edges.count];
+      for (int edge = 0; edge < edges.count; ++edge) {
+        cellEdges[positions[cell(edges, edge)]++] = edge;
+      }
+    }
+
+    /**
+     * Collects the edge pixels of all cells which overlap an annulus.
+     * @param centerX The x position of the center.
+     * @param centerY The y position of the center.
+     * @param innerRadius The inner radius of the annulus.
+     * @param outerRadius The outer radius of the annulus.
+     * @param result Receives the edge indices.
+     * @return Returns the amount of collected edge pixels.
+     */
+    int collect(double centerX, double centerY, double innerRadius, double outerRadius, int[] result) {
+      int startX = Math.max(0, (int) Math.floor((centerX - outerRadius) / CELL_SIZE));
+      int endX = Math.min(cellsX - 1, (int) Math.floor((centerX + outerRadius) / CELL_SIZE));
+      int startY = Math.max(0, (int) Math.floor((centerY - outerRadius) / CELL_SIZE));
+      int endY = Math.min(cellsY - 1, (int) Math.floor((centerY + outerRadius) / CELL_SIZE));
+      int count = 0;
+      for (int cellX = startX; cellX <= endX; ++cellX) {
+        double nearX = Math.max(0.0, Math.max(cellX * CELL_SIZE - centerX, centerX - (cellX + 1) * CELL_SIZE));
+        double farX = Math.max(Math.abs(cellX * CELL_SIZE - centerX), Math.abs((cellX + 1) * CELL_SIZE - centerX));
+        for (int cellY = startY; cellY <= endY; ++cellY) {
+          double nearY = Math.max(0.0, Math.max(cellY * CELL_SIZE - centerY, centerY - (cellY + 1) * CELL_SIZE));
+          double farY = Math.max(Math.abs(cellY * CELL_SIZE - centerY), Math.abs((cellY + 1) * CELL_SIZE - centerY));
+          if (nearX * nearX + nearY * nearY > outerRadius * outerRadius ||
+              farX * farX + farY * farY < innerRadius * innerRadius) {
+            continue;
+          }
+          int cell = cellX * cellsY + cellY;
+          int cellCount = cellStarts[cell + 1] - cellStarts[cell];
+          System.arraycopy(cellEdges, cellStarts[cell], result, count, cellCount);
+          count += cellCount;
+        }
+      }
+      return count;
+    }
+
+    private int cell(Edges edges, int edge) {
+      return (int) edges.xs[edge] / CELL_SIZE * cellsY + (int) edges.ys[edge] / CELL_SIZE;
+    }
+  }
+
+  /**
+   * A detected circle.
+   */
+  public static final class Circle {
+
+    private final double centerX;
+    private final double centerY;
+    private final double radius;
+    private final int votes;
+
+    Circle(double centerX, double centerY, double radius, int votes) {
+      this.centerX = centerX;
+      this.centerY = centerY;
+      this.radius = radius;
+      this.votes = votes;
+    }
+
+    public double getCenterX() {
+      return centerX;
+    }
+
+    public double getCenterY() {
+      return centerY;
+    }
+
+    public double getRadius() {
+      return radius;
+    }
+
+    public int getVotes() {
+      return votes;
+    }
+
+    /**
+     * @param width The image width.
+     * @param height The image height.
+     * @return Returns all pixels of the disc inside the image, column by column.
+     */
+    public List<Point> toPoints(int width, int height) {
+      List<Point> points = new ArrayList<>();
+      int startX = Math.max(0, (int) Math.ceil(centerX - radius));
+      int endX = Math.min(width - 1, (int) Math.floor(centerX + radius));
+      for (int x = startX; x <= endX; ++x) {
+        double halfHeight = Math.sqrt(Math.max(0.0, radius * radius - (x - centerX) * (x - centerX)));
+        int startY = Math.max(0, (int) Math.ceil(centerY - halfHeight));
+        int endY = Math.min(height - 1, (int) Math.floor(centerY + halfHeight));
+        for (int y = startY; y <= endY; ++y) {
+          points.add(new Point(x, y));
+        }
+      }
+      return points;
+    }
+  }
+}
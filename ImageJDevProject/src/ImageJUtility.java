@@ -187,6 +187,32 @@ public class ImageJUtility {
   }
 
 
+  /**
+   * run-length encoded mask of a non-rectangular ROI, relative to the ROI bounding box
+   *
+   * @param ip
+   * @return the ROI mask or null, if the ROI is rectangular or missing
+   */
+  public static RunLengthMask getRoiMask(ImageProcessor ip) {
+    ImageProcessor mask = ip.getMask();
+    if (mask == null) {
+      return null;
+    }
+    int width = mask.getWidth();
+    int height = mask.getHeight();
+    byte[] pixels = (byte[]) mask.getPixels();
+    RunLengthMask.Builder builder = new RunLengthMask.Builder(width, height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        if (pixels[y * width + x] != 0) {
+          builder.add(x);
+        }
+      }
+      builder.nextRow();
+    }
+    return builder.build();
+  }
+
   /**
    * representing 3-channel RGB image as int[][][]
    *
@@ -0,0 +1,230 @@
+import java.awt.Color;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Hue and Saturation statistics of every labelled region in a single linear pass. The labels and the Hue values are
+ * flat planes column by column (x * height + y) like the images of the coin pipeline, every labelled pixel adds its
+ * values to the bins of its label like a histogram, so the image is read sequentially instead of walking the point
+ * list of every region. For large images the planes are split into one chunk per processor, every chunk sums into
+ * partial accumulators of its own, so no synchronisation is needed.
+ *
+ * @version 1.0
+ */
+public class LabelHueStatistics {
+
+  public static final int BACKGROUND_LABEL = 0;
+
+  /* Below this amount of pixels per processor the parallel pass does not pay off. */
+  private static final int MIN_PIXELS_PER_CHUNK = 1 << 16;
+
+  private LabelHueStatistics() {
+  }
+
+  /**
+   * Paints the regions into a flat label plane.
+   * @param regionLabels The labelled regions.
+   * @param width The image width.
+   * @param height The image height.
+   * @return Returns the ID of the region of every pixel, {@link #BACKGROUND_LABEL} outside all regions.
+   */
+  public static int[] labelPlane(Map<Integer, List<Point>> regionLabels, int width, int height) {
+    int[] labels = new int[width * height];
+    regionLabels.forEach((id, points) -> {
+      if (id <= BACKGROUND_LABEL) {
+        throw new IllegalArgumentException("Region IDs must be positive: " + id);
+      }
+      for (Point point : points) {
+        labels[point.getX() * height + point.getY()] = id;
+      }
+    });
+    return labels;
+  }
+
+  /**
+   * Converts the pixels of the regions into a flat Hue plane, all other pixels stay 0.
+   * @param regionLabels The labelled regions.
+   * @param rgbImage The RGB image.
+   * @return Returns the Hue value of every region pixel, column by column.
+   */
+  public static float[] huePlane(Map<Integer, List<Point>> regionLabels, int[][][] rgbImage) {
+    int height = rgbImage[0].length;
+    float[] hues = new float[rgbImage.length * height];
+    float[] hsbValues = new float[3];
+    for (List<Point> points : regionLabels.values()) {
+      for (Point point : points) {
+        int[] rgb = rgbImage[point.getX()][point.getY()];
+        Color.RGBtoHSB(rgb[0], rgb[1], rgb[2], hsbValues);
+        hues[point.getX() * height + point.getY()] = hsbValues[0];
+      }
+    }
+    return hues;
+  }
+
+  /**
+   * Calculates the mean Hue value of every label, in parallel for large images.
+   * @param labels The label plane.
+   * @param hues The Hue plane with the same layout.
+   * @param maxLabel The largest label in the label plane.
+   * @return Returns the mean Hue value indexed by label, NaN for labels without pixels.
+   */
+  public static double[] meanHues(int[] labels, float[] hues, int maxLabel) {
+    return meanHues(labels, hues, maxLabel, true);
+  }
+
+  /**
+   * Calculates the mean Hue value of every label.
+   * @param labels The label plane.
+   * @param hues The Hue plane with the same layout.
+   * @param maxLabel The largest label in the label plane.
+   * @param parallel True, if the planes may be split into chunks which are summed in parallel.
+   * @return Returns the mean Hue value indexed by label, NaN for labels without pixels.
+   */
+  public static double[] meanHues(int[] labels, float[] hues, int maxLabel, boolean parallel) {
+    if (labels.length != hues.length) {
+      throw new IllegalArgumentException(String.format("Label plane (%d) and Hue plane (%d) differ in size",
+          labels.length, hues.length));
+    }
+    int chunkCount = getChunkCount(labels.length, parallel);
+    int chunkSize = (labels.length + chunkCount - 1) / chunkCount;
+    double[][] partialSums = new double[chunkCount][];
+    int[][] partialCounts = new int[chunkCount][];
+    IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+      double[] sums = new double[maxLabel + 1];
+      int[] counts = new int[maxLabel + 1];
+      int start = chunk * chunkSize;
+      int end = Math.max(start, Math.min(labels.length, start + chunkSize));
+      /* Neighbouring pixels mostly share their label, so a run is summed locally and added to the accumulator once. */
+      int runLabel = start < end ? labels[start] : BACKGROUND_LABEL;
+      double runSum = 0.0;
+      int runStart = start;
+      for (int i = start; i < end; ++i) {
+        int label = labels[i];
+        if (label != runLabel) {
+          sums[runLabel] += runSum;
+          counts[runLabel] += i - runStart;
+          runLabel = label;
+          runSum = 0.0;
+          runStart = i;
+        }
+        runSum += hues[i];
+      }
+      sums[runLabel] += runSum;
+      counts[runLabel] += end - runStart;
+      partialSums[chunk] = sums;
+      partialCounts[chunk] = counts;
+    });
+    return merge(partialSums, partialCounts, maxLabel);
+  }
+
+  /**
+   * Calculates the radial colour profile of every label. Every labelled pixel is converted to HSB once and adds its Hue
+   * and Saturation values to the annulus of its label in which it lies, so the profiles of all regions need only one
+   * pass over the image.
+   * @param labels The label plane.
+   * @param rgbImage The RGB image.
+   * @param maxLabel The largest label in the label plane.
+   * @param centersX The x position of the center of every label.
+   * @param centersY The y position of the center of every label.
+   * @param radii The radius of every label, the annuli divide it evenly; pixels outside count to the outermost one.
+   * @param annuli The amount of annuli.
+   * @param parallel True, if the columns may be split into chunks which are summed in parallel.
+   * @return Returns the radial profile indexed by label, null for labels without pixels.
+   */
+  public static RadialProfile[] radialProfiles(int[] labels, int[][][] rgbImage, int maxLabel, double[] centersX,
+      double[] centersY, double[] radii, int annuli, boolean parallel) {
+    int width = rgbImage.length;
+    int height = rgbImage[0].length;
+    if (labels.length != width * height) {
+      throw new IllegalArgumentException(String.format("Label plane (%d) and RGB image (%dx%d) differ in size",
+          labels.length, width, height));
+    }
+    int chunkCount = getChunkCount(labels.length, parallel);
+    int columnsPerChunk = (width + chunkCount - 1) / chunkCount;
+    int binCount = (maxLabel + 1) * annuli;
+    double[][] partialHues = new double[chunkCount][];
+    double[][] partialSaturations = new double[chunkCount][];
+    int[][] partialCounts = new int[chunkCount][];
+    IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+      double[] hues = new double[binCount];
+      double[] saturations = new double[binCount];
+      int[] counts = new int[binCount];
+      float[] hsbValues = new float[3];
+      int endX = Math.min(width, (chunk + 1) * columnsPerChunk);
+      for (int x = chunk * columnsPerChunk; x < endX; ++x) {
+        int[][] column = rgbImage[x];
+        int offset = x * height;
+        for (int y = 0; y < height; ++y) {
+          int label = labels[offset + y];
+          if (label == BACKGROUND_LABEL) {
+            continue;
+          }
+          double dx = x - centersX[label];
+          double dy = y - centersY[label];
+          int annulus = Math.min(annuli - 1, (int) (Math.sqrt(dx * dx + dy * dy) / radii[label] * annuli));
+          int bin = label * annuli + annulus;
+          int[] rgb = column[y];
+          Color.RGBtoHSB(rgb[0], rgb[1], rgb[2], hsbValues);
+          hues[bin] += hsbValues[0];
+          saturations[bin] += hsbValues[1];
+          ++counts[bin];
+        }
+      }
+      partialHues[chunk] = hues;
+      partialSaturations[chunk] = saturations;
+      partialCounts[chunk] = counts;
+    });
+
+    RadialProfile[] profiles = new RadialProfile[maxLabel + 1];
+    for (int label = 1; label <= maxLabel; ++label) {
+      double[] hueSums = new double[annuli];
+      double[] saturationSums = new double[annuli];
+      int[] counts = new int[annuli];
+      int area = 0;
+      for (int chunk = 0; chunk < chunkCount; ++chunk) {
+        for (int annulus = 0; annulus < annuli; ++annulus) {
+          int bin = label * annuli + annulus;
+          hueSums[annulus] += partialHues[chunk][bin];
+          saturationSums[annulus] += partialSaturations[chunk][bin];
+          counts[annulus] += partialCounts[chunk][bin];
+          area += partialCounts[chunk][bin];
+        }
+      }
+      if (area > 0) {
+        profiles[label] = new RadialProfile(centersX[label], centersY[label], hueSums, saturationSums, counts);
+      }
+    }
+    return profiles;
+  }
+
+  /**
+   * @param regionLabels The labelled regions.
+   * @return Returns the largest region ID, {@link #BACKGROUND_LABEL} without regions.
+   */
+  public static int maxLabel(Map<Integer, List<Point>> regionLabels) {
+    return regionLabels.keySet().stream().mapToInt(Integer::intValue).max().orElse(BACKGROUND_LABEL);
+  }
+
+  private static int getChunkCount(int pixelCount, boolean parallel) {
+    return parallel ? Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+        pixelCount / MIN_PIXELS_PER_CHUNK)) : 1;
+  }
+
+  /**
+   * Adds up the partial accumulators of all chunks.
+   */
+  private static double[] merge(double[][] partialSums, int[][] partialCounts, int maxLabel) {
+    double[] means = new double[maxLabel + 1];
+    for (int label = 0; label <= maxLabel; ++label) {
+      double sum = 0.0;
+      int count = 0;
+      for (int chunk = 0; chunk < partialSums.length; ++chunk) {
+        sum += partialSums[chunk][label];
+        count += partialCounts[chunk][label];
+      }
+      means[label] = count == 0 ? Double.NaN : sum / count;
+    }
+    return means;
+  }
+}
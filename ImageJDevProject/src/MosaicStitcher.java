@@ -0,0 +1,261 @@
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Counting of a coin tray which is scanned in several overlapping frames, e.g. a stack of partial scans. Every frame is
+ * analysed on its own by a {@link CoinPipeline}, which is discarded afterwards, and registered to the previous frame
+ * with {@link PhaseCorrelation}, so the frames are placed in the coordinates of the first one. Frames are only
+ * translated, they have to be taken with the same camera distance and consecutive frames have to overlap by at least a
+ * fifth of their area. A frame without a complete reference marker is classified with the scaling factor of the
+ * nearest frame with one.
+ * Coins in the overlap are seen in several frames; two observations are the same coin if their centroids in the mosaic
+ * are closer than the larger radius. The observation farther inside its frame is kept, as coins cut by the frame border
+ * are measured too small. The observations are found in a grid hash, so the whole count is linear in the amount of
+ * frames and coins.
+ *
+ * @version 1.0
+ */
+public class MosaicStitcher {
+
+  private MosaicStitcher() {
+  }
+
+  /**
+   * Stitches the slices of a stack.
+   * @param stack The RGB frames in scan order.
+   * @param configuration Configures the pipeline of every frame, e.g. with the thresholds.
+   * @param monitor The monitor of the stitching.
+   * @return Returns the frame offsets and the coins of the mosaic.
+   */
+  public static Result stitch(ImageStack stack, Consumer<CoinPipeline> configuration, TaskMonitor monitor) {
+    List<ImageProcessor> frames = new ArrayList<>(stack.getSize());
+    for (int slice = 1; slice <= stack.getSize(); ++slice) {
+      frames.add(stack.getProcessor(slice));
+    }
+    return stitch(frames, configuration, monitor);
+  }
+
+  /**
+   * Stitches overlapping frames.
+   * @param frames The RGB frames in scan order, all of the same size.
+   * @param configuration Configures the pipeline of every frame, e.g. with the thresholds.
+   * @return Returns the frame offsets and the coins of the mosaic.
+   */
+  public static Result stitch(List<ImageProcessor> frames, Consumer<CoinPipeline> configuration) {
+    return stitch(frames, configuration, TaskMonitor.NONE);
+  }
+
+  /**
+   * Stitches overlapping frames.
+   * @param frames The RGB frames in scan order, all of the same size.
+   * @param configuration Configures the pipeline of every frame, e.g. with the thresholds.
+   * @param monitor The monitor of the stitching.
+   * @return Returns the frame offsets and the coins of the mosaic.
+   */
+  public static Result stitch(List<ImageProcessor> frames, Consumer<CoinPipeline> configuration,
+      TaskMonitor monitor) {
+    if (frames.isEmpty()) {
+      throw new IllegalArgumentException("No frames to stitch");
+    }
+    int frameCount = frames.size();
+    double[] offsetX = new double[frameCount];
+    double[] offsetY = new double[frameCount];
+    double[] responses = new double[frameCount];
+    double[] scalingFactors = new double[frameCount];
+    ClassificationResult[] results = new ClassificationResult[frameCount];
+    for (int i = 0; i < frameCount; ++i) {
+      TaskMonitor frameMonitor = monitor.subTask((double) i / frameCount, (i + 1.0) / frameCount);
+      if (i > 0) {
+        frameMonitor.checkCancelled();
+        /* A point at p in frame i - 1 is at p + shift in frame i, so frame i starts at the previous offset - shift. */
+        PhaseCorrelation.Shift shift = PhaseCorrelation.register(frames.get(i - 1), frames.get(i));
+        offsetX[i] = offsetX[i - 1] - shift.getX();
+        offsetY[i] = offsetY[i - 1] - shift.getY();
+        responses[i] = shift.getResponse();
+      }
+      CoinPipeline pipeline = createPipeline(frames.get(i), configuration, frameMonitor);
+      CalibrationSession.Calibration calibration = pipeline.getCalibration();
+      if (hasCompleteMarker(calibration, frames.get(i).getWidth(), frames.get(i).getHeight())) {
+        scalingFactors[i] = calibration.getScalingFactor();
+        results[i] = pipeline.getResult();
+      } else {
+        scalingFactors[i] = Double.NaN;
+      }
+    }
+
+    /* Frames without a complete marker take the scaling factor of the nearest frame with one. */
+    for (int i = 0; i < frameCount; ++i) {
+      if (results[i] != null) {
+        continue;
+      }
+      double scalingFactor = getNearestScalingFactor(scalingFactors, i);
+      CoinPipeline pipeline = createPipeline(frames.get(i), configuration, monitor.subTask(1.0, 1.0));
+      pipeline.setScalingFactor(scalingFactor);
+      results[i] = pipeline.getResult();
+      scalingFactors[i] = scalingFactor;
+    }
+    monitor.progress(1.0);
+
+    List<Observation> observations = new ArrayList<>();
+    for (int i = 0; i < frameCount; ++i) {
+      int width = frames.get(i).getWidth();
+      int height = frames.get(i).getHeight();
+      for (CoinResult coin : results[i].getCoins()) {
+        double radius = coin.getDiameter() / scalingFactors[i] / 2.0;
+        double margin = Math.min(Math.min(coin.getCenterX(), width - coin.getCenterX()),
+            Math.min(coin.getCenterY(), height - coin.getCenterY())) - radius;
+        observations.add(new Observation(coin.translate(offsetX[i], offsetY[i]), radius, margin));
+      }
+    }
+    List<Point2D.Double> offsets = new ArrayList<>(frameCount);
+    for (int i = 0; i < frameCount; ++i) {
+      offsets.add(new Point2D.Double(offsetX[i], offsetY[i]));
+    }
+    return new Result(offsets, responses, new ClassificationResult(deduplicate(observations)));
+  }
+
+  private static CoinPipeline createPipeline(ImageProcessor frame, Consumer<CoinPipeline> configuration,
+      TaskMonitor monitor) {
+    CoinPipeline pipeline = new CoinPipeline(frame);
+    configuration.accept(pipeline);
+    pipeline.setTaskMonitor(monitor);
+    return pipeline;
+  }
+
+  /**
+   * @return Returns true, if the reference marker was found and does not touch the frame border, so its diameter is
+   *     measured completely.
+   */
+  private static boolean hasCompleteMarker(CalibrationSession.Calibration calibration, int width, int height) {
+    ReferenceMarkerMeasurement measurement = calibration.getMeasurement();
+    double scalingFactor = calibration.getScalingFactor();
+    if (measurement.getArea() == 0 || !(scalingFactor > 0.0) || Double.isInfinite(scalingFactor)) {
+      return false;
+    }
+    double radius = measurement.getDiameter() / 2.0;
+    return measurement.getCenterX() - radius > 0.0 && measurement.getCenterX() + radius < width - 1 &&
+        measurement.getCenterY() - radius > 0.0 && measurement.getCenterY() + radius < height - 1;
+  }
+
+  private static double getNearestScalingFactor(double[] scalingFactors, int index) {
+    for (int distance = 1; distance < scalingFactors.length; ++distance) {
+      if (index - distance >= 0 && !Double.isNaN(scalingFactors[index - distance])) {
+        return scalingFactors[index - distance];
+      }
+      if (index + distance < scalingFactors.length && !Double.isNaN(scalingFactors[index + distance])) {
+        return scalingFactors[index + distance];
+      }
+    }
+    throw new IllegalArgumentException("No frame shows the complete reference marker");
+  }
+
+  /**
+   * Keeps one observation of every coin. The observations are visited from the innermost to the outermost, every one
+   * is dropped if a kept observation lies within the larger radius; the kept ones are hashed into cells of the largest
+   * diameter, so only the neighbouring cells are searched.
+   */
+  private static List<CoinResult> deduplicate(List<Observation> observations) {
+    double cellSize = 1.0;
+    for (Observation observation : observations) {
+      cellSize = Math.max(cellSize, 2.0 * observation.radius);
+    }
+    List<Observation> sorted = new ArrayList<>(observations);
+    sorted.sort(Comparator.comparingDouble((Observation observation) -> observation.margin).reversed());
+    Map<Long, List<Observation>> grid = new HashMap<>();
+    List<CoinResult> coins = new ArrayList<>();
+    for (Observation observation : sorted) {
+      long cellX = (long) Math.floor(observation.coin.getCenterX() / cellSize);
+      long cellY = (long) Math.floor(observation.coin.getCenterY() / cellSize);
+      if (!isDuplicate(observation, grid, cellX, cellY)) {
+        grid.computeIfAbsent(getCellKey(cellX, cellY), key -> new ArrayList<>()).add(observation);
+        coins.add(new CoinResult(coins.size() + 1, observation.coin.getCenterX(), observation.coin.getCenterY(),
+            observation.coin.getDiameter(), observation.coin.getFamily(), observation.coin.getCoin(),
+            observation.coin.getConfidence()));
+      }
+    }
+    return coins;
+  }
+
+  private static boolean isDuplicate(Observation observation, Map<Long, List<Observation>> grid, long cellX,
+      long cellY) {
+    for (long y = cellY - 1; y <= cellY + 1; ++y) {
+      for (long x = cellX - 1; x <= cellX + 1; ++x) {
+        for (Observation kept : grid.getOrDefault(getCellKey(x, y), Collections.emptyList())) {
+          double tolerance = Math.max(observation.radius, kept.radius);
+          double dx = observation.coin.getCenterX() - kept.coin.getCenterX();
+          double dy = observation.coin.getCenterY() - kept.coin.getCenterY();
+          if (dx * dx + dy * dy < tolerance * tolerance) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  private static long getCellKey(long cellX, long cellY) {
+    return (cellX << 32) ^ (cellY & 0xffffffffL);
+  }
+
+  /**
+   * A coin seen in one frame, in the coordinates of the mosaic.
+   */
+  private static final class Observation {
+
+    private final CoinResult coin;
+    private final double radius;
+    private final double margin;
+
+    Observation(CoinResult coin, double radius, double margin) {
+      this.coin = coin;
+      this.radius = radius;
+      this.margin = margin;
+    }
+  }
+
+  /**
+   * The placement of the frames and the coins of the mosaic.
+   */
+  public static final class Result {
+
+    private final List<Point2D.Double> offsets;
+    private final double[] responses;
+    private final ClassificationResult classification;
+
+    Result(List<Point2D.Double> offsets, double[] responses, ClassificationResult classification) {
+      this.offsets = Collections.unmodifiableList(offsets);
+      this.responses = responses;
+      this.classification = classification;
+    }
+
+    /**
+     * @return Returns the position of every frame in the coordinates of the first frame.
+     */
+    public List<Point2D.Double> getOffsets() {
+      return offsets;
+    }
+
+    /**
+     * @param frame The index of the frame.
+     * @return Returns the correlation response of the registration to the previous frame, 0 for the first frame.
+     */
+    public double getResponse(int frame) {
+      return responses[frame];
+    }
+
+    /**
+     * @return Returns the coins of the mosaic, their centroids in the coordinates of the first frame.
+     */
+    public ClassificationResult getClassification() {
+      return classification;
+    }
+  }
+}
@@ -0,0 +1,336 @@
+import ij.process.ImageProcessor;
+import java.util.Arrays;
+
+/**
+ * Registration of two overlapping frames by phase correlation. Both frames are downsampled to a square grey image of
+ * a power of two, faded out at the border with a narrow cosine taper and zero padded to twice their size, so the
+ * translation does not wrap around, before they are transformed with a FFT. The inverse transform of the normalized
+ * cross power spectrum has its peak at the translation between the frames, which is refined to sub pixel precision
+ * with a parabola through the neighbours of the peak. With a small overlap the true peak is not always the highest
+ * one, so of the highest peaks the one with the highest normalized cross correlation in the overlap of the frames is
+ * chosen.
+ *
+ * @version 1.0
+ */
+public class PhaseCorrelation {
+
+  public static final int DEFAULT_SIZE = 256;
+
+  private static final double EPSILON = 1e-12;
+  /* Candidates whose overlap is smaller than this part of the frame are not considered. */
+  private static final double MIN_OVERLAP_RATIO = 1.0 / 16.0;
+  private static final int PEAK_COUNT = 5;
+  /* Part of the frame at each border which is faded out. */
+  private static final double TAPER_RATIO = 1.0 / 8.0;
+
+  private PhaseCorrelation() {
+  }
+
+  /**
+   * Registers two frames with the default size of the downsampled images.
+   * @param reference The reference frame.
+   * @param moving The moving frame, which has the same size as the reference frame.
+   * @return Returns the translation of the content from the reference frame to the moving frame.
+   */
+  public static Shift register(ImageProcessor reference, ImageProcessor moving) {
+    return register(reference, moving, DEFAULT_SIZE);
+  }
+
+  /**
+   * Registers two frames. A point at p in the reference frame is found at p + shift in the moving frame.
+   * @param reference The reference frame.
+   * @param moving The moving frame, which has the same size as the reference frame.
+   * @param size The edge length of the downsampled images, a power of two.
+   * @return Returns the translation of the content from the reference frame to the moving frame in pixels of the
+   *     frames.
+   */
+  public static Shift register(ImageProcessor reference, ImageProcessor moving, int size) {
+    if (reference.getWidth() != moving.getWidth() || reference.getHeight() != moving.getHeight()) {
+      throw new IllegalArgumentException(String.format("Frames differ in size: %dx%d and %dx%d", reference.getWidth(),
+          reference.getHeight(), moving.getWidth(), moving.getHeight()));
+    }
+    if (size < 2 || Integer.bitCount(size) != 1) {
+      throw new IllegalArgumentException("Size must be a power of two: " + size);
+    }
+    return register(downsample(reference, size), downsample(moving, size), size, (double) reference.getWidth() / size,
+        (double) reference.getHeight() / size);
+  }
+
+  /**
+   * Registers two downsampled frames.
+   * @param reference The downsampled reference frame, row by row.
+   * @param moving The downsampled moving frame, row by row.
+   * @param size The edge length of the downsampled frames.
+   * @param scaleX The ratio of the frame width to the size.
+   * @param scaleY The ratio of the frame height to the size.
+   * @return Returns the translation in pixels of the frames.
+   */
+  private static Shift register(double[] reference, double[] moving, int size, double scaleX, double scaleY) {
+    int paddedSize = 2 * size;
+    double[] referenceReal = pad(reference, size);
+    double[] movingReal = pad(moving, size);
+    double[] referenceImaginary = new double[paddedSize * paddedSize];
+    double[] movingImaginary = new double[paddedSize * paddedSize];
+    fft2d(referenceReal, referenceImaginary, paddedSize, false);
+    fft2d(movingReal, movingImaginary, paddedSize, false);
+
+    /* Normalized cross power spectrum M * conj(R) / |M * conj(R)|, its inverse has the peak at the shift. */
+    double[] real = new double[paddedSize * paddedSize];
+    double[] imaginary = new double[paddedSize * paddedSize];
+    for (int i = 0; i < real.length; ++i) {
+      double re = movingReal[i] * referenceReal[i] + movingImaginary[i] * referenceImaginary[i];
+      double im = movingImaginary[i] * referenceReal[i] - movingReal[i] * referenceImaginary[i];
+      double magnitude = Math.sqrt(re * re + im * im);
+      if (magnitude > EPSILON) {
+        real[i] = re / magnitude;
+        imaginary[i] = im / magnitude;
+      }
+    }
+    fft2d(real, imaginary, paddedSize, true);
+
+    int bestPeak = 0;
+    double bestCorrelation = Double.NEGATIVE_INFINITY;
+    for (int peak : findPeaks(real, paddedSize, PEAK_COUNT)) {
+      double correlation = correlate(reference, moving, size, unwrap(peak % paddedSize, paddedSize),
+          unwrap(peak / paddedSize, paddedSize));
+      if (correlation > bestCorrelation) {
+        bestCorrelation = correlation;
+        bestPeak = peak;
+      }
+    }
+    int peakX = bestPeak % paddedSize;
+    int peakY = bestPeak / paddedSize;
+    double offsetX = refinePeak(real[peakY * paddedSize + (peakX + paddedSize - 1) % paddedSize], real[bestPeak],
+        real[peakY * paddedSize + (peakX + 1) % paddedSize]);
+    double offsetY = refinePeak(real[((peakY + paddedSize - 1) % paddedSize) * paddedSize + peakX], real[bestPeak],
+        real[((peakY + 1) % paddedSize) * paddedSize + peakX]);
+    int bestX = unwrap(peakX, paddedSize);
+    int bestY = unwrap(peakY, paddedSize);
+    return new Shift((bestX + offsetX) * scaleX, (bestY + offsetY) * scaleY, real[bestPeak] / real.length);
+  }
+
+  /**
+   * @return Returns the indices of the highest local maxima of the correlation surface, which wraps around.
+   */
+  private static int[] findPeaks(double[] surface, int size, int count) {
+    int[] peaks = new int[count];
+    Arrays.fill(peaks, -1);
+    for (int y = 0; y < size; ++y) {
+      for (int x = 0; x < size; ++x) {
+        int i = y * size + x;
+        double value = surface[i];
+        if (value < surface[y * size + (x + 1) % size] || value < surface[y * size + (x + size - 1) % size] ||
+            value < surface[((y + 1) % size) * size + x] || value < surface[((y + size - 1) % size) * size + x]) {
+          continue;
+        }
+        /* Insertion into the peaks sorted by descending value. */
+        int position = count;
+        while (position > 0 && (peaks[position - 1] < 0 || surface[peaks[position - 1]] < value)) {
+          --position;
+        }
+        if (position < count) {
+          System.arraycopy(peaks, position, peaks, position + 1, count - position - 1);
+          peaks[position] = i;
+        }
+      }
+    }
+    return Arrays.stream(peaks).filter(peak -> peak >= 0).toArray();
+  }
+
+  /**
+   * Normalized cross correlation of the overlap of two frames for a shift.
+   * @return Returns the correlation in [-1, 1], or negative infinity if the overlap is too small.
+   */
+  private static double correlate(double[] reference, double[] moving, int size, int shiftX, int shiftY) {
+    int overlapWidth = size - Math.abs(shiftX);
+    int overlapHeight = size - Math.abs(shiftY);
+    if (overlapWidth * overlapHeight < MIN_OVERLAP_RATIO * size * size) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    double sumReference = 0.0;
+    double sumMoving = 0.0;
+    double sumSquaredReference = 0.0;
+    double sumSquaredMoving = 0.0;
+    double sumProducts = 0.0;
+    for (int y = Math.max(0, -shiftY); y < Math.min(size, size - shiftY); ++y) {
+      for (int x = Math.max(0, -shiftX); x < Math.min(size, size - shiftX); ++x) {
+        double referenceValue = reference[y * size + x];
+        double movingValue = moving[(y + shiftY) * size + x + shiftX];
+        sumReference += referenceValue;
+        sumMoving += movingValue;
+        sumSquaredReference += referenceValue * referenceValue;
+        sumSquaredMoving += movingValue * movingValue;
+        sumProducts += referenceValue * movingValue;
+      }
+    }
+    int count = overlapWidth * overlapHeight;
+    double covariance = sumProducts - sumReference * sumMoving / count;
+    double variance = (sumSquaredReference - sumReference * sumReference / count) *
+        (sumSquaredMoving - sumMoving * sumMoving / count);
+    return variance < EPSILON ? 0.0 : covariance / Math.sqrt(variance);
+  }
+
+  /**
+   * @return Returns the signed shift of a position in the padded correlation surface.
+   */
+  private static int unwrap(int position, int paddedSize) {
+    return position >= paddedSize / 2 ? position - paddedSize : position;
+  }
+
+  /**
+   * @return Returns a downsampled frame faded out at the border and zero padded to twice its size.
+   */
+  private static double[] pad(double[] values, int size) {
+    int taper = Math.max(1, (int) (size * TAPER_RATIO));
+    double[] window = new double[size];
+    for (int i = 0; i < size; ++i) {
+      int distance = Math.min(i, size - 1 - i);
+      window[i] = distance >= taper ? 1.0 : 0.5 - 0.5 * Math.cos(Math.PI * distance / taper);
+    }
+    int paddedSize = 2 * size;
+    double[] padded = new double[paddedSize * paddedSize];
+    for (int y = 0; y < size; ++y) {
+      for (int x = 0; x < size; ++x) {
+        padded[y * paddedSize + x] = values[y * size + x] * window[x] * window[y];
+      }
+    }
+    return padded;
+  }
+
+  /**
+   * Downsamples a frame to a square grey image with mean free values.
+   */
+  private static double[] downsample(ImageProcessor frame, int size) {
+    ImageProcessor grey = frame.convertToFloat();
+    grey.setInterpolationMethod(ImageProcessor.BILINEAR);
+    float[] pixels = (float[]) grey.resize(size, size, true).getPixels();
+    double mean = 0.0;
+    for (float pixel : pixels) {
+      mean += pixel;
+    }
+    mean /= pixels.length;
+    double[] values = new double[size * size];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = pixels[i] - mean;
+    }
+    return values;
+  }
+
+  /**
+   * @return Returns the position of the vertex of the parabola through three neighbouring values relative to the
+   *     middle one, in [-0.5, 0.5].
+   */
+  private static double refinePeak(double left, double center, double right) {
+    double denominator = left - 2.0 * center + right;
+    if (Math.abs(denominator) < EPSILON) {
+      return 0.0;
+    }
+    return Math.max(-0.5, Math.min(0.5, 0.5 * (left - right) / denominator));
+  }
+
+  /**
+   * Transforms a square complex image in place, first all rows and then all columns.
+   */
+  private static void fft2d(double[] real, double[] imaginary, int size, boolean inverse) {
+    double[] lineReal = new double[size];
+    double[] lineImaginary = new double[size];
+    for (int y = 0; y < size; ++y) {
+      System.arraycopy(real, y * size, lineReal, 0, size);
+      System.arraycopy(imaginary, y * size, lineImaginary, 0, size);
+      fft(lineReal, lineImaginary, inverse);
+      System.arraycopy(lineReal, 0, real, y * size, size);
+      System.arraycopy(lineImaginary, 0, imaginary, y * size, size);
+    }
+    for (int x = 0; x < size; ++x) {
+      for (int y = 0; y < size; ++y) {
+        lineReal[y] = real[y * size + x];
+        lineImaginary[y] = imaginary[y * size + x];
+      }
+      fft(lineReal, lineImaginary, inverse);
+      for (int y = 0; y < size; ++y) {
+        real[y * size + x] = lineReal[y];
+        imaginary[y * size + x] = lineImaginary[y];
+      }
+    }
+  }
+
+  /**
+   * Iterative radix-2 FFT of one line in place. The inverse transform is not scaled, which does not move the peak.
+   */
+  private static void fft(double[] real, double[] imaginary, boolean inverse) {
+    int n = real.length;
+    for (int i = 1, j = 0; i < n; ++i) {
+      int bit = n >> 1;
+      for (; (j & bit) != 0; bit >>= 1) {
+        j ^= bit;
+      }
+      j ^= bit;
+      if (i < j) {
+        double swap = real[i];
+        real[i] = real[j];
+        real[j] = swap;
+        swap = imaginary[i];
+        imaginary[i] = imaginary[j];
+        imaginary[j] = swap;
+      }
+    }
+    for (int length = 2; length <= n; length <<= 1) {
+      double angle = (inverse ? 2.0 : -2.0) * Math.PI / length;
+      double stepReal = Math.cos(angle);
+      double stepImaginary = Math.sin(angle);
+      for (int start = 0; start < n; start += length) {
+        double twiddleReal = 1.0;
+        double twiddleImaginary = 0.0;
+        for (int k = 0; k < length / 2; ++k) {
+          int even = start + k;
+          int odd = even + length / 2;
+          double oddReal = real[odd] * twiddleReal - imaginary[odd] * twiddleImaginary;
+          double oddImaginary = real[odd] * twiddleImaginary + imaginary[odd] * twiddleReal;
+          real[odd] = real[even] - oddReal;
+          imaginary[odd] = imaginary[even] - oddImaginary;
+          real[even] += oddReal;
+          imaginary[even] += oddImaginary;
+          double nextReal = twiddleReal * stepReal - twiddleImaginary * stepImaginary;
+          twiddleImaginary = twiddleReal * stepImaginary + twiddleImaginary * stepReal;
+          twiddleReal = nextReal;
+        }
+      }
+    }
+  }
+
+  /**
+   * The translation between two frames.
+   */
+  public static final class Shift {
+
+    private final double x;
+    private final double y;
+    private final double response;
+
+    Shift(double x, double y, double response) {
+      this.x = x;
+      this.y = y;
+      this.response = response;
+    }
+
+    public double getX() {
+      return x;
+    }
+
+    public double getY() {
+      return y;
+    }
+
+    /**
+     * @return Returns the height of the normalized correlation peak in [0, 1], near 0 if the frames do not overlap.
+     */
+    public double getResponse() {
+      return response;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("(%.1f, %.1f) response = %.3f", x, y, response);
+    }
+  }
+}
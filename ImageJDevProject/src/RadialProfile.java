@@ -0,0 +1,117 @@
+/**
+ * Radial colour profile of a region: the mean Hue and Saturation values per annulus around the center of the coin.
+ * The radius is normalized by the radius of the coin, so the profiles of coins with different sizes are comparable.
+ * Bimetallic coins show a clear Saturation step between the core and the ring, because one of both parts is silver
+ * coloured. The profiles of all regions are accumulated together in one pass over the label plane, see
+ * {@link LabelHueStatistics#radialProfiles(int[], int[][][], int, double[], double[], double[], int, boolean)}.
+ *
+ * @version 1.0
+ */
+public class RadialProfile {
+
+  public static final int DEFAULT_ANNULI = 10;
+  public static final double DEFAULT_MIN_CONTRAST = 0.2;
+
+  private static final double CORE_RADIUS = 0.6;
+  private static final double RING_INNER_RADIUS = 0.7;
+  private static final double RING_OUTER_RADIUS = 0.9;
+
+  private final double centerX;
+  private final double centerY;
+  private final double[] hueSums;
+  private final double[] saturationSums;
+  private final int[] counts;
+
+  /**
+   * Creates the profile of a region from its sums per annulus.
+   * @param centerX The x position of the center of the coin.
+   * @param centerY The y position of the center of the coin.
+   * @param hueSums The sum of the Hue values per annulus.
+   * @param saturationSums The sum of the Saturation values per annulus.
+   * @param counts The amount of pixels per annulus.
+   */
+  RadialProfile(double centerX, double centerY, double[] hueSums, double[] saturationSums, int[] counts) {
+    this.centerX = centerX;
+    this.centerY = centerY;
+    this.hueSums = hueSums;
+    this.saturationSums = saturationSums;
+    this.counts = counts;
+  }
+
+  public double getCenterX() {
+    return centerX;
+  }
+
+  public double getCenterY() {
+    return centerY;
+  }
+
+  public int getAnnuli() {
+    return counts.length;
+  }
+
+  /**
+   * @param annulus The index of the annulus, 0 is the innermost.
+   * @return Returns the mean Hue value of the annulus or NaN, if no pixel lies in it.
+   */
+  public double getMeanHue(int annulus) {
+    return counts[annulus] == 0 ? Double.NaN : hueSums[annulus] / counts[annulus];
+  }
+
+  /**
+   * @param annulus The index of the annulus, 0 is the innermost.
+   * @return Returns the mean Saturation value of the annulus or NaN, if no pixel lies in it.
+   */
+  public double getMeanSaturation(int annulus) {
+    return counts[annulus] == 0 ? Double.NaN : saturationSums[annulus] / counts[annulus];
+  }
+
+  /**
+   * @return Returns the mean Hue value of all pixels of the region or NaN, if the region has no pixels.
+   */
+  public double getMeanHue() {
+    double sum = 0.0;
+    int count = 0;
+    for (int annulus = 0; annulus < counts.length; ++annulus) {
+      sum += hueSums[annulus];
+      count += counts[annulus];
+    }
+    return count == 0 ? Double.NaN : sum / count;
+  }
+
+  /**
+   * @return Returns the mean Saturation value of the core of the coin.
+   */
+  public double getCoreSaturation() {
+    return meanSaturation(0.0, CORE_RADIUS);
+  }
+
+  /**
+   * @return Returns the mean Saturation value of the outer ring of the coin. The outermost annulus is left out, because
+   * it is mixed with the background.
+   */
+  public double getRingSaturation() {
+    return meanSaturation(RING_INNER_RADIUS, RING_OUTER_RADIUS);
+  }
+
+  /**
+   * Determines if the region is a bimetallic coin.
+   * @param minContrast The minimum Saturation difference between core and ring.
+   * @return Returns true, if core and ring differ clearly in the Saturation value.
+   */
+  public boolean isBimetallic(double minContrast) {
+    return Math.abs(getCoreSaturation() - getRingSaturation()) >= minContrast;
+  }
+
+  private double meanSaturation(double fromRadius, double toRadius) {
+    int annuli = counts.length;
+    double sum = 0.0;
+    int count = 0;
+    int lastAnnulus = Math.min(annuli, (int) Math.round(toRadius * annuli));
+    for (int annulus = (int) Math.round(fromRadius * annuli); annulus < lastAnnulus; ++annulus) {
+      sum += saturationSums[annulus];
+      count += counts[annulus];
+    }
+    return count == 0 ? 0.0 : sum / count;
+  }
+}
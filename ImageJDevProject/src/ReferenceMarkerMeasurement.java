@@ -0,0 +1,114 @@
+/**
+ * Measurement of the reference marker directly on its mask. The largest N8 connected component is found in a single
+ * pass over the runs of the mask; its area and a circle fitted to the run ends are accumulated on the way, so no
+ * label image and no pixel list is needed.
+ *
+ * @version 1.0
+ */
+public class ReferenceMarkerMeasurement {
+
+  private final int area;
+  private final CircleFit circleFit;
+
+  private ReferenceMarkerMeasurement(int area, CircleFit circleFit) {
+    this.area = area;
+    this.circleFit = circleFit;
+  }
+
+  /**
+   * Measures the largest component of the reference marker mask.
+   * @param referenceMarkerMask The mask of the segmented reference marker.
+   * @return Returns the measurement of the largest component.
+   */
+  public static ReferenceMarkerMeasurement measure(RunLengthMask referenceMarkerMask) {
+    int width = referenceMarkerMask.getWidth();
+    int height = referenceMarkerMask.getHeight();
+    int runCount = 0;
+    for (int y = 0; y < height; ++y) {
+      runCount += referenceMarkerMask.getRunCount(y);
+    }
+    UnionFind runSets = new UnionFind(runCount);
+    int[] areas = new int[runCount];
+    CircleFit[] fits = new CircleFit[runCount];
+
+    int previousOffset = 0;
+    int currentOffset = 0;
+    for (int y = 0; y < height; ++y) {
+      int currentRuns = referenceMarkerMask.getRunCount(y);
+      int previousRuns = y > 0 ? referenceMarkerMask.getRunCount(y - 1) : 0;
+      int p = 0;
+      for (int c = 0; c < currentRuns; ++c) {
+        int run = currentOffset + c;
+        int start = referenceMarkerMask.getRunStart(y, c);
+        int end = referenceMarkerMask.getRunEnd(y, c);
+        areas[run] = end - start;
+        fits[run] = new CircleFit(width / 2.0, height / 2.0);
+        //the run ends are the left and right boundary of the component
+        fits[run].addPoint(start - 0.5, y);
+        fits[run].addPoint(end - 0.5, y);
+        while (p < previousRuns && referenceMarkerMask.getRunEnd(y - 1, p) < start) {
+          ++p;
+        }
+        //N8: the runs touch if they overlap including the diagonal neighbours
+        for (int i = p; i < previousRuns && referenceMarkerMask.getRunStart(y - 1, i) <= end; ++i) {
+          union(runSets, areas, fits, previousOffset + i, run);
+        }
+      }
+      previousOffset = currentOffset;
+      currentOffset += currentRuns;
+    }
+
+    int largest = -1;
+    for (int run = 0; run < runCount; ++run) {
+      if (runSets.find(run) == run && (largest < 0 || areas[largest] < areas[run])) {
+        largest = run;
+      }
+    }
+    if (largest < 0) {
+      return new ReferenceMarkerMeasurement(0, new CircleFit(width / 2.0, height / 2.0));
+    }
+    return new ReferenceMarkerMeasurement(areas[largest], fits[largest]);
+  }
+
+  private static void union(UnionFind runSets, int[] areas, CircleFit[] fits, int first, int second) {
+    int firstRoot = runSets.find(first);
+    int secondRoot = runSets.find(second);
+    if (firstRoot == secondRoot) {
+      return;
+    }
+    int root = runSets.union(firstRoot, secondRoot);
+    int child = root == firstRoot ? secondRoot : firstRoot;
+    areas[root] += areas[child];
+    fits[root].merge(fits[child]);
+    fits[child] = null;
+  }
+
+  /**
+   * @return Returns the amount of pixels of the largest component.
+   */
+  public int getArea() {
+    return area;
+  }
+
+  /**
+   * @return Returns the diameter of a circle with the area of the largest component.
+   */
+  public double getDiameter() {
+    return MathUtils.calculateDiameter(area);
+  }
+
+  /**
+   * @return Returns the diameter of the circle fitted to the boundary of the largest component.
+   */
+  public double getFittedDiameter() {
+    return circleFit.getDiameter();
+  }
+
+  public double getCenterX() {
+    return circleFit.getCenterX();
+  }
+
+  public double getCenterY() {
+    return circleFit.getCenterY();
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Accumulated statistics of a labelled region. The statistics can be collected pixel by pixel or run by run and
+ * regions can be merged, so no pixel list of the region is needed.
+ *
+ * @version 1.0
+ */
+public class RegionStats {
+
+  private int area;
+  private long sumX;
+  private long sumY;
+  private double hueSum;
+  private int minX = Integer.MAX_VALUE;
+  private int minY = Integer.MAX_VALUE;
+  private int maxX = Integer.MIN_VALUE;
+  private int maxY = Integer.MIN_VALUE;
+
+  /**
+   * Adds a single pixel with its hue value to the region.
+   * @param x The x position of the pixel.
+   * @param y The y position of the pixel.
+   * @param hue The hue value of the pixel.
+   */
+  public void addPixel(int x, int y, float hue) {
+    addRun(y, x, x + 1);
+    hueSum += hue;
+  }
+
+  /**
+   * Adds a horizontal run of pixels without hue values to the region.
+   * @param y The row of the run.
+   * @param startX The first x position of the run.
+   * @param endX The x position after the last pixel of the run.
+   */
+  public void addRun(int y, int startX, int endX) {
+    int length = endX - startX;
+    area += length;
+    sumX += (long) (startX + endX - 1) * length / 2;
+    sumY += (long) y * length;
+    minX = Math.min(minX, startX);
+    maxX = Math.max(maxX, endX - 1);
+    minY = Math.min(minY, y);
+    maxY = Math.max(maxY, y);
+  }
+
+  /**
+   * Adds all statistics of another region to this region.
+   * @param other The other region.
+   */
+  public void merge(RegionStats other) {
+    area += other.area;
+    sumX += other.sumX;
+    sumY += other.sumY;
+    hueSum += other.hueSum;
+    minX = Math.min(minX, other.minX);
+    maxX = Math.max(maxX, other.maxX);
+    minY = Math.min(minY, other.minY);
+    maxY = Math.max(maxY, other.maxY);
+  }
+
+  public int getArea() {
+    return area;
+  }
+
+  public double getCentroidX() {
+    return area == 0 ? 0.0 : (double) sumX / area;
+  }
+
+  public double getCentroidY() {
+    return area == 0 ? 0.0 : (double) sumY / area;
+  }
+
+  public double getMeanHue() {
+    return area == 0 ? 0.0 : hueSum / area;
+  }
+
+  public int getMinX() {
+    return minX;
+  }
+
+  public int getMinY() {
+    return minY;
+  }
+
+  public int getMaxX() {
+    return maxX;
+  }
+
+  public int getMaxY() {
+    return maxY;
+  }
+}
@@ -0,0 +1,239 @@
+import ij.IJ;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache of classification results, addressed by the content of the image. The key is a 128 bit hash of the pixel
+ * buffer, the image size and a description of all pipeline parameters, so an identical image submitted again hits the
+ * cache while a change of any parameter misses it. The memory tier evicts the least recently used result, an optional
+ * disk tier keeps every result as small text file named by its key and survives a restart of the JVM.
+ *
+ * @version 1.0
+ */
+public class ResultCache {
+
+  public static final int DEFAULT_CAPACITY = 64;
+  public static final String DIRECTORY_PROPERTY = "coins.cache.dir";
+
+  private static final String FILE_SUFFIX = ".txt";
+  private static final int FIELD_COUNT = 10;
+  private static final long FIRST_MULTIPLIER = 0x9E3779B97F4A7C15L;
+  private static final long SECOND_MULTIPLIER = 0xC2B2AE3D27D4EB4FL;
+
+  private final Path directory;
+  private final Map<Key, ClassificationResult> entries;
+
+  /**
+   * Creates a cache which only keeps the results in memory.
+   * @param capacity The maximum amount of results in memory.
+   */
+  public ResultCache(int capacity) {
+    this(capacity, null);
+  }
+
+  /**
+   * Creates a cache.
+   * @param capacity The maximum amount of results in memory.
+   * @param directory The directory of the disk tier, or null for a memory only cache.
+   */
+  public ResultCache(int capacity, Path directory) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    this.directory = directory;
+    this.entries = new LinkedHashMap<Key, ClassificationResult>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, ClassificationResult> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Creates a cache with the default capacity and the disk tier in the directory given by the system property
+   * {@value #DIRECTORY_PROPERTY}, if it is set.
+   * @return Returns the cache.
+   */
+  public static ResultCache fromSystemProperties() {
+    String directoryName = System.getProperty(DIRECTORY_PROPERTY);
+    return new ResultCache(DEFAULT_CAPACITY, directoryName == null ? null : Paths.get(directoryName));
+  }
+
+  /**
+   * Computes the key of an image. Two multiplicative hashes with different constants run over all pixels, so the key
+   * costs a single pass over the pixel buffer.
+   * @param pixels The packed RGB pixels.
+   * @param width The image width.
+   * @param height The image height.
+   * @param parameters The description of all pipeline parameters which change the result.
+   * @return Returns the key.
+   */
+  public static Key key(int[] pixels, int width, int height, String parameters) {
+    long first = mix(width, FIRST_MULTIPLIER) ^ height;
+    long second = mix(height, SECOND_MULTIPLIER) ^ width;
+    for (int pixel : pixels) {
+      first = Long.rotateLeft((first ^ pixel) * FIRST_MULTIPLIER, 29);
+      second = Long.rotateLeft((second + pixel) * SECOND_MULTIPLIER, 31);
+    }
+    byte[] parameterBytes = parameters.getBytes(StandardCharsets.UTF_8);
+    for (byte parameterByte : parameterBytes) {
+      first = Long.rotateLeft((first ^ parameterByte) * FIRST_MULTIPLIER, 29);
+      second = Long.rotateLeft((second + parameterByte) * SECOND_MULTIPLIER, 31);
+    }
+    return new Key(mix(first, SECOND_MULTIPLIER), mix(second, FIRST_MULTIPLIER));
+  }
+
+  /**
+   * Looks up a result, first in memory, then on disk. A result found on disk is moved into memory.
+   * @param key The key of the image.
+   * @return Returns the cached result or null.
+   */
+  public synchronized ClassificationResult get(Key key) {
+    ClassificationResult result = entries.get(key);
+    if (result == null && directory != null) {
+      try {
+        result = read(directory.resolve(key + FILE_SUFFIX));
+        entries.put(key, result);
+      } catch (NoSuchFileException e) {
+        return null;
+      } catch (IOException e) {
+        IJ.log("Cached result could not be read: " + e.getMessage());
+        return null;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Stores a result in memory and on disk.
+   * @param key The key of the image.
+   * @param result The classification result of the image.
+   */
+  public synchronized void put(Key key, ClassificationResult result) {
+    entries.put(key, result);
+    if (directory != null) {
+      try {
+        write(directory.resolve(key + FILE_SUFFIX), result);
+      } catch (IOException e) {
+        IJ.log("Result could not be cached on disk: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * @return Returns the amount of results in memory.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Removes all results from memory, the disk tier stays untouched.
+   */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  private void write(Path file, ClassificationResult result) throws IOException {
+    Files.createDirectories(directory);
+    Path temporaryFile = Files.createTempFile(directory, "result", FILE_SUFFIX);
+    try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+      writer.write("# id centerX centerY diameter family currency value coinDiameter thickness confidence");
+      writer.newLine();
+      for (CoinResult coin : result.getCoins()) {
+        Coin matched = coin.getCoin();
+        writer.write(String.join(" ", Integer.toString(coin.getId()), Double.toString(coin.getCenterX()),
+            Double.toString(coin.getCenterY()), Double.toString(coin.getDiameter()), coin.getFamily().name(),
+            matched.getCurrency(), Double.toString(matched.getValue()), Double.toString(matched.getDiameter()),
+            Double.toString(matched.getThickness()), Double.toString(coin.getConfidence())));
+        writer.newLine();
+      }
+    }
+    //readers never see a partly written file
+    Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static ClassificationResult read(Path file) throws IOException {
+    List<CoinResult> coins = new ArrayList<>();
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      int lineNumber = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        ++lineNumber;
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split(" ");
+        if (fields.length != FIELD_COUNT) {
+          throw new IOException(String.format("%s line %d: expected %d fields but found %d", file, lineNumber,
+              FIELD_COUNT, fields.length));
+        }
+        try {
+          CoinFamily family = CoinFamily.valueOf(fields[4].toUpperCase(Locale.ROOT));
+          Coin coin = new Coin(fields[5], Double.parseDouble(fields[6]), Double.parseDouble(fields[7]),
+              Double.parseDouble(fields[8]), family);
+          coins.add(new CoinResult(Integer.parseInt(fields[0]), Double.parseDouble(fields[1]),
+              Double.parseDouble(fields[2]), Double.parseDouble(fields[3]), family, coin, Double.parseDouble(fields[9])));
+        } catch (IllegalArgumentException e) {
+          throw new IOException(String.format("%s line %d: %s", file, lineNumber, e.getMessage()), e);
+        }
+      }
+    }
+    return new ClassificationResult(coins);
+  }
+
+  private static long mix(long value, long multiplier) {
+    long mixed = (value ^ (value >>> 33)) * multiplier;
+    mixed = (mixed ^ (mixed >>> 29)) * multiplier;
+    return mixed ^ (mixed >>> 32);
+  }
+
+  /**
+   * The 128 bit key of an image and its parameters.
+   */
+  public static final class Key {
+
+    private final long high;
+    private final long low;
+
+    Key(long high, long low) {
+      this.high = high;
+      this.low = low;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return high == key.high && low == key.low;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(high, low);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%016x%016x", high, low);
+    }
+  }
+}
@@ -0,0 +1,50 @@
+import ij.process.ImageProcessor;
+
+/**
+ * Delivers an RGB image row by row, so an image never has to be held as a whole by the consumer.
+ *
+ * @version 1.0
+ */
+public interface RowSource {
+
+  /**
+   * @return Returns the image width.
+   */
+  int getWidth();
+
+  /**
+   * @return Returns the image height.
+   */
+  int getHeight();
+
+  /**
+   * Reads one row of packed RGB values (0xRRGGBB).
+   * @param y The row which should be read.
+   * @param rgbRow The buffer which receives the row, at least of the image width.
+   */
+  void readRow(int y, int[] rgbRow);
+
+  /**
+   * Creates a row source for an RGB image processor.
+   * @param ip The image processor.
+   * @return Returns a row source which reads the rows of the image processor.
+   */
+  static RowSource fromImageProcessor(ImageProcessor ip) {
+    return new RowSource() {
+      @Override
+      public int getWidth() {
+        return ip.getWidth();
+      }
+
+      @Override
+      public int getHeight() {
+        return ip.getHeight();
+      }
+
+      @Override
+      public void readRow(int y, int[] rgbRow) {
+        ip.getRow(0, y, rgbRow, ip.getWidth());
+      }
+    };
+  }
+}
@@ -0,0 +1,590 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary image mask stored as horizontal runs of foreground pixels. Every row holds its runs as sorted pairs of
+ * [start, end) x positions, so memory and the time of all operations scale with the amount of runs (the boundary length
+ * of the regions) instead of the amount of pixels. A mask is immutable, all operations return a new mask.
+ *
+ * @version 1.0
+ */
+public class RunLengthMask {
+
+  private static final int[] NO_RUNS = new int[0];
+
+  private final int width;
+  private final int height;
+  private final int[][] rows;
+
+  private RunLengthMask(int width, int height, int[][] rows) {
+    this.width = width;
+    this.height = height;
+    this.rows = rows;
+  }
+
+  /**
+   * Creates an empty mask.
+   * @param width The mask width.
+   * @param height The mask height.
+   * @return Returns a mask without foreground pixels.
+   */
+  public static RunLengthMask empty(int width, int height) {
+    int[][] rows = new int[height][];
+    Arrays.fill(rows, NO_RUNS);
+    return new RunLengthMask(width, height, rows);
+  }
+
+  /**
+   * Creates a mask from a binary image.
+   * @param image The binary image, pixels with the foreground color become foreground.
+   * @param width The image width.
+   * @param height The image height.
+   * @return Returns the run-length encoded mask of the image.
+   */
+  public static RunLengthMask fromImage(int[][] image, int width, int height) {
+    Builder builder = new Builder(width, height);
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        if (image[x][y] == CoinUtils.FOREGROUND_COLOR) {
+          builder.add(x);
+        }
+      }
+      builder.nextRow();
+    }
+    return builder.build();
+  }
+
+  /**
+   * Converts the mask into a binary image.
+   * @return Returns the image with foreground color for all pixels in the mask.
+   */
+  public int[][] toImage() {
+    int[][] image = new int[width][height];
+    for (int y = 0; y < height; ++y) {
+      int[] runs = rows[y];
+      for (int i = 0; i < runs.length; i += 2) {
+        for (int x = runs[i]; x < runs[i + 1]; ++x) {
+          image[x][y] = CoinUtils.FOREGROUND_COLOR;
+        }
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Converts the mask into a list of points.
+   * @return Returns all foreground pixels of the mask.
+   */
+  public List<Point> toPoints() {
+    List<Point> points = new ArrayList<>(getArea());
+    for (int y = 0; y < height; ++y) {
+      int[] runs = rows[y];
+      for (int i = 0; i < runs.length; i += 2) {
+        for (int x = runs[i]; x < runs[i + 1]; ++x) {
+          points.add(new Point(x, y));
+        }
+      }
+    }
+    return points;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * @param y The row.
+   * @return Returns the amount of runs in the row.
+   */
+  public int getRunCount(int y) {
+    return rows[y].length / 2;
+  }
+
+  /**
+   * @param y The row.
+   * @param run The index of the run in the row.
+   * @return Returns the first x position of the run.
+   */
+  public int getRunStart(int y, int run) {
+    return rows[y][2 * run];
+  }
+
+  /**
+   * @param y The row.
+   * @param run The index of the run in the row.
+   * @return Returns the x position after the last pixel of the run.
+   */
+  public int getRunEnd(int y, int run) {
+    return rows[y][2 * run + 1];
+  }
+
+  /**
+   * Determines if a pixel is foreground.
+   * @param x The x position.
+   * @param y The y position.
+   * @return Returns true if the pixel is in the mask, otherwise false.
+   */
+  public boolean contains(int x, int y) {
+    int[] runs = rows[y];
+    for (int i = 0; i < runs.length && runs[i] <= x; i += 2) {
+      if (x < runs[i + 1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Counts all foreground pixels.
+   * @return Returns the area of the mask.
+   */
+  public int getArea() {
+    int area = 0;
+    for (int[] runs : rows) {
+      for (int i = 0; i < runs.length; i += 2) {
+        area += runs[i + 1] - runs[i];
+      }
+    }
+    return area;
+  }
+
+  /**
+   * Implementation of the Mathematical Morphology method "dilate" with the N4 neighbourhood.
+   * @return Returns the dilated mask.
+   */
+  public RunLengthMask dilate() {
+    int[][] dilatedRows = new int[height][];
+    for (int y = 0; y < height; ++y) {
+      int[] runs = widen(rows[y], width);
+      if (y > 0) {
+        runs = union(runs, rows[y - 1]);
+      }
+      if (y + 1 < height) {
+        runs = union(runs, rows[y + 1]);
+      }
+      dilatedRows[y] = runs;
+    }
+    return new RunLengthMask(width, height, dilatedRows);
+  }
+
+  /**
+   * Implementation of the Mathematical Morphology method "erode" with the N4 neighbourhood. Pixels outside the mask
+   * are not treated as background.
+   * @return Returns the eroded mask.
+   */
+  public RunLengthMask erode() {
+    int[][] erodedRows = new int[height][];
+    for (int y = 0; y < height; ++y) {
+      int[] runs = narrow(rows[y], width);
+      if (y > 0) {
+        runs = intersect(runs, rows[y - 1]);
+      }
+      if (y + 1 < height) {
+        runs = intersect(runs, rows[y + 1]);
+      }
+      erodedRows[y] = runs;
+    }
+    return new RunLengthMask(width, height, erodedRows);
+  }
+
+  /**
+   * Removes all foreground pixels of another mask from this mask.
+   * @param other The mask which should be subtracted.
+   * @return Returns this mask AND NOT the other mask.
+   */
+  public RunLengthMask andNot(RunLengthMask other) {
+    int[][] resultRows = new int[height][];
+    for (int y = 0; y < height; ++y) {
+      resultRows[y] = subtract(rows[y], other.rows[y]);
+    }
+    return new RunLengthMask(width, height, resultRows);
+  }
+
+  /**
+   * Keeps only the foreground pixels which are foreground in another mask as well.
+   * @param other The mask to intersect with.
+   * @return Returns this mask AND the other mask.
+   */
+  public RunLengthMask and(RunLengthMask other) {
+    int[][] resultRows = new int[height][];
+    for (int y = 0; y < height; ++y) {
+      resultRows[y] = intersect(rows[y], other.rows[y]);
+    }
+    return new RunLengthMask(width, height, resultRows);
+  }
+
+  /**
+   * Adds all foreground pixels of another mask to this mask.
+   * @param other The mask to unite with.
+   * @return Returns this mask OR the other mask.
+   */
+  public RunLengthMask or(RunLengthMask other) {
+    int[][] resultRows = new int[height][];
+    for (int y = 0; y < height; ++y) {
+      resultRows[y] = union(rows[y], other.rows[y]);
+    }
+    return new RunLengthMask(width, height, resultRows);
+  }
+
+  /**
+   * Swaps foreground and background.
+   * @return Returns NOT this mask.
+   */
+  public RunLengthMask invert() {
+    int[][] resultRows = new int[height][];
+    for (int y = 0; y < height; ++y) {
+      resultRows[y] = subtract(new int[] {0, width}, rows[y]);
+    }
+    return new RunLengthMask(width, height, resultRows);
+  }
+
+  /**
+   * Region labelling with the N8 neighbourhood on the runs. The IDs are assigned in the order of the first run of each
+   * region (row by row), regions smaller than the minimum area consume an ID but are dropped from the result.
+   * @param minArea The minimum amount of pixels of a region.
+   * @return Returns a Map of IDs for each region and the mask of the region.
+   */
+  public Map<Integer, RunLengthMask> labelRegions(int minArea) {
+    int[] rowOffsets = rowOffsets(rows);
+    int runCount = rowOffsets[height];
+    UnionFind runSets = linkRuns(rows, rowOffsets);
+
+    int[] regionIds = new int[runCount];
+    int[] regionAreas = new int[runCount + 1];
+    int idSequence = 0;
+    for (int y = 0; y < height; ++y) {
+      int[] runs = rows[y];
+      for (int i = 0; i < runs.length; i += 2) {
+        int root = runSets.find(rowOffsets[y] + i / 2);
+        if (regionIds[root] == 0) {
+          regionIds[root] = ++idSequence;
+        }
+        regionAreas[regionIds[root]] += runs[i + 1] - runs[i];
+      }
+    }
+
+    Map<Integer, Builder> builders = new HashMap<>();
+    for (int y = 0; y < height; ++y) {
+      int[] runs = rows[y];
+      for (int i = 0; i < runs.length; i += 2) {
+        int id = regionIds[runSets.find(rowOffsets[y] + i / 2)];
+        if (minArea <= regionAreas[id]) {
+          builders.computeIfAbsent(id, key -> new Builder(width, height)).addRun(y, runs[i], runs[i + 1]);
+        }
+      }
+    }
+    Map<Integer, RunLengthMask> regions = new HashMap<>();
+    builders.forEach((id, builder) -> regions.put(id, builder.build()));
+    return regions;
+  }
+
+  /**
+   * Fills all holes of the mask, that means all background regions which do not touch the image border.
+   * @return Returns the mask without holes.
+   */
+  public RunLengthMask fillHoles() {
+    int[][] backgroundRows = new int[height][];
+    for (int y = 0; y < height; ++y) {
+      backgroundRows[y] = subtract(new int[] {0, width}, rows[y]);
+    }
+    int[] rowOffsets = rowOffsets(backgroundRows);
+    UnionFind runSets = linkRuns(backgroundRows, rowOffsets);
+    boolean[] touchesBorder = new boolean[runSets.size()];
+    for (int y = 0; y < height; ++y) {
+      int[] runs = backgroundRows[y];
+      for (int i = 0; i < runs.length; i += 2) {
+        if (y == 0 || y == height - 1 || runs[i] == 0 || runs[i + 1] == width) {
+          touchesBorder[runSets.find(rowOffsets[y] + i / 2)] = true;
+        }
+      }
+    }
+    int[][] filledRows = new int[height][];
+    for (int y = 0; y < height; ++y) {
+      int[] runs = backgroundRows[y];
+      int[] holes = new int[runs.length];
+      int length = 0;
+      for (int i = 0; i < runs.length; i += 2) {
+        if (!touchesBorder[runSets.find(rowOffsets[y] + i / 2)]) {
+          holes[length++] = runs[i];
+          holes[length++] = runs[i + 1];
+        }
+      }
+      filledRows[y] = length == 0 ? rows[y] : union(rows[y], Arrays.copyOf(holes, length));
+    }
+    return new RunLengthMask(width, height, filledRows);
+  }
+
+  private static int[] rowOffsets(int[][] rows) {
+    int[] rowOffsets = new int[rows.length + 1];
+    for (int y = 0; y < rows.length; ++y) {
+      rowOffsets[y + 1] = rowOffsets[y] + rows[y].length / 2;
+    }
+    return rowOffsets;
+  }
+
+  /**
+   * Links all N8 touching runs of consecutive rows with a union-find.
+   * @param rows The runs of all rows.
+   * @param rowOffsets The index of the first run of each row.
+   * @return Returns the union-find forest of all runs.
+   */
+  private static UnionFind linkRuns(int[][] rows, int[] rowOffsets) {
+    UnionFind runSets = new UnionFind(rowOffsets[rows.length]);
+    for (int y = 1; y < rows.length; ++y) {
+      int[] previous = rows[y - 1];
+      int[] current = rows[y];
+      int p = 0;
+      for (int c = 0; c < current.length; c += 2) {
+        while (p < previous.length && previous[p + 1] < current[c]) {
+          p += 2;
+        }
+        //N8: the runs touch if they overlap including the diagonal neighbours
+        for (int i = p; i < previous.length && previous[i] <= current[c + 1]; i += 2) {
+          runSets.union(rowOffsets[y - 1] + i / 2, rowOffsets[y] + c / 2);
+        }
+      }
+    }
+    return runSets;
+  }
+
+  /**
+   * Widens every run by one pixel on both sides, limited by the row width.
+   */
+  private static int[] widen(int[] runs, int width) {
+    int[] result = new int[runs.length];
+    int length = 0;
+    for (int i = 0; i < runs.length; i += 2) {
+      int start = Math.max(0, runs[i] - 1);
+      int end = Math.min(width, runs[i + 1] + 1);
+      if (length > 0 && start <= result[length - 1]) {
+        result[length - 1] = end;
+      } else {
+        result[length++] = start;
+        result[length++] = end;
+      }
+    }
+    return length == result.length ? result : Arrays.copyOf(result, length);
+  }
+
+  /**
+   * Narrows every run by one pixel on both sides, except on the row borders.
+   */
+  private static int[] narrow(int[] runs, int width) {
+    int[] result = new int[runs.length];
+    int length = 0;
+    for (int i = 0; i < runs.length; i += 2) {
+      int start = runs[i] == 0 ? 0 : runs[i] + 1;
+      int end = runs[i + 1] == width ? width : runs[i + 1] - 1;
+      if (start < end) {
+        result[length++] = start;
+        result[length++] = end;
+      }
+    }
+    return length == result.length ? result : Arrays.copyOf(result, length);
+  }
+
+  private static int[] union(int[] first, int[] second) {
+    if (second.length == 0) {
+      return first;
+    }
+    if (first.length == 0) {
+      return second;
+    }
+    int[] result = new int[first.length + second.length];
+    int length = 0;
+    int i = 0;
+    int j = 0;
+    while (i < first.length || j < second.length) {
+      int start;
+      int end;
+      if (j >= second.length || (i < first.length && first[i] <= second[j])) {
+        start = first[i];
+        end = first[i + 1];
+        i += 2;
+      } else {
+        start = second[j];
+        end = second[j + 1];
+        j += 2;
+      }
+      if (length > 0 && start <= result[length - 1]) {
+        result[length - 1] = Math.max(result[length - 1], end);
+      } else {
+        result[length++] = start;
+        result[length++] = end;
+      }
+    }
+    return length == result.length ? result : Arrays.copyOf(result, length);
+  }
+
+  private static int[] intersect(int[] first, int[] second) {
+    if (first.length == 0 || second.length == 0) {
+      return NO_RUNS;
+    }
+    int[] result = new int[first.length + second.length];
+    int length = 0;
+    int i = 0;
+    int j = 0;
+    while (i < first.length && j < second.length) {
+      int start = Math.max(first[i], second[j]);
+      int end = Math.min(first[i + 1], second[j + 1]);
+      if (start < end) {
+        result[length++] = start;
+        result[length++] = end;
+      }
+      if (first[i + 1] < second[j + 1]) {
+        i += 2;
+      } else {
+        j += 2;
+      }
+    }
+    return Arrays.copyOf(result, length);
+  }
+
+  private static int[] subtract(int[] first, int[] second) {
+    if (first.length == 0 || second.length == 0) {
+      return first;
+    }
+    int[] result = new int[first.length + second.length];
+    int length = 0;
+    int j = 0;
+    for (int i = 0; i < first.length; i += 2) {
+      int start = first[i];
+      int end = first[i + 1];
+      while (j < second.length && second[j + 1] <= start) {
+        j += 2;
+      }
+      int k = j;
+      while (k < second.length && second[k] < end) {
+        if (start < second[k]) {
+          result[length++] = start;
+          result[length++] = second[k];
+        }
+        start = Math.max(start, second[k + 1]);
+        k += 2;
+      }
+      if (start < end) {
+        result[length++] = start;
+        result[length++] = end;
+      }
+    }
+    return Arrays.copyOf(result, length);
+  }
+
+  /**
+   * Builds a mask row by row or run by run.
+   */
+  public static class Builder {
+
+    private final int width;
+    private final int[][] rows;
+    private final int[] rowLengths;
+    private int[] buffer;
+    private int length;
+    private int y;
+    private int runStart = -1;
+    private int runEnd = -1;
+
+    /**
+     * Creates a builder for an empty mask.
+     * @param width The mask width.
+     * @param height The mask height.
+     */
+    public Builder(int width, int height) {
+      this.width = width;
+      this.rows = new int[height][];
+      Arrays.fill(rows, NO_RUNS);
+      this.rowLengths = new int[height];
+      this.buffer = new int[width + 2];
+    }
+
+    /**
+     * Adds a foreground pixel to the current row. The pixels must be added in ascending order.
+     * @param x The x position of the pixel.
+     */
+    public void add(int x) {
+      if (runEnd == x) {
+        ++runEnd;
+      } else {
+        closeRun();
+        runStart = x;
+        runEnd = x + 1;
+      }
+    }
+
+    /**
+     * Adds a run of foreground pixels to the current row. The runs must be added in ascending order.
+     * @param start The first x position of the run.
+     * @param end The x position after the last pixel of the run.
+     */
+    public void add(int start, int end) {
+      if (runEnd == start) {
+        runEnd = end;
+      } else {
+        closeRun();
+        runStart = start;
+        runEnd = end;
+      }
+    }
+
+    /**
+     * Finishes the current row and continues with the next one.
+     */
+    public void nextRow() {
+      closeRun();
+      rows[y] = length == 0 ? NO_RUNS : Arrays.copyOf(buffer, length);
+      rowLengths[y] = length;
+      length = 0;
+      ++y;
+    }
+
+    /**
+     * Adds a run to a row. The runs of a row must be added in ascending order and must not overlap. The row grows by
+     * doubling, so adding all runs of a row is linear in their amount.
+     * @param row The row of the run.
+     * @param start The first x position of the run.
+     * @param end The x position after the last pixel of the run.
+     */
+    public void addRun(int row, int start, int end) {
+      int[] runs = rows[row];
+      int runsLength = rowLengths[row];
+      if (runsLength + 2 > runs.length) {
+        runs = Arrays.copyOf(runs, Math.max(4, runs.length * 2));
+        rows[row] = runs;
+      }
+      runs[runsLength] = start;
+      runs[runsLength + 1] = end;
+      rowLengths[row] = runsLength + 2;
+    }
+
+    /**
+     * @return Returns the built mask.
+     */
+    public RunLengthMask build() {
+      for (int row = 0; row < rows.length; ++row) {
+        if (rows[row].length != rowLengths[row]) {
+          rows[row] = Arrays.copyOf(rows[row], rowLengths[row]);
+        }
+      }
+      return new RunLengthMask(width, rows.length, rows);
+    }
+
+    private void closeRun() {
+      if (runStart >= 0) {
+        if (length == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[length++] = runStart;
+        buffer[length++] = runEnd;
+        runStart = -1;
+        runEnd = -1;
+      }
+    }
+  }
+}
@@ -0,0 +1,120 @@
+import java.awt.Color;
+import java.util.List;
+
+/**
+ * Gold/copper decision on a sample of the region pixels. The pixels are visited in a spread order and the running
+ * mean and variance of the Hue value are updated, the sampling stops as soon as the confidence interval of the mean
+ * lies completely on one side of the gold threshold. The Hue value is only calculated for the visited pixels, so no
+ * HSB image is needed.
+ *
+ * @version 1.0
+ */
+public class SampledHueClassifier {
+
+  public static final double DEFAULT_ERROR_RATE = 0.001;
+  public static final int DEFAULT_MIN_SAMPLES = 32;
+
+  private static final double GOLDEN_RATIO = 0.6180339887498949;
+
+  private final double zScore;
+  private final int minSamples;
+
+  /**
+   * Creates a classifier with the default error rate and minimum amount of samples.
+   */
+  public SampledHueClassifier() {
+    this(DEFAULT_ERROR_RATE, DEFAULT_MIN_SAMPLES);
+  }
+
+  /**
+   * Creates a classifier.
+   * @param errorRate The accepted probability that the sampled decision differs from the decision on all pixels.
+   * @param minSamples The minimum amount of pixels, before the sampling may stop.
+   */
+  public SampledHueClassifier(double errorRate, int minSamples) {
+    if (errorRate <= 0.0 || errorRate >= 1.0) {
+      throw new IllegalArgumentException("Error rate must be in (0;1): " + errorRate);
+    }
+    this.zScore = inverseNormal(errorRate / 2.0);
+    this.minSamples = Math.max(2, minSamples);
+  }
+
+  /**
+   * Determines if a coin in the RGB image is a gold or a copper one.
+   * @param rgbImage The RGB image.
+   * @param points All pixels of the coin.
+   * @return Returns true, if the coin is golden, otherwhise false.
+   */
+  public boolean isGold(int[][][] rgbImage, List<Point> points) {
+    return CoinUtils.isGoldHue(sampleMeanHue(rgbImage, points, new float[3]));
+  }
+
+  /**
+   * Samples the mean Hue value of a region until the gold decision is certain enough.
+   * @param rgbImage The RGB image.
+   * @param points All pixels of the coin.
+   * @param hsbValues Buffer for the HSB conversion.
+   * @return Returns the mean Hue value of the visited pixels.
+   */
+  private double sampleMeanHue(int[][][] rgbImage, List<Point> points, float[] hsbValues) {
+    int size = points.size();
+    if (size == 0) {
+      return 0.0;
+    }
+    int stride = coprimeStride(size);
+    int index = 0;
+    double mean = 0.0;
+    double squaredDeviations = 0.0;
+    for (int n = 1; n <= size; ++n) {
+      Point point = points.get(index);
+      int[] rgb = rgbImage[point.getX()][point.getY()];
+      Color.RGBtoHSB(rgb[0], rgb[1], rgb[2], hsbValues);
+      double delta = hsbValues[0] - mean;
+      mean += delta / n;
+      squaredDeviations += delta * (hsbValues[0] - mean);
+      if (n >= minSamples) {
+        double halfWidth = zScore * Math.sqrt(squaredDeviations / (n - 1) / n);
+        if (Math.abs(mean - CoinUtils.GOLD_HUE_THRESHOLD) > halfWidth) {
+          return mean;
+        }
+      }
+      index += stride;
+      if (index >= size) {
+        index -= size;
+      }
+    }
+    return mean;
+  }
+
+  /**
+   * A stride near the golden ratio of the size which is coprime to the size, so every pixel is visited once and the
+   * first visited pixels are spread over the whole region.
+   */
+  private static int coprimeStride(int size) {
+    int stride = Math.max(1, (int) (size * GOLDEN_RATIO));
+    while (gcd(stride, size) != 1) {
+      ++stride;
+    }
+    return stride;
+  }
+
+  private static int gcd(int a, int b) {
+    while (b != 0) {
+      int t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+
+  /**
+   * Rational approximation of the upper quantile of the standard normal distribution (Abramowitz and Stegun 26.2.23).
+   * @param p The upper tail probability in (0;0.5].
+   * @return Returns z with P(Z > z) = p.
+   */
+  private static double inverseNormal(double p) {
+    double t = Math.sqrt(-2.0 * Math.log(p));
+    return t - (2.515517 + 0.802853 * t + 0.010328 * t * t)
+        / (1.0 + 1.432788 * t + 0.189269 * t * t + 0.001308 * t * t * t);
+  }
+}
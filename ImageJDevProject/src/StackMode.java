@@ -0,0 +1,13 @@
+/**
+ * The way the slices of a stack are counted.
+ *
+ * @version 1.0
+ */
+public enum StackMode {
+  /** Every slice is a separate image. */
+  SLICES,
+  /** The slices are overlapping frames of one tray, every coin in an overlap is counted once. */
+  MOSAIC,
+  /** The slices are consecutive frames of a conveyor camera, every coin is counted once while it passes. */
+  CONVEYOR
+}
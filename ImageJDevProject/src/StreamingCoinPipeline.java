@@ -0,0 +1,474 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming variant of the coin pipeline. The rows of the image flow through threshold segmentation, morphology,
+ * run-length labelling and region statistics without ever materializing a full frame. Every morphology iteration is a
+ * stage with a sliding window of three rows, so the pipeline holds only O(width * morphology iterations) pixels at once.
+ * Contrary to the frame based pipeline the whole segmented reference marker mask is removed from the coin mask and
+ * the largest reference marker component is used for the scaling factor.
+ *
+ * @version 1.0
+ */
+public class StreamingCoinPipeline {
+
+  private final int markerMinThreshold;
+  private final int markerMaxThreshold;
+  private final int markerDelta;
+  private final int coinMinThreshold;
+  private final int coinMaxThreshold;
+  private final int coinDelta;
+  private int normalizeCount = CoinUtils.NORMALIZE_COUNT;
+
+  /**
+   * Creates a streaming pipeline with the thresholds for the reference marker and the coins.
+   * @param markerMinThreshold The minimum threshold of the reference marker.
+   * @param markerMaxThreshold The maximum threshold of the reference marker.
+   * @param markerDelta The delta for the RGB values of the reference marker.
+   * @param coinMinThreshold The minimum threshold of the (inverted) coin segmentation.
+   * @param coinMaxThreshold The maximum threshold of the (inverted) coin segmentation.
+   * @param coinDelta The delta for the RGB values of the (inverted) coin segmentation.
+   */
+  public StreamingCoinPipeline(int markerMinThreshold, int markerMaxThreshold, int markerDelta, int coinMinThreshold,
+      int coinMaxThreshold, int coinDelta) {
+    this.markerMinThreshold = markerMinThreshold;
+    this.markerMaxThreshold = markerMaxThreshold;
+    this.markerDelta = markerDelta;
+    this.coinMinThreshold = coinMinThreshold;
+    this.coinMaxThreshold = coinMaxThreshold;
+    this.coinDelta = coinDelta;
+  }
+
+  /**
+   * @param normalizeCount The amount of dilation and erosion iterations of the normalization.
+   */
+  public void setNormalizeCount(int normalizeCount) {
+    if (normalizeCount < 0) {
+      throw new IllegalArgumentException("Normalize count must not be negative: " + normalizeCount);
+    }
+    this.normalizeCount = normalizeCount;
+  }
+
+  /**
+   * Streams all rows of the source through the pipeline.
+   * @param source The row source of the RGB image.
+   * @param referenceDiameter The real diameter of the reference marker in mm.
+   * @return Returns the reference marker, the coin regions and the coin total sum.
+   */
+  public Result process(RowSource source, double referenceDiameter) {
+    return process(source, referenceDiameter, null);
+  }
+
+  /**
+   * Streams all rows of the source through the pipeline, pixels outside of the ROI mask count as background.
+   * @param source The row source of the RGB image.
+   * @param referenceDiameter The real diameter of the reference marker in mm.
+   * @param roiMask The ROI mask with the size of the image (non-zero inside), or null.
+   * @return Returns the reference marker, the coin regions and the coin total sum.
+   */
+  public Result process(RowSource source, double referenceDiameter, byte[] roiMask) {
+    return process(source, referenceDiameter, roiMask, TaskMonitor.NONE);
+  }
+
+  /**
+   * Streams all rows of the source through the pipeline, which can be cancelled between two rows.
+   * @param source The row source of the RGB image.
+   * @param referenceDiameter The real diameter of the reference marker in mm.
+   * @param roiMask The ROI mask with the size of the image (non-zero inside), or null.
+   * @param monitor The monitor of the pipeline.
+   * @return Returns the reference marker, the coin regions and the coin total sum.
+   */
+  public Result process(RowSource source, double referenceDiameter, byte[] roiMask, TaskMonitor monitor) {
+    int width = source.getWidth();
+    int height = source.getHeight();
+    if (roiMask != null && roiMask.length != width * height) {
+      throw new IllegalArgumentException(String.format("ROI mask size %d differs from %dx%d", roiMask.length, width,
+          height));
+    }
+
+    RunLabeller coinLabeller = new RunLabeller(width, CoinUtils.MIN_THRESHOLD);
+    RowConsumer coinChain = coinLabeller;
+    coinChain = chain(coinChain, width, true, normalizeCount * 2);
+    coinChain = chain(coinChain, width, false, normalizeCount * 4);
+    coinChain = chain(coinChain, width, true, normalizeCount * 2);
+    int coinLatency = normalizeCount * 8;
+
+    RunLabeller markerLabeller = new RunLabeller(width, 0);
+    int markerLatency = normalizeCount * 7;
+    boolean[][] delayedCoinRows = new boolean[markerLatency + 1][width];
+    RowConsumer markerChain = new MarkerSubtraction(markerLabeller, coinChain, delayedCoinRows, width);
+    markerChain = chain(markerChain, width, true, normalizeCount * 2);
+    markerChain = chain(markerChain, width, false, normalizeCount * 4);
+    markerChain = chain(markerChain, width, true, normalizeCount);
+
+    int[][] rgbRows = new int[markerLatency + coinLatency + 1][width];
+    coinLabeller.setRgbRows(rgbRows);
+    boolean[] markerRow = new boolean[width];
+    for (int y = 0; y < height; ++y) {
+      monitor.progress(y, height);
+      int[] rgbRow = rgbRows[y % rgbRows.length];
+      source.readRow(y, rgbRow);
+      thresholdRow(rgbRow, width, markerMinThreshold, markerMaxThreshold, markerDelta, false, markerRow);
+      boolean[] coinRow = delayedCoinRows[y % delayedCoinRows.length];
+      thresholdRow(rgbRow, width, coinMinThreshold, coinMaxThreshold, coinDelta, true, coinRow);
+      if (roiMask != null) {
+        for (int x = 0; x < width; ++x) {
+          boolean inside = roiMask[y * width + x] != 0;
+          markerRow[x] &= inside;
+          coinRow[x] &= inside;
+        }
+      }
+      markerChain.push(markerRow);
+    }
+    markerChain.finish();
+    monitor.progress(1.0);
+
+    RegionStats referenceMarker = null;
+    for (RegionStats region : markerLabeller.getRegions()) {
+      if (referenceMarker == null || referenceMarker.getArea() < region.getArea()) {
+        referenceMarker = region;
+      }
+    }
+    double scalingFactor = referenceMarker == null ? 0.0 :
+        MathUtils.calculateScalingFactor(referenceDiameter, MathUtils.calculateDiameter(referenceMarker.getArea()));
+    CurrencyCatalogue catalogue = CurrencyCatalogue.getCurrent();
+    List<CoinResult> coins = new ArrayList<>();
+    for (RegionStats region : coinLabeller.getRegions()) {
+      double scaledDiameter = MathUtils.scale(MathUtils.calculateDiameter(region.getArea()), scalingFactor);
+      CoinFamily family = CoinUtils.isGoldHue(region.getMeanHue()) ? CoinFamily.GOLD : CoinFamily.COPPER;
+      Coin coin = catalogue.classify(scaledDiameter, family);
+      double confidence = coin == null ? 0.0 : catalogue.confidence(scaledDiameter, family);
+      coins.add(new CoinResult(coins.size() + 1, region.getCentroidX(), region.getCentroidY(), scaledDiameter, family,
+          coin == null ? CoinUtils.NO_COIN : coin, confidence));
+    }
+    return new Result(referenceMarker, coinLabeller.getRegions(), scalingFactor, new ClassificationResult(coins));
+  }
+
+  /**
+   * Threshold segmentation of one row, equivalent to {@link CoinUtils#getTransformedImage(int[][][], int, int, int, int, int, boolean)}.
+   * @param rgbRow The packed RGB row.
+   * @param width The row width.
+   * @param minThreshold The minimum threshold.
+   * @param maxThreshold The maximum threshold.
+   * @param delta The delta for the RGB values.
+   * @param invert An marker to invert the segmented row.
+   * @param outRow The segmented row, true for foreground.
+   */
+  private static void thresholdRow(int[] rgbRow, int width, int minThreshold, int maxThreshold, int delta, boolean invert,
+      boolean[] outRow) {
+    for (int x = 0; x < width; ++x) {
+      int r = (rgbRow[x] >> 16) & 0xff;
+      int g = (rgbRow[x] >> 8) & 0xff;
+      int b = rgbRow[x] & 0xff;
+      boolean inRange = r >= minThreshold && r <= maxThreshold && g >= minThreshold && g <= maxThreshold &&
+          b >= minThreshold && b <= maxThreshold && Math.abs(r - g) <= delta && Math.abs(g - b) <= delta;
+      outRow[x] = inRange != invert;
+    }
+  }
+
+  /**
+   * Prepends a given amount of morphology stages to a consumer.
+   * @param consumer The consumer which receives the output of the last stage.
+   * @param width The row width.
+   * @param dilate True for dilation stages, false for erosion stages.
+   * @param iterations The amount of stages.
+   * @return Returns the first stage of the chain.
+   */
+  private static RowConsumer chain(RowConsumer consumer, int width, boolean dilate, int iterations) {
+    RowConsumer first = consumer;
+    for (int i = 0; i < iterations; ++i) {
+      first = new MorphologyStage(first, width, dilate);
+    }
+    return first;
+  }
+
+  /**
+   * Receives rows in top to bottom order.
+   */
+  private interface RowConsumer {
+
+    void push(boolean[] row);
+
+    void finish();
+  }
+
+  /**
+   * One N4 dilation or erosion step with a sliding window of three rows. The consumer receives row y as soon as
+   * row y + 1 is pushed.
+   */
+  private static final class MorphologyStage implements RowConsumer {
+
+    private final RowConsumer next;
+    private final int width;
+    private final boolean dilate;
+    private final boolean[] outRow;
+    private boolean[] previous;
+    private boolean[] current;
+    private boolean[] spare;
+    private boolean hasPrevious;
+    private boolean hasCurrent;
+
+    MorphologyStage(RowConsumer next, int width, boolean dilate) {
+      this.next = next;
+      this.width = width;
+      this.dilate = dilate;
+      this.outRow = new boolean[width];
+      this.previous = new boolean[width];
+      this.current = new boolean[width];
+      this.spare = new boolean[width];
+    }
+
+    @Override
+    public void push(boolean[] row) {
+      System.arraycopy(row, 0, spare, 0, width);
+      if (hasCurrent) {
+        emit(spare);
+      }
+      boolean[] recycled = previous;
+      previous = current;
+      current = spare;
+      spare = recycled;
+      hasPrevious = hasCurrent;
+      hasCurrent = true;
+    }
+
+    @Override
+    public void finish() {
+      if (hasCurrent) {
+        emit(null);
+      }
+      next.finish();
+    }
+
+    private void emit(boolean[] below) {
+      boolean[] above = hasPrevious ? previous : null;
+      for (int x = 0; x < width; ++x) {
+        if (dilate) {
+          outRow[x] = current[x] || (x > 0 && current[x - 1]) || (x + 1 < width && current[x + 1]) ||
+              (above != null && above[x]) || (below != null && below[x]);
+        } else {
+          outRow[x] = current[x] && (x == 0 || current[x - 1]) && (x + 1 == width || current[x + 1]) &&
+              (above == null || above[x]) && (below == null || below[x]);
+        }
+      }
+      next.push(outRow);
+    }
+  }
+
+  /**
+   * Receives the normalized reference marker rows, labels them and removes them from the delayed coin rows.
+   */
+  private static final class MarkerSubtraction implements RowConsumer {
+
+    private final RowConsumer markerConsumer;
+    private final RowConsumer coinConsumer;
+    private final boolean[][] delayedCoinRows;
+    private final int width;
+    private int y;
+
+    MarkerSubtraction(RowConsumer markerConsumer, RowConsumer coinConsumer, boolean[][] delayedCoinRows, int width) {
+      this.markerConsumer = markerConsumer;
+      this.coinConsumer = coinConsumer;
+      this.delayedCoinRows = delayedCoinRows;
+      this.width = width;
+    }
+
+    @Override
+    public void push(boolean[] row) {
+      boolean[] coinRow = delayedCoinRows[y % delayedCoinRows.length];
+      for (int x = 0; x < width; ++x) {
+        coinRow[x] &= !row[x];
+      }
+      markerConsumer.push(row);
+      coinConsumer.push(coinRow);
+      ++y;
+    }
+
+    @Override
+    public void finish() {
+      markerConsumer.finish();
+      coinConsumer.finish();
+    }
+  }
+
+  /**
+   * Online N8 run-length labelling. Only the runs of the previous row are kept, a region is reported as soon as none
+   * of its runs continues in the current row.
+   */
+  private static final class RunLabeller implements RowConsumer {
+
+    private final int minArea;
+    private final List<RegionStats> regions = new ArrayList<>();
+    private final float[] hsbValues = new float[3];
+    private final UnionFind componentSets = new UnionFind(0);
+    private final List<Component> components = new ArrayList<>();
+    private int[][] rgbRows;
+    private int y;
+    private int[] previousStarts;
+    private int[] previousEnds;
+    private int[] previousComponents;
+    private int previousCount;
+    private int[] currentStarts;
+    private int[] currentEnds;
+    private int[] currentComponents;
+
+    RunLabeller(int width, int minArea) {
+      this.minArea = minArea;
+      int maxRuns = width / 2 + 1;
+      previousStarts = new int[maxRuns];
+      previousEnds = new int[maxRuns];
+      previousComponents = new int[maxRuns];
+      currentStarts = new int[maxRuns];
+      currentEnds = new int[maxRuns];
+      currentComponents = new int[maxRuns];
+    }
+
+    void setRgbRows(int[][] rgbRows) {
+      this.rgbRows = rgbRows;
+    }
+
+    List<RegionStats> getRegions() {
+      return regions;
+    }
+
+    @Override
+    public void push(boolean[] row) {
+      int[] rgbRow = rgbRows == null ? null : rgbRows[y % rgbRows.length];
+      int currentCount = 0;
+      int previousIndex = 0;
+      int x = 0;
+      while (x < row.length) {
+        if (!row[x]) {
+          ++x;
+          continue;
+        }
+        int start = x;
+        while (x < row.length && row[x]) {
+          ++x;
+        }
+        int end = x;
+        int component = -1;
+        while (previousIndex < previousCount && previousEnds[previousIndex] < start) {
+          ++previousIndex;
+        }
+        //N8: the runs touch if they overlap including the diagonal neighbours
+        for (int i = previousIndex; i < previousCount && previousStarts[i] <= end; ++i) {
+          int root = componentSets.find(previousComponents[i]);
+          if (component < 0) {
+            component = root;
+          } else if (component != root) {
+            componentSets.link(root, component);
+            components.get(component).stats.merge(components.get(root).stats);
+            components.set(root, null);
+          }
+        }
+        if (component < 0) {
+          component = componentSets.add();
+          components.add(new Component());
+        }
+        Component region = components.get(component);
+        if (rgbRow == null) {
+          region.stats.addRun(y, start, end);
+        } else {
+          for (int runX = start; runX < end; ++runX) {
+            int rgb = rgbRow[runX];
+            Color.RGBtoHSB((rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff, hsbValues);
+            region.stats.addPixel(runX, y, hsbValues[0]);
+          }
+        }
+        region.lastRow = y;
+        currentStarts[currentCount] = start;
+        currentEnds[currentCount] = end;
+        currentComponents[currentCount] = component;
+        ++currentCount;
+      }
+      reportFinished(y);
+      swapRows(currentCount);
+      ++y;
+    }
+
+    @Override
+    public void finish() {
+      reportFinished(Integer.MAX_VALUE);
+      previousCount = 0;
+    }
+
+    private void reportFinished(int row) {
+      for (int i = 0; i < previousCount; ++i) {
+        Component root = components.get(componentSets.find(previousComponents[i]));
+        if (root.lastRow < row && !root.reported) {
+          root.reported = true;
+          if (minArea <= root.stats.getArea()) {
+            regions.add(root.stats);
+          }
+        }
+      }
+    }
+
+    private void swapRows(int currentCount) {
+      int[] starts = previousStarts;
+      int[] ends = previousEnds;
+      int[] runComponents = previousComponents;
+      previousStarts = currentStarts;
+      previousEnds = currentEnds;
+      previousComponents = currentComponents;
+      previousCount = currentCount;
+      currentStarts = starts;
+      currentEnds = ends;
+      currentComponents = runComponents;
+    }
+  }
+
+  /**
+   * A region which is still growing, stored at the root label of its runs.
+   */
+  private static final class Component {
+
+    private final RegionStats stats = new RegionStats();
+    private int lastRow;
+    private boolean reported;
+  }
+
+  /**
+   * The result of the streaming pipeline.
+   */
+  public static class Result {
+
+    private final RegionStats referenceMarker;
+    private final List<RegionStats> coinRegions;
+    private final double scalingFactor;
+    private final ClassificationResult classification;
+
+    public Result(RegionStats referenceMarker, List<RegionStats> coinRegions, double scalingFactor,
+        ClassificationResult classification) {
+      this.referenceMarker = referenceMarker;
+      this.coinRegions = coinRegions;
+      this.scalingFactor = scalingFactor;
+      this.classification = classification;
+    }
+
+    public RegionStats getReferenceMarker() {
+      return referenceMarker;
+    }
+
+    public List<RegionStats> getCoinRegions() {
+      return coinRegions;
+    }
+
+    public double getScalingFactor() {
+      return scalingFactor;
+    }
+
+    public double getCoinSum() {
+      return classification.getSum();
+    }
+
+    /**
+     * @return Returns the result of every coin, the diameter is derived from the area of the coin region.
+     */
+    public ClassificationResult getClassification() {
+      return classification;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Cooperative cancellation and coarse progress reporting for the long running stages of the coin analysis. The stages
+ * check the monitor once per row, column, tile or iteration, which costs a volatile read and is negligible compared to
+ * the work in between. A cancelled stage throws a {@link CancellationException}. A sub task maps its progress in
+ * [0, 1] onto a part of the progress of its parent and is cancelled together with it.
+ *
+ * @version 1.0
+ */
+public class TaskMonitor {
+
+  /**
+   * A monitor without progress reporting, which is never cancelled.
+   */
+  public static final TaskMonitor NONE = new TaskMonitor(null, null);
+
+  private final TaskMonitor parent;
+  private final double start;
+  private final double end;
+  private final DoubleConsumer progressListener;
+  private final BooleanSupplier cancelRequest;
+  private volatile boolean cancelled;
+
+  /**
+   * Creates a monitor.
+   * @param progressListener The listener which receives the progress in [0, 1], or null.
+   * @param cancelRequest An additional source of cancellation requests, e.g. the escape key, or null.
+   */
+  public TaskMonitor(DoubleConsumer progressListener, BooleanSupplier cancelRequest) {
+    this(null, 0.0, 1.0, progressListener, cancelRequest);
+  }
+
+  private TaskMonitor(TaskMonitor parent, double start, double end, DoubleConsumer progressListener,
+      BooleanSupplier cancelRequest) {
+    this.parent = parent;
+    this.start = start;
+    this.end = end;
+    this.progressListener = progressListener;
+    this.cancelRequest = cancelRequest;
+  }
+
+  /**
+   * @param start The progress of this monitor where the sub task starts.
+   * @param end The progress of this monitor where the sub task ends.
+   * @return Returns the monitor of a part of this task.
+   */
+  public TaskMonitor subTask(double start, double end) {
+    return new TaskMonitor(this, start, end, null, null);
+  }
+
+  /**
+   * Requests the cancellation of the task and all of its sub tasks.
+   */
+  public void cancel() {
+    if (this == NONE) {
+      throw new UnsupportedOperationException("The empty monitor cannot be cancelled");
+    }
+    cancelled = true;
+  }
+
+  /**
+   * @return Returns true, if the task, one of its parents or the current thread was cancelled. The empty monitor
+   *     {@link #NONE} is never cancelled, so an interrupted caller of the overloads without monitor is not aborted.
+   */
+  public boolean isCancelled() {
+    if (this == NONE) {
+      return false;
+    }
+    if (cancelled || (cancelRequest != null && cancelRequest.getAsBoolean())) {
+      return true;
+    }
+    return parent == null ? Thread.currentThread().isInterrupted() : parent.isCancelled();
+  }
+
+  /**
+   * Checks for a cancellation request.
+   * @throws CancellationException If the task was cancelled.
+   */
+  public void checkCancelled() {
+    if (isCancelled()) {
+      throw new CancellationException("Coin analysis cancelled");
+    }
+  }
+
+  /**
+   * Reports the progress and checks for a cancellation request.
+   * @param fraction The completed fraction of the task in [0, 1].
+   * @throws CancellationException If the task was cancelled.
+   */
+  public void progress(double fraction) {
+    checkCancelled();
+    double clamped = Math.max(0.0, Math.min(1.0, fraction));
+    if (parent != null) {
+      parent.progress(start + (end - start) * clamped);
+    } else if (progressListener != null) {
+      progressListener.accept(clamped);
+    }
+  }
+
+  /**
+   * Reports the progress of a loop and checks for a cancellation request.
+   * @param done The amount of completed steps.
+   * @param total The amount of all steps.
+   * @throws CancellationException If the task was cancelled.
+   */
+  public void progress(int done, int total) {
+    progress(total <= 0 ? 1.0 : (double) done / total);
+  }
+}
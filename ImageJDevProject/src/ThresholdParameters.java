@@ -0,0 +1,236 @@
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+/**
+ * The threshold parameters of the reference marker and the coin segmentation. Besides fixed parameters, the thresholds
+ * can be selected automatically for each image with Otsu's method. All histograms are gathered in one parallel pass
+ * over the image, every worker fills a histogram of its own which are merged at the end. It is a joint histogram of the
+ * grey value and the chroma delta (the larger difference of neighbouring channels), from which the grey and delta
+ * histograms of any grey or delta range can be taken without another pass.
+ * <ul>
+ *   <li>The reference marker is the dark class of the pixels below the global Otsu threshold of the grey values, so
+ *   its upper threshold (and the lower one of the coins) is the Otsu threshold of this range.</li>
+ *   <li>The marker delta is the Otsu threshold within the lower Otsu class of the chroma deltas of the marker pixels.
+ *   The grey marker is only a narrow peak next to the long tail of dark coloured pixels, which would pull a single
+ *   threshold too high.</li>
+ *   <li>The coin delta is the Otsu threshold of all chroma deltas, which splits the grey background from the coloured
+ *   coins.</li>
+ *   <li>The upper coin threshold lies {@link #BACKGROUND_DEVIATIONS} standard deviations above the mean of the
+ *   background, which are the grey pixels above the global Otsu threshold.</li>
+ * </ul>
+ *
+ * @version 1.0
+ */
+public class ThresholdParameters {
+
+  public static final double BACKGROUND_DEVIATIONS = 3.5;
+
+  private static final int LEVELS = 256;
+  private static final int COLUMNS_PER_CHUNK = 64;
+
+  private final int markerMinThreshold;
+  private final int markerMaxThreshold;
+  private final int markerDelta;
+  private final int coinMinThreshold;
+  private final int coinMaxThreshold;
+  private final int coinDelta;
+
+  /**
+   * Creates fixed threshold parameters.
+   * @param markerMinThreshold The minimum threshold of the reference marker.
+   * @param markerMaxThreshold The maximum threshold of the reference marker.
+   * @param markerDelta The delta for the RGB values of the reference marker.
+   * @param coinMinThreshold The minimum threshold of the background around the coins.
+   * @param coinMaxThreshold The maximum threshold of the background around the coins.
+   * @param coinDelta The delta for the RGB values of the background around the coins.
+   */
+  public ThresholdParameters(int markerMinThreshold, int markerMaxThreshold, int markerDelta, int coinMinThreshold,
+      int coinMaxThreshold, int coinDelta) {
+    this.markerMinThreshold = markerMinThreshold;
+    this.markerMaxThreshold = markerMaxThreshold;
+    this.markerDelta = markerDelta;
+    this.coinMinThreshold = coinMinThreshold;
+    this.coinMaxThreshold = coinMaxThreshold;
+    this.coinDelta = coinDelta;
+  }
+
+  /**
+   * Selects the threshold parameters of an image automatically.
+   * @param inImg The input RGB image.
+   * @param width The image width.
+   * @param height The image height.
+   * @return Returns the threshold parameters of the image.
+   */
+  public static ThresholdParameters select(int[][][] inImg, int width, int height) {
+    Histograms histograms = IntStream.range(0, (width + COLUMNS_PER_CHUNK - 1) / COLUMNS_PER_CHUNK).parallel()
+        .mapToObj(chunk -> {
+          Histograms chunkHistograms = new Histograms();
+          int endX = Math.min(width, (chunk + 1) * COLUMNS_PER_CHUNK);
+          for (int x = chunk * COLUMNS_PER_CHUNK; x < endX; ++x) {
+            for (int y = 0; y < height; ++y) {
+              chunkHistograms.add(inImg[x][y][0], inImg[x][y][1], inImg[x][y][2]);
+            }
+          }
+          return chunkHistograms;
+        }).reduce(Histograms::merge).orElseGet(Histograms::new);
+
+    long[] grey = histograms.getGreyHistogram(0, LEVELS - 1);
+    int backgroundThreshold = otsu(grey, 0, LEVELS - 1);
+    int markerMaxThreshold = otsu(grey, 0, backgroundThreshold);
+    long[] markerDeltas = histograms.getDeltaHistogram(0, markerMaxThreshold);
+    int markerDelta = otsu(markerDeltas, 0, otsu(markerDeltas, 0, LEVELS - 1));
+    int coinDelta = otsu(histograms.getDeltaHistogram(0, LEVELS - 1), 0, LEVELS - 1);
+    int coinMaxThreshold = histograms.getUpperLimit(backgroundThreshold + 1, coinDelta, BACKGROUND_DEVIATIONS);
+    return new ThresholdParameters(0, markerMaxThreshold, markerDelta, markerMaxThreshold, coinMaxThreshold, coinDelta);
+  }
+
+  /**
+   * Otsu's method: the threshold which maximises the variance between the two classes of a histogram range.
+   * @param histogram The histogram.
+   * @param first The first level of the range.
+   * @param last The last level of the range.
+   * @return Returns the last level of the lower class.
+   */
+  static int otsu(long[] histogram, int first, int last) {
+    long total = 0;
+    double sum = 0.0;
+    for (int level = first; level <= last; ++level) {
+      total += histogram[level];
+      sum += (double) level * histogram[level];
+    }
+    long lowerCount = 0;
+    double lowerSum = 0.0;
+    double bestVariance = -1.0;
+    int threshold = first;
+    for (int level = first; level < last; ++level) {
+      lowerCount += histogram[level];
+      lowerSum += (double) level * histogram[level];
+      long upperCount = total - lowerCount;
+      if (lowerCount == 0 || upperCount == 0) {
+        continue;
+      }
+      double meanDifference = lowerSum / lowerCount - (sum - lowerSum) / upperCount;
+      double variance = (double) lowerCount * upperCount * meanDifference * meanDifference;
+      if (variance > bestVariance) {
+        bestVariance = variance;
+        threshold = level;
+      }
+    }
+    return threshold;
+  }
+
+  public int getMarkerMinThreshold() {
+    return markerMinThreshold;
+  }
+
+  public int getMarkerMaxThreshold() {
+    return markerMaxThreshold;
+  }
+
+  public int getMarkerDelta() {
+    return markerDelta;
+  }
+
+  public int getCoinMinThreshold() {
+    return coinMinThreshold;
+  }
+
+  public int getCoinMaxThreshold() {
+    return coinMaxThreshold;
+  }
+
+  public int getCoinDelta() {
+    return coinDelta;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    ThresholdParameters that = (ThresholdParameters) o;
+    return markerMinThreshold == that.markerMinThreshold && markerMaxThreshold == that.markerMaxThreshold &&
+        markerDelta == that.markerDelta && coinMinThreshold == that.coinMinThreshold &&
+        coinMaxThreshold == that.coinMaxThreshold && coinDelta == that.coinDelta;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(markerMinThreshold, markerMaxThreshold, markerDelta, coinMinThreshold, coinMaxThreshold,
+        coinDelta);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("marker [%d, %d] delta %d, coins [%d, %d] delta %d", markerMinThreshold, markerMaxThreshold,
+        markerDelta, coinMinThreshold, coinMaxThreshold, coinDelta);
+  }
+
+  /**
+   * The histograms of one part of the image.
+   */
+  private static final class Histograms {
+
+    private final long[] greyDeltas = new long[LEVELS * LEVELS];
+
+    void add(int r, int g, int b) {
+      int grey = (r + g + b) / 3;
+      int delta = Math.max(Math.abs(r - g), Math.abs(g - b));
+      ++greyDeltas[grey * LEVELS + delta];
+    }
+
+    Histograms merge(Histograms other) {
+      for (int bin = 0; bin < greyDeltas.length; ++bin) {
+        greyDeltas[bin] += other.greyDeltas[bin];
+      }
+      return this;
+    }
+
+    /**
+     * @return Returns the grey value the given standard deviations above the mean of the pixels from the first grey
+     *     value on with a chroma delta up to the given one.
+     */
+    int getUpperLimit(int firstGrey, int maxDelta, double deviations) {
+      long count = 0;
+      double sum = 0.0;
+      double squaredSum = 0.0;
+      for (int grey = firstGrey; grey < LEVELS; ++grey) {
+        for (int delta = 0; delta <= maxDelta; ++delta) {
+          long pixels = greyDeltas[grey * LEVELS + delta];
+          count += pixels;
+          sum += (double) pixels * grey;
+          squaredSum += (double) pixels * grey * grey;
+        }
+      }
+      if (count == 0) {
+        return LEVELS - 1;
+      }
+      double mean = sum / count;
+      double deviation = Math.sqrt(Math.max(0.0, squaredSum / count - mean * mean));
+      return (int) Math.min(LEVELS - 1, Math.round(mean + deviations * deviation));
+    }
+
+    long[] getGreyHistogram(int firstGrey, int lastGrey) {
+      long[] histogram = new long[LEVELS];
+      for (int grey = firstGrey; grey <= lastGrey; ++grey) {
+        for (int delta = 0; delta < LEVELS; ++delta) {
+          histogram[grey] += greyDeltas[grey * LEVELS + delta];
+        }
+      }
+      return histogram;
+    }
+
+    long[] getDeltaHistogram(int firstGrey, int lastGrey) {
+      long[] histogram = new long[LEVELS];
+      for (int grey = firstGrey; grey <= lastGrey; ++grey) {
+        for (int delta = 0; delta < LEVELS; ++delta) {
+          histogram[delta] += greyDeltas[grey * LEVELS + delta];
+        }
+      }
+      return histogram;
+    }
+  }
+}
@@ -0,0 +1,293 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Tile based connected component labelling for binary coin images.
+ * Every tile is labelled independently (in parallel), afterwards the labels touching each other across the tile seams
+ * are merged with a union-find. The result contains the same regions (N8 connectivity) as
+ * {@link CoinUtils#rgbRegionGrowing(int[][], int[][][])}, including the {@link CoinUtils#MIN_THRESHOLD} filtering.
+ * Optionally the boundary of every region is extracted while the regions are collected and a circle is fitted to it.
+ *
+ * @version 1.0
+ */
+public class TiledRegionLabeller {
+
+  public static final int DEFAULT_TILE_SIZE = 256;
+
+  private static final int UNLABELLED = 0;
+  private static final int[][] N4_OFFSETS = {{-1, 0}, {1, 0}, {0, -1}, {0, 1}};
+  private static final int MIN_BOUNDARY_CAPACITY = 64;
+
+  private TiledRegionLabeller() {
+  }
+
+  /**
+   * Labels all foreground regions of a binary image with the default tile size.
+   * @param coinImage The binary input image.
+   * @return Returns a Map of IDs for each coin and all their pixels represented in a list of points.
+   */
+  public static Map<Integer, List<Point>> labelRegions(int[][] coinImage) {
+    return labelRegions(coinImage, DEFAULT_TILE_SIZE);
+  }
+
+  /**
+   * Labels all foreground regions of a binary image. The IDs are assigned in the same order as the region growing does,
+   * that means the region with the first pixel (column by column) gets the lowest ID and regions smaller than
+   * {@link CoinUtils#MIN_THRESHOLD} consume an ID but are dropped from the result.
+   * @param coinImage The binary input image.
+   * @param tileSize The edge length of a single tile in pixels.
+   * @return Returns a Map of IDs for each coin and all their pixels represented in a list of points.
+   */
+  public static Map<Integer, List<Point>> labelRegions(int[][] coinImage, int tileSize) {
+    return labelRegions(coinImage, tileSize, null);
+  }
+
+  /**
+   * Labels all foreground regions of a binary image and measures the circle of every region on its boundary.
+   * @param coinImage The binary input image.
+   * @param tileSize The edge length of a single tile in pixels.
+   * @param measurements The map which receives the circle measurement of each region ID, or null.
+   * @return Returns a Map of IDs for each coin and all their pixels represented in a list of points.
+   */
+  public static Map<Integer, List<Point>> labelRegions(int[][] coinImage, int tileSize,
+      Map<Integer, CircleMeasurement> measurements) {
+    return labelRegions(coinImage, tileSize, measurements, CoinUtils.MIN_THRESHOLD);
+  }
+
+  /**
+   * Labels all foreground regions of a binary image with a given minimum region size, e.g. for a downsampled image.
+   * @param coinImage The binary input image.
+   * @param tileSize The edge length of a single tile in pixels.
+   * @param measurements The map which receives the circle measurement of each region ID, or null.
+   * @param minArea The minimum amount of pixels of a region.
+   * @return Returns a Map of IDs for each coin and all their pixels represented in a list of points.
+   */
+  public static Map<Integer, List<Point>> labelRegions(int[][] coinImage, int tileSize,
+      Map<Integer, CircleMeasurement> measurements, int minArea) {
+    return labelRegions(coinImage, tileSize, measurements, minArea, TaskMonitor.NONE);
+  }
+
+  /**
+   * Labels all foreground regions of a binary image and checks for cancellation once per tile.
+   * @param coinImage The binary input image.
+   * @param tileSize The edge length of a single tile in pixels.
+   * @param measurements The map which receives the circle measurement of each region ID, or null.
+   * @param minArea The minimum amount of pixels of a region.
+   * @param monitor The monitor of the labelling.
+   * @return Returns a Map of IDs for each coin and all their pixels represented in a list of points.
+   */
+  public static Map<Integer, List<Point>> labelRegions(int[][] coinImage, int tileSize,
+      Map<Integer, CircleMeasurement> measurements, int minArea, TaskMonitor monitor) {
+    if (tileSize <= 0) {
+      throw new IllegalArgumentException("Tile size must be positive: " + tileSize);
+    }
+    int width = coinImage.length;
+    int height = coinImage[0].length;
+    int tilesX = (width + tileSize - 1) / tileSize;
+    int tilesY = (height + tileSize - 1) / tileSize;
+    int[][] labels = new int[width][height];
+
+    /* 1. Label each tile on its own. */
+    int[] tileLabelCounts = new int[tilesX * tilesY];
+    IntStream.range(0, tileLabelCounts.length).parallel().forEach(tile -> {
+      monitor.checkCancelled();
+      int startX = (tile % tilesX) * tileSize;
+      int startY = (tile / tilesX) * tileSize;
+      tileLabelCounts[tile] = labelTile(coinImage, labels, startX, startY, Math.min(startX + tileSize, width),
+          Math.min(startY + tileSize, height));
+    });
+
+    monitor.progress(0.4);
+
+    /* 2. Shift the local labels into a global label space. */
+    int[] offsets = new int[tileLabelCounts.length];
+    int labelCount = 0;
+    for (int tile = 0; tile < tileLabelCounts.length; ++tile) {
+      offsets[tile] = labelCount;
+      labelCount += tileLabelCounts[tile];
+    }
+    IntStream.range(0, tileLabelCounts.length).parallel().forEach(tile -> {
+      int startX = (tile % tilesX) * tileSize;
+      int startY = (tile / tilesX) * tileSize;
+      int endX = Math.min(startX + tileSize, width);
+      int endY = Math.min(startY + tileSize, height);
+      for (int x = startX; x < endX; ++x) {
+        for (int y = startY; y < endY; ++y) {
+          if (labels[x][y] != UNLABELLED) {
+            labels[x][y] += offsets[tile];
+          }
+        }
+      }
+    });
+
+    monitor.progress(0.5);
+
+    /* 3. Merge the labels across the tile seams. */
+    UnionFind labelSets = new UnionFind(labelCount + 1);
+    for (int seamX = tileSize; seamX < width; seamX += tileSize) {
+      for (int y = 0; y < height; ++y) {
+        int left = labels[seamX - 1][y];
+        if (left != UNLABELLED) {
+          for (int yOffset = -1; yOffset <= 1; ++yOffset) {
+            int neighbourY = y + yOffset;
+            if (neighbourY >= 0 && neighbourY < height && labels[seamX][neighbourY] != UNLABELLED) {
+              labelSets.union(left, labels[seamX][neighbourY]);
+            }
+          }
+        }
+      }
+    }
+    for (int seamY = tileSize; seamY < height; seamY += tileSize) {
+      for (int x = 0; x < width; ++x) {
+        int top = labels[x][seamY - 1];
+        if (top != UNLABELLED) {
+          for (int xOffset = -1; xOffset <= 1; ++xOffset) {
+            int neighbourX = x + xOffset;
+            if (neighbourX >= 0 && neighbourX < width && labels[neighbourX][seamY] != UNLABELLED) {
+              labelSets.union(top, labels[neighbourX][seamY]);
+            }
+          }
+        }
+      }
+    }
+
+    monitor.progress(0.6);
+    Map<Integer, List<Point>> idLabels = collectRegions(labels, labelSets, labelCount, minArea, measurements);
+    monitor.progress(0.8);
+    return idLabels;
+  }
+
+  /**
+   * Labels the foreground pixels of one tile with a flood fill which never leaves the tile.
+   * @param coinImage The binary input image.
+   * @param labels The label image, only the pixels of this tile are written.
+   * @param startX The first column of the tile.
+   * @param startY The first row of the tile.
+   * @param endX The column after the last column of the tile.
+   * @param endY The row after the last row of the tile.
+   * @return Returns the amount of labels used in this tile. The labels are numbered from 1.
+   */
+  private static int labelTile(int[][] coinImage, int[][] labels, int startX, int startY, int endX, int endY) {
+    int tileHeight = endY - startY;
+    int[] stack = new int[(endX - startX) * tileHeight];
+    int label = UNLABELLED;
+    for (int x = startX; x < endX; ++x) {
+      for (int y = startY; y < endY; ++y) {
+        if (coinImage[x][y] != CoinUtils.FOREGROUND_COLOR || labels[x][y] != UNLABELLED) {
+          continue;
+        }
+        ++label;
+        labels[x][y] = label;
+        int stackSize = 0;
+        stack[stackSize++] = (x - startX) * tileHeight + (y - startY);
+        while (stackSize > 0) {
+          int position = stack[--stackSize];
+          int actualX = startX + position / tileHeight;
+          int actualY = startY + position % tileHeight;
+          //expanding N4 + ND  = N8
+          for (int xOffset = -1; xOffset <= 1; ++xOffset) {
+            for (int yOffset = -1; yOffset <= 1; ++yOffset) {
+              int neighbourX = actualX + xOffset;
+              int neighbourY = actualY + yOffset;
+              if (neighbourX >= startX && neighbourY >= startY && neighbourX < endX && neighbourY < endY &&
+                  labels[neighbourX][neighbourY] == UNLABELLED && coinImage[neighbourX][neighbourY] == CoinUtils.FOREGROUND_COLOR) {
+                labels[neighbourX][neighbourY] = label;
+                stack[stackSize++] = (neighbourX - startX) * tileHeight + (neighbourY - startY);
+              }
+            }
+          }
+        }
+      }
+    }
+    return label;
+  }
+
+  /**
+   * Resolves the merged labels and collects the points of all regions which are large enough. With measurements, the
+   * boundary of every region is collected in the same pass and a circle is fitted to it. A boundary point lies on the
+   * edge between a region pixel and one of its N4 neighbours outside the region; edges at the image border are left
+   * out, so a coin cut by the border is still fitted on its visible arc.
+   * @param labels The label image with global labels.
+   * @param labelSets The union-find forest of the labels.
+   * @param labelCount The amount of global labels.
+   * @param minArea The minimum amount of pixels of a region.
+   * @param measurements The map which receives the circle measurement of each region ID, or null.
+   * @return Returns a Map of IDs for each coin and all their pixels represented in a list of points.
+   */
+  private static Map<Integer, List<Point>> collectRegions(int[][] labels, UnionFind labelSets, int labelCount,
+      int minArea, Map<Integer, CircleMeasurement> measurements) {
+    int width = labels.length;
+    int height = labels[0].length;
+    int[] regionIds = new int[labelCount + 1];
+    int[] regionSizes = new int[labelCount + 1];
+    int idSequence = 0;
+    for (int x = 0; x < width; ++x) {
+      for (int y = 0; y < height; ++y) {
+        if (labels[x][y] != UNLABELLED) {
+          int root = labelSets.find(labels[x][y]);
+          if (regionIds[root] == 0) {
+            regionIds[root] = ++idSequence;
+          }
+          labels[x][y] = regionIds[root];
+          ++regionSizes[regionIds[root]];
+        }
+      }
+    }
+
+    Map<Integer, List<Point>> idLabels = new HashMap<>();
+    for (int id = 1; id <= idSequence; ++id) {
+      if (minArea <= regionSizes[id]) {
+        idLabels.put(id, new ArrayList<>(regionSizes[id]));
+      }
+    }
+    double[][] boundaryX = measurements == null ? null : new double[idSequence + 1][];
+    double[][] boundaryY = measurements == null ? null : new double[idSequence + 1][];
+    int[] boundaryCounts = new int[idSequence + 1];
+    for (int x = 0; x < width; ++x) {
+      for (int y = 0; y < height; ++y) {
+        int id = labels[x][y];
+        if (id == UNLABELLED || regionSizes[id] < minArea) {
+          continue;
+        }
+        idLabels.get(id).add(new Point(x, y));
+        if (measurements == null) {
+          continue;
+        }
+        for (int[] offset : N4_OFFSETS) {
+          if (isBoundary(labels, width, height, id, x + offset[0], y + offset[1])) {
+            int count = boundaryCounts[id];
+            if (boundaryX[id] == null || count == boundaryX[id].length) {
+              int capacity = boundaryX[id] == null ? MIN_BOUNDARY_CAPACITY : 2 * count;
+              boundaryX[id] = boundaryX[id] == null ? new double[capacity] : Arrays.copyOf(boundaryX[id], capacity);
+              boundaryY[id] = boundaryY[id] == null ? new double[capacity] : Arrays.copyOf(boundaryY[id], capacity);
+            }
+            boundaryX[id][count] = x + offset[0] * 0.5;
+            boundaryY[id][count] = y + offset[1] * 0.5;
+            boundaryCounts[id] = count + 1;
+          }
+        }
+      }
+    }
+
+    if (measurements != null) {
+      CircleMeasurement[] fits = new CircleMeasurement[idSequence + 1];
+      idLabels.keySet().parallelStream().forEach(id -> fits[id] = CircleMeasurement.fit(regionSizes[id],
+          boundaryX[id], boundaryY[id], boundaryCounts[id], CircleMeasurement.DEFAULT_REFINEMENT_ITERATIONS, -0.5,
+          -0.5, width - 0.5, height - 0.5));
+      for (int id : idLabels.keySet()) {
+        measurements.put(id, fits[id]);
+      }
+    }
+    return idLabels;
+  }
+
+  private static boolean isBoundary(int[][] labels, int width, int height, int id, int neighbourX, int neighbourY) {
+    return neighbourX >= 0 && neighbourY >= 0 && neighbourX < width && neighbourY < height &&
+        labels[neighbourX][neighbourY] != id;
+  }
+
+}
@@ -0,0 +1,89 @@
+import java.util.Arrays;
+
+/**
+ * Union-find forest of the labels (runs, tiles or basins) of a region labelling. The paths are compressed on every
+ * find, and by default the smaller root becomes the root of a merged set, so the root of a set is its first label.
+ * The forest grows on demand, labels can be added while the labelling proceeds.
+ *
+ * @version 1.0
+ */
+final class UnionFind {
+
+  private int[] parents;
+  private int size;
+
+  /**
+   * Creates a forest of single element sets.
+   * @param size The amount of labels, numbered from 0.
+   */
+  UnionFind(int size) {
+    this.parents = new int[Math.max(size, 1)];
+    for (int i = 0; i < size; ++i) {
+      parents[i] = i;
+    }
+    this.size = size;
+  }
+
+  /**
+   * Adds a new single element set.
+   * @return Returns the new label.
+   */
+  int add() {
+    if (size == parents.length) {
+      parents = Arrays.copyOf(parents, parents.length * 2);
+    }
+    parents[size] = size;
+    return size++;
+  }
+
+  /**
+   * @return Returns the amount of labels.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Finds the root of a label and compresses the path on the way.
+   * @param label The label.
+   * @return Returns the root label.
+   */
+  int find(int label) {
+    int root = label;
+    while (parents[root] != root) {
+      root = parents[root];
+    }
+    while (parents[label] != root) {
+      int next = parents[label];
+      parents[label] = root;
+      label = next;
+    }
+    return root;
+  }
+
+  /**
+   * Merges the sets of two labels. The smaller root becomes the new root.
+   * @param first The first label.
+   * @param second The second label.
+   * @return Returns the root of the merged set.
+   */
+  int union(int first, int second) {
+    int firstRoot = find(first);
+    int secondRoot = find(second);
+    if (firstRoot < secondRoot) {
+      parents[secondRoot] = firstRoot;
+      return firstRoot;
+    }
+    parents[firstRoot] = secondRoot;
+    return secondRoot;
+  }
+
+  /**
+   * Attaches a set below a chosen root, e.g. to keep the root with the higher peak.
+   * @param childRoot The root of the set which is attached.
+   * @param root The root of the merged set.
+   */
+  void link(int childRoot, int root) {
+    parents[childRoot] = root;
+  }
+}